@@ -0,0 +1,71 @@
+/**
+ * ArrayBinInfo.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+
+/**
+ * A BinInfo over a sorted run still held in memory, so it can be merged with runs on disk without being written out.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class ArrayBinInfo extends BinInfo {
+
+    // region Class Attributes
+
+    private int[] run;
+    private int length;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param run Array holding the run.
+     * @param length Number of items in the run, from the start of the array.
+     * @param id Identifier of the bin.
+     * @throws IOException
+     */
+    public ArrayBinInfo(int[] run, int length, int id) throws IOException {
+        super(0, 0, null, id);
+        this.run = run;
+        this.length = length;
+    }
+
+
+    /**
+     * Read straight out of the array.
+     * @param bs Ignored.
+     */
+    @Override
+    public void open(int bs) {
+        if(this.buffer != null) return;
+        this.buffer = IntBuffer.wrap(this.run, 0, this.length).slice();
+        this.bufferSize = this.length;
+    }
+
+
+    /**
+     * The whole run is in the buffer from the start, so there is nothing more to read.
+     */
+    @Override
+    protected void refill() {
+        this.bufferPosition = 0;
+        this.bufferSize = 0;
+    }
+
+
+    /**
+     * Let go of the array.
+     */
+    @Override
+    public void close() {
+        this.run = null;
+        super.close();
+    }
+}
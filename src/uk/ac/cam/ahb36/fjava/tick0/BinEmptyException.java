@@ -1,16 +0,0 @@
-/**
- * BinEmptyException.java
- * Copyright 2017, Harri Bell-Thomas, All rights reserved.
- */
-
-package uk.ac.cam.ahb36.fjava.tick0;
-
-
-/**
- * Custom exception called when a BinInfo instance has offered all of its bin.
- *
- * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
- */
-public class BinEmptyException extends Exception {
-    public BinEmptyException() {}
-}
@@ -5,114 +5,289 @@
 
 package uk.ac.cam.ahb36.fjava.tick0;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 
 
 /**
  * A BinInfo object is used to retrieve items sequentially from a sector in a file using buffering.
  *
+ * Items are read a whole buffer at a time straight into a direct byte buffer, usually taken from a BufferPool, and
+ * read back through a big-endian int view of it. The head of the bin can be inspected without consuming it, and runs
+ * of equal items can be consumed in one call.
+ *
  * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
  */
 public class BinInfo {
 
     // region Class Attributes
 
-    private int binStartOffset;
-    private int binLength;
-    private int internalReadOffset = 0;
-    private int maximumBufferSize;
-    private int bufferSize;
-    private int bufferPosition = 0;
-    private int binID;
-    private int bytesToRead;
+    protected long binStartOffset;
+    protected long binLength;
+    protected long internalReadOffset = 0;
 
-    private byte[] buffer;
+    protected ByteBuffer bytes;
+    protected IntBuffer buffer;
+    protected int bufferSize = 0;
+    protected int bufferPosition = 0;
 
-    private RandomAccessFile dataSource;
+    protected BufferPool pool;
+
+    protected PhaseMetrics metrics;
+    protected IOQueue ioQueue;
+    protected long bytesRead = 0;
+    protected long refills = 0;
+    protected long ioNanos = 0;
+
+    private int binID;
 
-    private boolean binEmpty;
+    private RandomAccessFile dataSource;
 
     // endregion
 
 
+    /**
+     * Constructor, for a bin whose buffer is allocated on its own.
+     * @param offset Offset of the start of the bin in the file, in bytes.
+     * @param length Length of the bin, in bytes.
+     * @param input File object.
+     * @param id Identifier of the bin.
+     * @throws IOException
+     */
+    public BinInfo(long offset, long length, RandomAccessFile input, int id) throws IOException {
+        this(offset, length, input, id, null);
+    }
+
+
     /**
      * Constructor.
-     * @param offset Offset of the start of the bin in the file.
-     * @param length Length of the bin.
+     * @param offset Offset of the start of the bin in the file, in bytes.
+     * @param length Length of the bin, in bytes.
      * @param input File object.
+     * @param id Identifier of the bin.
+     * @param pool Pool to take the buffer from, or null to allocate it.
      * @throws IOException
      */
-    public BinInfo(int offset, int length, RandomAccessFile input, int id) throws IOException {
+    public BinInfo(long offset, long length, RandomAccessFile input, int id, BufferPool pool) throws IOException {
         this.binLength = length;
         this.binStartOffset = offset;
         this.dataSource = input;
         this.binID = id;
+        this.pool = pool;
     }
 
 
     /**
-     * Read and return the first item and increment the pointer.
-     * @param bs Maximum size of the buffer.
-     * @return Head item from the bin.
-     * @throws BinEmptyException
+     * Take the buffer and load the first items of the bin. Does nothing if already open.
+     * @param bs Maximum size of the buffer in bytes.
+     * @throws IOException
      */
-    public int getHeadAndIncrement(int bs) throws BinEmptyException {
+    public void open(int bs) throws IOException {
+        if(this.buffer != null) return;
+        this.bytes = this.allocate(bs);
+        this.buffer = this.bytes.asIntBuffer();
+        this.refill();
+    }
 
-        // Check for empty bin.
-        if(this.internalReadOffset == this.binLength || this.binEmpty) throw new BinEmptyException();
 
-        try {
-            return this.readInteger(bs);
-        }
+    /**
+     * Count this bin's reads in a phase's metrics, and report the bin to it once closed.
+     * @param phase Metrics of the phase the bin is read in.
+     */
+    public void setMetrics(PhaseMetrics phase) {
+        this.metrics = phase;
+    }
 
-        catch (IOException ioe) {
-            ioe.printStackTrace();
-            throw new BinEmptyException(); // On error report bin empty
-        }
+
+    /**
+     * Wait for a turn on the disk in a shared IOScheduler before each read of the file.
+     * @param queue Queue of the job the bin is read for, or null to read unscheduled.
+     */
+    public void setIOQueue(IOQueue queue) {
+        this.ioQueue = queue;
     }
 
 
     /**
-     * Populates the internal buffer.
-     * @throws IOException
+     * Give the buffer back to the pool. The bin reads as empty afterwards.
      */
-    private void fread() throws IOException {
+    public void close() {
+        if(this.metrics != null) {
+            this.metrics.addRun(new RunMetrics(this.binID, this.bytesRead, this.refills, this.ioNanos));
+            this.metrics = null;
+        }
+        if(this.bytes != null && this.pool != null) this.pool.release(this.bytes);
+        this.bytes = null;
+        this.bufferSize = 0;
         this.bufferPosition = 0;
-        this.bytesToRead = Math.min(this.maximumBufferSize, ((this.binLength - this.internalReadOffset) << 2));
-        if(this.bytesToRead == 0) this.binEmpty = true;
-        else this.binEmpty = false;
-        this.dataSource.seek(this.binStartOffset + this.internalReadOffset);
-        this.bufferSize = this.dataSource.read(this.buffer, 0, this.bytesToRead);
     }
 
 
     /**
-     * Reads a byte from the current pointer location.
-     * @return Value at the current position.
+     * @return True once every item in the bin has been consumed.
+     */
+    public boolean isEmpty() {
+        return this.bufferPosition >= this.bufferSize;
+    }
+
+
+    /**
+     * @return The current head of the bin, without consuming it. Only valid if the bin is not empty.
+     */
+    public int head() {
+        return this.buffer.get(this.bufferPosition);
+    }
+
+
+    /**
+     * @return Number of items left in the bin, including the head.
+     */
+    public long remaining() {
+        return (this.bufferSize - this.bufferPosition) + ((this.binLength - this.internalReadOffset) >> 2);
+    }
+
+
+    /**
+     * Consume the head of the bin.
      * @throws IOException
      */
-    private int readByte() throws IOException {
-        if (bufferPosition >= bufferSize) this.fread();
-        this.internalReadOffset++;
-        return (this.buffer[bufferPosition++] & 0xFF);
+    public void advance() throws IOException {
+        if(++this.bufferPosition >= this.bufferSize) this.refill();
     }
 
 
     /**
-     * Read the integer at the current position in the bin.
-     * @param bs Maximum size of the buffer.
-     * @return The integer retrieved.
+     * Consume every item from the head of the bin onwards which is equal to the given key.
+     * @param key Key to consume.
+     * @return Number of items consumed.
      * @throws IOException
      */
-    private int readInteger(int bs) throws IOException {
-        this.maximumBufferSize = bs;
-        if(this.buffer == null) this.buffer = new byte[this.maximumBufferSize];
-        return (this.readByte() << 24) | (this.readByte() << 16) | (this.readByte() << 8) | this.readByte();
+    public long drain(int key) throws IOException {
+        long count = 0;
+        int p;
+        while(true) {
+            p = this.bufferPosition;
+            while(p < this.bufferSize && this.buffer.get(p) == key) p++;
+            count += p - this.bufferPosition;
+            this.bufferPosition = p;
+
+            if(p < this.bufferSize) return count;
+            this.refill();
+            if(this.bufferSize == 0) return count;
+        }
     }
 
 
     public int getBinID() {
         return this.binID;
     }
+
+
+    /**
+     * Replace the contents of the buffer with the next items in the bin.
+     * @throws IOException
+     */
+    protected void refill() throws IOException {
+        long start = System.nanoTime();
+        this.bufferPosition = 0;
+        this.bufferSize = this.fill(this.bytes);
+        if(this.bufferSize > 0) this.recordRefill(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Read the next items in the bin straight into a buffer.
+     * @param dst Buffer to fill, from the start.
+     * @return Number of items read, 0 once the bin is exhausted.
+     * @throws IOException
+     */
+    protected int fill(ByteBuffer dst) throws IOException {
+        int n = (int)Math.min(dst.capacity() >> 2, (this.binLength - this.internalReadOffset) >> 2);
+        if(n == 0) return 0;
+
+        long position = this.binStartOffset + this.internalReadOffset;
+        this.beginIO();
+        long start = System.nanoTime();
+        try {
+            readFully(this.dataSource.getChannel(), dst, n, position);
+        }
+        finally {
+            this.endIO();
+        }
+        this.recordRead(position, n << 2, System.nanoTime() - start);
+
+        this.internalReadOffset += (long)n << 2;
+        return n;
+    }
+
+
+    /**
+     * Wait for a turn on the disk, if the bin's reads are scheduled.
+     * @throws IOException If interrupted while waiting.
+     */
+    protected void beginIO() throws IOException {
+        if(this.ioQueue != null) this.ioQueue.begin();
+    }
+
+
+    /**
+     * Give up the turn taken by beginIO().
+     */
+    protected void endIO() {
+        if(this.ioQueue != null) this.ioQueue.end();
+    }
+
+
+    /**
+     * Count a read from the file.
+     * @param offset Offset read from, in bytes.
+     * @param bytes Number of bytes read.
+     * @param nanos Time taken.
+     */
+    protected void recordRead(long offset, long bytes, long nanos) {
+        this.bytesRead += bytes;
+        if(this.metrics != null) this.metrics.recordRead(offset, bytes, nanos);
+    }
+
+
+    /**
+     * Count a refill of the buffer.
+     * @param nanos Time the reader was held up.
+     */
+    protected void recordRefill(long nanos) {
+        this.refills++;
+        this.ioNanos += nanos;
+        if(this.metrics != null) this.metrics.recordRefill();
+    }
+
+
+    /**
+     * Take a buffer from the pool, or allocate one if there is no pool.
+     * @param bs Size of the buffer in bytes.
+     * @return Direct buffer of a whole number of ints.
+     */
+    protected ByteBuffer allocate(int bs) {
+        bs = Math.max(4, bs & ~0x3);
+        return (this.pool != null) ? this.pool.acquire(bs) : ByteBuffer.allocateDirect(bs);
+    }
+
+
+    /**
+     * Read a number of ints from a channel into the start of a buffer with positional reads.
+     * @param channel Channel to read from.
+     * @param dst Buffer to read into.
+     * @param n Number of ints to read.
+     * @param position Offset in the file to read from, in bytes.
+     * @throws IOException
+     */
+    static void readFully(FileChannel channel, ByteBuffer dst, int n, long position) throws IOException {
+        dst.clear().limit(n << 2);
+        while(dst.hasRemaining()) {
+            if(channel.read(dst, position + dst.position()) < 0) throw new EOFException();
+        }
+    }
 }
@@ -0,0 +1,25 @@
+/**
+ * BinSorter.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * The in-memory sorts available for sorting bins in Phase 1.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum BinSorter {
+
+    /**
+     * Java's inbuilt concurrent dual pivot quicksort, Arrays.parallelSort.
+     */
+    PARALLEL_SORT,
+
+    /**
+     * Parallel LSD radix sort when there is room for a scratch buffer, in-place American flag sort otherwise.
+     */
+    RADIX
+}
@@ -0,0 +1,79 @@
+/**
+ * BlockCache.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Cache of blocks of a sorted file in memory, evicting the least recently used block once full.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class BlockCache {
+
+    // region Class Attributes
+
+    private final int capacity;
+
+    private final LinkedHashMap<Long, int[]> blocks;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param capacity Most blocks to hold.
+     */
+    public BlockCache(int capacity) {
+        this.capacity = capacity;
+
+        // In access order, so the first entry is always the least recently used.
+        this.blocks = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+
+    /**
+     * Look up a block, counting it as used.
+     * @param block Index of the block.
+     * @return The block's ints, or null if it isn't cached.
+     */
+    public synchronized int[] get(long block) {
+        int[] ints = this.blocks.get(block);
+        if(ints == null) this.misses++;
+        else this.hits++;
+        return ints;
+    }
+
+
+    /**
+     * Cache a block, evicting the least recently used block if the cache is full.
+     * @param block Index of the block.
+     * @param ints The block's ints.
+     */
+    public synchronized void put(long block, int[] ints) {
+        if(this.capacity == 0) return;
+        this.blocks.put(block, ints);
+        if(this.blocks.size() > this.capacity) {
+            Iterator<Long> lru = this.blocks.keySet().iterator();
+            lru.next();
+            lru.remove();
+        }
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public int getCapacity() { return this.capacity; }
+    public synchronized int getSize() { return this.blocks.size(); }
+    public synchronized long getHits() { return this.hits; }
+    public synchronized long getMisses() { return this.misses; }
+}
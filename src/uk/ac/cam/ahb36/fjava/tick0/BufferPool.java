@@ -0,0 +1,105 @@
+/**
+ * BufferPool.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A pool of direct (off-heap) byte buffers, carved out of a single slab allocated up front.
+ *
+ * Buffers are handed out by size and returned to a free list of that size on release, so a phase which acquires and
+ * releases buffers of the same sizes over and over allocates nothing after its first round. Between phases the pool
+ * is reset and the whole slab carved again for the next phase's sizes. If the slab runs out a buffer is allocated
+ * outside it, which still gets reused but is counted as overflow.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class BufferPool {
+
+    // region Class Attributes
+
+    // Buffers start on a cache line boundary within the slab, so sizes which are multiples of it pack exactly.
+    static final int ALIGNMENT = 64;
+
+    private ByteBuffer slab;
+    private int top = 0;
+
+    private Map<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<>();
+
+    private long overflow = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param capacity Size of the slab in bytes.
+     */
+    public BufferPool(int capacity) {
+        this.slab = ByteBuffer.allocateDirect(Math.max(ALIGNMENT, capacity));
+    }
+
+
+    /**
+     * Take a buffer from the pool. The buffer is big-endian, cleared, and its capacity is exactly the size asked for.
+     * @param size Size of the buffer in bytes.
+     * @return Buffer to use until it is released.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        ArrayDeque<ByteBuffer> sized = this.free.get(size);
+        if(sized != null && !sized.isEmpty()) return sized.pop();
+
+        // Carve a new buffer off the top of the slab.
+        if(this.slab.capacity() - this.top >= size) {
+            ByteBuffer view = this.slab.duplicate();
+            view.limit(this.top + size).position(this.top);
+            this.top = (int)Math.min(this.slab.capacity(), ((long)this.top + size + ALIGNMENT - 1) & -ALIGNMENT);
+            return view.slice();
+        }
+
+        this.overflow += size;
+        return ByteBuffer.allocateDirect(size);
+    }
+
+
+    /**
+     * Return a buffer to the pool. It must not be used again.
+     * @param buffer Buffer previously acquired from this pool.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        buffer.clear();
+        this.free.computeIfAbsent(buffer.capacity(), k -> new ArrayDeque<>()).push(buffer);
+    }
+
+
+    /**
+     * Forget every buffer handed out so the whole slab can be carved again. Every buffer must have been released.
+     */
+    public synchronized void reset() {
+        this.free.clear();
+        this.top = 0;
+    }
+
+
+    /**
+     * @return Size of the slab in bytes.
+     */
+    public int getCapacity() {
+        return this.slab.capacity();
+    }
+
+
+    /**
+     * @return Total bytes allocated outside the slab because it was full.
+     */
+    public synchronized long getOverflow() {
+        return this.overflow;
+    }
+}
@@ -6,7 +6,14 @@
 package uk.ac.cam.ahb36.fjava.tick0;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -19,62 +26,284 @@ public class BufferedFileOutput {
     // region Class Attributes
 
     private int outputBufferSize;
-    private int currentElement = 0;
 
-    private int[] buff;
+    private long position;
 
-    private RandomAccessFile output;
+    private ByteBuffer bytes;
+    private IntBuffer buff;
+    private ByteBuffer spare;
+    private IntBuffer spareInts;
+
+    private FileChannel output;
+
+    private BufferPool pool;
+
+    private PhaseMetrics metrics;
+    private IOQueue ioQueue;
+    private SparseIndex index;
+
+    private ExecutorService writer;
+    private Future<ByteBuffer> pendingWrite;
 
     // endregion
 
 
     /**
-     * Constructor.
-     * @param bufferSize Buffer size to use.
+     * Constructor, starting the output at the file's current position.
+     * @param bufferSize Buffer size to use, in ints.
+     * @param fos File to write to.
+     * @throws IOException
+     */
+    public BufferedFileOutput(int bufferSize, RandomAccessFile fos) throws IOException {
+        this(bufferSize, fos, fos.getFilePointer());
+    }
+
+
+    /**
+     * Constructor, starting the output at a given offset in the file.
+     * @param bufferSize Buffer size to use, in ints.
+     * @param fos File to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @throws IOException
+     */
+    public BufferedFileOutput(int bufferSize, RandomAccessFile fos, long offset) throws IOException {
+        this(bufferSize, fos, offset, null, null);
+    }
+
+
+    /**
+     * Constructor for double-buffered output, where full buffers are written out on a background thread.
+     * @param bufferSize Buffer size to use, in ints, for each of the two buffers.
      * @param fos File to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @param writer Executor to perform the writes on.
+     * @throws IOException
      */
-    public BufferedFileOutput(int bufferSize, RandomAccessFile fos) {
-        this.outputBufferSize = bufferSize;
-        this.output = fos;
-        this.buff = new int[this.outputBufferSize];
+    public BufferedFileOutput(int bufferSize, RandomAccessFile fos, long offset, ExecutorService writer)
+            throws IOException {
+        this(bufferSize, fos, offset, writer, null);
+    }
+
+
+    /**
+     * Constructor taking its buffers from a pool.
+     * @param bufferSize Buffer size to use, in ints, for each buffer.
+     * @param fos File to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @param writer Executor to perform the writes on, or null to write synchronously.
+     * @param pool Pool to take the buffers from, or null to allocate them.
+     * @throws IOException
+     */
+    public BufferedFileOutput(int bufferSize, RandomAccessFile fos, long offset, ExecutorService writer,
+                              BufferPool pool) throws IOException {
+        this.outputBufferSize = Math.max(1, bufferSize);
+        this.output = fos.getChannel();
+        this.position = offset;
+        this.writer = writer;
+        this.pool = pool;
+        this.bytes = this.allocate();
+        this.buff = this.bytes.asIntBuffer();
+    }
+
+
+    /**
+     * Count this output's writes in a phase's metrics.
+     * @param phase Metrics of the phase the output is written in.
+     */
+    public void setMetrics(PhaseMetrics phase) {
+        this.metrics = phase;
+    }
+
+
+    /**
+     * Wait for a turn on the disk in a shared IOScheduler before each write to the file.
+     * @param queue Queue of the job the output is written for, or null to write unscheduled.
+     */
+    public void setIOQueue(IOQueue queue) {
+        this.ioQueue = queue;
+    }
+
+
+    /**
+     * Fill in an index's samples from the ints as they're written, for an output which is the final sorted file.
+     * @param index Index to fill in, or null.
+     */
+    public void setIndex(SparseIndex index) {
+        this.index = index;
     }
 
 
     /**
      * Write an integer to the buffer and flush if required.
      * @param i Integer to write to the buffer.
+     * @throws IOException If a flush fails, including an earlier background write.
      */
-    public void writeInteger(int i) {
-        if(this.currentElement >= this.outputBufferSize) {
-            // Write out and refresh.
-            try {
-                this.output.write(ExternalSort.unpack(this.buff));
-            }
-            catch (IOException ioe) {
-                ioe.printStackTrace();
-            }
-            finally {
-                this.currentElement = 0;
-            }
+    public void writeInteger(int i) throws IOException {
+        if(!this.buff.hasRemaining()) this.flush();
+        this.buff.put(i);
+    }
+
+
+    /**
+     * Write the same integer to the buffer a number of times, flushing as required.
+     * @param i Integer to write to the buffer.
+     * @param count Number of copies to write.
+     * @throws IOException If a flush fails, including an earlier background write.
+     */
+    public void writeRepeated(int i, long count) throws IOException {
+        int n;
+        while(count > 0) {
+            if(!this.buff.hasRemaining()) this.flush();
+            n = (int)Math.min(count, this.buff.remaining());
+            for(int j = 0; j < n; j++) this.buff.put(i);
+            count -= n;
         }
+    }
+
 
-        this.buff[this.currentElement++] = i;
+    /**
+     * Flush the current elements of the buffer to the file and give the buffers back, whether or not that succeeds.
+     * @throws IOException If the write fails, or a background write before it failed.
+     */
+    public void finalWrite() throws IOException {
+        try {
+            this.awaitPendingWrite();
+            this.write(this.bytes, this.buff.position());
+        }
+        finally {
+            this.release(this.bytes);
+            this.release(this.spare);
+            this.bytes = null;
+            this.buff = null;
+            this.spare = null;
+            this.spareInts = null;
+        }
+    }
+
+
+    /**
+     * Offset in the file after the last byte flushed by this instance.
+     * @return Offset in bytes.
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+
+    /**
+     * Write out the full buffer and refresh.
+     * @throws IOException If the write fails, or a background write before it failed.
+     */
+    private void flush() throws IOException {
+        try {
+            if(this.writer == null) this.write(this.bytes, this.outputBufferSize);
+            else this.handOff();
+        }
+        finally {
+            this.buff.clear();
+        }
+    }
+
+
+    /**
+     * Pass the full buffer to the writer and carry on filling the spare one.
+     * At most one write is in flight so writes reach the file in order.
+     * @throws IOException
+     */
+    private void handOff() throws IOException {
+        this.awaitPendingWrite();
+        if(this.spare == null) {
+            this.spare = this.allocate();
+            this.spareInts = this.spare.asIntBuffer();
+        }
+
+        final ByteBuffer full = this.bytes;
+        final IntBuffer fullInts = this.buff;
+        final long at = this.position;
+        this.position += (long)this.outputBufferSize << 2;
+
+        this.bytes = this.spare;
+        this.buff = this.spareInts;
+        this.spare = null;
+        this.spareInts = fullInts;
+        this.pendingWrite = this.writer.submit(() -> {
+            writeAt(full, this.outputBufferSize, at);
+            return full;
+        });
+    }
+
+
+    /**
+     * Write the first ints of a buffer at the current position and move past them.
+     * @param buffer Buffer to write.
+     * @param n Number of ints to write.
+     * @throws IOException
+     */
+    private void write(ByteBuffer buffer, int n) throws IOException {
+        this.writeAt(buffer, n, this.position);
+        this.position += (long)n << 2;
     }
 
 
     /**
-     * Flush the current elements of the buffer to the file.
+     * Write the first ints of a buffer at a position in the file.
+     * @param buffer Buffer to write.
+     * @param n Number of ints to write.
+     * @param at Offset in bytes to write at.
+     * @throws IOException
      */
-    public void finalWrite() {
+    private void writeAt(ByteBuffer buffer, int n, long at) throws IOException {
+        if(this.index != null) this.index.record(at >> 2, buffer, n);
+        if(this.ioQueue != null) this.ioQueue.begin();
+        long start = System.nanoTime();
         try {
-            this.output.write(ExternalSort.unpack(this.buff), 0, this.currentElement << 2);
+            buffer.clear().limit(n << 2);
+            while(buffer.hasRemaining()) this.output.write(buffer, at + buffer.position());
         }
-        catch (IOException ioe) {
-            ioe.printStackTrace();
+        finally {
+            if(this.ioQueue != null) this.ioQueue.end();
+        }
+        if(this.metrics != null) this.metrics.recordWrite(at, (long)n << 2, System.nanoTime() - start);
+    }
+
+
+    /**
+     * @return A buffer of outputBufferSize ints, from the pool if there is one.
+     */
+    private ByteBuffer allocate() {
+        int size = this.outputBufferSize << 2;
+        return (this.pool != null) ? this.pool.acquire(size) : ByteBuffer.allocateDirect(size);
+    }
+
+
+    /**
+     * Give a buffer back to the pool, if there is one.
+     * @param buffer Buffer to release, or null.
+     */
+    private void release(ByteBuffer buffer) {
+        if(buffer != null && this.pool != null) this.pool.release(buffer);
+    }
+
+
+    /**
+     * Block until the in-flight write, if any, has completed and reclaim its buffer.
+     * @throws IOException
+     */
+    private void awaitPendingWrite() throws IOException {
+        if(this.pendingWrite == null) return;
+
+        try {
+            this.spare = this.pendingWrite.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
         }
         finally {
-            this.currentElement = 0;
-            this.buff = null;
+            this.pendingWrite = null;
         }
     }
 }
@@ -0,0 +1,89 @@
+/**
+ * CountOperator.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * A MergeOperator which writes each distinct key with its count, as pairs of big-endian ints (key, count).
+ *
+ * A count too big for an int is split over consecutive pairs with the same key. This is also the format of the
+ * pre-aggregated runs ExternalAggregate merges (see PairBinInfo), so its output can be merged again.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class CountOperator implements MergeOperator {
+
+    // region Class Attributes
+
+    // Size of the output buffer in ints.
+    private static final int BUFFER_SIZE = 1 << 14;
+
+    private BufferedFileOutput output;
+
+    private long keys = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param out File to write the pairs to, from the start.
+     * @throws IOException
+     */
+    public CountOperator(RandomAccessFile out) throws IOException {
+        this(out, 0, BUFFER_SIZE, null);
+    }
+
+
+    /**
+     * Constructor.
+     * @param out File to write the pairs to.
+     * @param offset Offset in bytes to start writing at.
+     * @param bufferSize Size of the output buffer in ints.
+     * @param pool Pool to take the output buffer from, or null to allocate it.
+     * @throws IOException
+     */
+    public CountOperator(RandomAccessFile out, long offset, int bufferSize, BufferPool pool) throws IOException {
+        this.output = new BufferedFileOutput(bufferSize, out, offset, null, pool);
+    }
+
+
+    @Override
+    public void accept(int key, long count) throws IOException {
+        int n;
+        for(; count > 0; count -= n) {
+            n = (int)Math.min(count, Integer.MAX_VALUE);
+            this.output.writeInteger(key);
+            this.output.writeInteger(n);
+        }
+        this.keys++;
+    }
+
+
+    @Override
+    public void finish() throws IOException {
+        this.output.finalWrite();
+    }
+
+
+    /**
+     * @return Number of distinct keys written.
+     */
+    public long getKeys() {
+        return this.keys;
+    }
+
+
+    /**
+     * @return Offset in the file after the last pair written, once finished.
+     */
+    public long getPosition() {
+        return this.output.getPosition();
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Dataset.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Generated inputs for benchmarking, each a different shape of data the sort has to cope with.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum Dataset {
+
+    // Uniformly random ints.
+    UNIFORM,
+
+    // Already in ascending order.
+    SORTED,
+
+    // In descending order.
+    REVERSE,
+
+    // Uniformly random over only a handful of distinct values.
+    FEW_DISTINCT,
+
+    // A few values very common and a long tail of rare ones, with rank r drawn with probability proportional to 1/r.
+    ZIPFIAN;
+
+    // region Class Attributes
+
+    private static final int FEW_DISTINCT_VALUES = 16;
+
+    private static final int ZIPF_RANKS = 1 << 16;
+
+    // endregion
+
+
+    /**
+     * Generate the data in memory.
+     * @param n Number of ints.
+     * @param seed Seed for the random number generator, so runs are repeatable.
+     * @return Generated ints.
+     */
+    public int[] generate(int n, long seed) {
+        Random rnd = new Random(seed);
+        int[] data = new int[n];
+
+        switch(this) {
+            case UNIFORM:
+                for(int i = 0; i < n; i++) data[i] = rnd.nextInt();
+                break;
+
+            case SORTED:
+            case REVERSE:
+                for(int i = 0; i < n; i++) data[i] = rnd.nextInt();
+                Arrays.sort(data);
+                if(this == REVERSE) {
+                    for(int i = 0, j = n - 1; i < j; i++, j--) {
+                        int tmp = data[i];
+                        data[i] = data[j];
+                        data[j] = tmp;
+                    }
+                }
+                break;
+
+            case FEW_DISTINCT:
+                int[] values = new int[FEW_DISTINCT_VALUES];
+                for(int i = 0; i < values.length; i++) values[i] = rnd.nextInt();
+                for(int i = 0; i < n; i++) data[i] = values[rnd.nextInt(values.length)];
+                break;
+
+            case ZIPFIAN:
+                // Cumulative weights of each rank, searched with a uniform draw.
+                double[] cdf = new double[ZIPF_RANKS];
+                double total = 0;
+                for(int r = 0; r < ZIPF_RANKS; r++) cdf[r] = (total += 1.0 / (r + 1));
+
+                int rank;
+                for(int i = 0; i < n; i++) {
+                    rank = Arrays.binarySearch(cdf, rnd.nextDouble() * total);
+                    if(rank < 0) rank = -rank - 1;
+                    // Scatter the ranks over the whole int range so common values aren't all small.
+                    data[i] = rank * 0x9E3779B1;
+                }
+                break;
+        }
+        return data;
+    }
+
+
+    /**
+     * Generate the data straight into a file, as big-endian ints.
+     * @param path File to write, replacing any existing contents.
+     * @param n Number of ints.
+     * @param seed Seed for the random number generator.
+     * @throws IOException
+     */
+    public void write(String path, int n, long seed) throws IOException {
+        write(path, this.generate(n, seed));
+    }
+
+
+    /**
+     * Write ints to a file, as big-endian ints.
+     * @param path File to write, replacing any existing contents.
+     * @param data Values to write.
+     * @throws IOException
+     */
+    public static void write(String path, int[] data) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocateDirect(1 << 20);
+        IntBuffer ib = bb.asIntBuffer();
+
+        try(FileChannel out = new FileOutputStream(path).getChannel()) {
+            int k;
+            for(int done = 0; done < data.length; done += k) {
+                k = Math.min(data.length - done, ib.capacity());
+                ib.clear();
+                ib.put(data, done, k);
+                bb.clear().limit(k << 2);
+                while(bb.hasRemaining()) out.write(bb);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * DescendingBinInfo.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A BinInfo over a sorted run which reads it from its end, handing back the complement (~x) of each item.
+ *
+ * Complementing reverses the order of ints, so the run reads as ascending again and can go into a merge engine next
+ * to runs of complemented ints. IncrementalSort uses it to merge a sorted prefix from its largest item down.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class DescendingBinInfo extends BinInfo {
+
+    // region Class Attributes
+
+    private FileChannel channel;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param offset Offset of the start of the run in the file, in bytes.
+     * @param length Length of the run, in bytes.
+     * @param input File object.
+     * @param id Identifier of the run.
+     * @param pool Pool to take the buffer from, or null to allocate it.
+     * @throws IOException
+     */
+    public DescendingBinInfo(long offset, long length, RandomAccessFile input, int id, BufferPool pool)
+            throws IOException {
+        super(offset, length, input, id, pool);
+        this.channel = input.getChannel();
+    }
+
+
+    /**
+     * Read the items before the last ones read straight into a buffer, reversed and complemented.
+     * @param dst Buffer to fill, from the start.
+     * @return Number of items read, 0 once the run is exhausted.
+     * @throws IOException
+     */
+    @Override
+    protected int fill(ByteBuffer dst) throws IOException {
+        int n = (int)Math.min(dst.capacity() >> 2, (this.binLength - this.internalReadOffset) >> 2);
+        if(n == 0) return 0;
+
+        long position = this.binStartOffset + this.binLength - this.internalReadOffset - ((long)n << 2);
+        this.beginIO();
+        long start = System.nanoTime();
+        try {
+            readFully(this.channel, dst, n, position);
+        }
+        finally {
+            this.endIO();
+        }
+        this.recordRead(position, n << 2, System.nanoTime() - start);
+        this.internalReadOffset += (long)n << 2;
+
+        int t;
+        for(int i = 0, j = n - 1; i <= j; i++, j--) {
+            t = ~this.buffer.get(i);
+            this.buffer.put(i, ~this.buffer.get(j));
+            this.buffer.put(j, t);
+        }
+        return n;
+    }
+}
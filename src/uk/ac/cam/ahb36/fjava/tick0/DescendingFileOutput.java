@@ -0,0 +1,135 @@
+/**
+ * DescendingFileOutput.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Class to manage buffered writing to a file from an end offset downwards, for output produced largest item first.
+ *
+ * The buffer fills from its end, so each flush is a single sequential write of ints in ascending order just below
+ * the last one.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class DescendingFileOutput {
+
+    // region Class Attributes
+
+    private int outputBufferSize;
+
+    // Offset in bytes of the lowest byte flushed so far.
+    private long position;
+
+    private ByteBuffer bytes;
+    private IntBuffer buff;
+
+    // Index of the lowest int in the buffer; the buffer is full at 0.
+    private int low;
+
+    private FileChannel output;
+
+    private BufferPool pool;
+
+    private SparseIndex index;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param bufferSize Buffer size to use, in ints.
+     * @param fos File to write to.
+     * @param end Offset in bytes to write down from; the first int written ends there.
+     * @param pool Pool to take the buffer from, or null to allocate it.
+     */
+    public DescendingFileOutput(int bufferSize, RandomAccessFile fos, long end, BufferPool pool) {
+        this.outputBufferSize = Math.max(1, bufferSize);
+        this.output = fos.getChannel();
+        this.position = end;
+        this.pool = pool;
+        this.bytes = (pool != null) ? pool.acquire(this.outputBufferSize << 2)
+                                    : ByteBuffer.allocateDirect(this.outputBufferSize << 2);
+        this.buff = this.bytes.asIntBuffer();
+        this.low = this.outputBufferSize;
+    }
+
+
+    /**
+     * Fill in an index's samples from the ints as they're written, for an output which is the final sorted file.
+     * @param index Index to fill in, or null.
+     */
+    public void setIndex(SparseIndex index) {
+        this.index = index;
+    }
+
+
+    /**
+     * Write the same integer below everything written so far a number of times, flushing as required.
+     * @param i Integer to write, no larger than any written before it.
+     * @param count Number of copies to write.
+     * @throws IOException
+     */
+    public void writeRepeated(int i, long count) throws IOException {
+        int n;
+        while(count > 0) {
+            if(this.low == 0) this.flush();
+            n = (int)Math.min(count, this.low);
+            for(int j = 0; j < n; j++) this.buff.put(--this.low, i);
+            count -= n;
+        }
+    }
+
+
+    /**
+     * Flush what is left in the buffer to the file and give the buffer back.
+     * @throws IOException
+     */
+    public void finalWrite() throws IOException {
+        try {
+            this.flush();
+        }
+        finally {
+            if(this.pool != null) this.pool.release(this.bytes);
+            this.bytes = null;
+            this.buff = null;
+        }
+    }
+
+
+    /**
+     * Offset in the file of the lowest byte flushed by this instance.
+     * @return Offset in bytes.
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+
+    /**
+     * Write the ints in the buffer just below the last ones written, and empty it.
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+        int n = this.outputBufferSize - this.low;
+        if(n == 0) return;
+        this.position -= (long)n << 2;
+
+        this.bytes.clear();
+        this.bytes.limit(this.outputBufferSize << 2);
+        this.bytes.position(this.low << 2);
+        ByteBuffer pending = this.bytes.slice();
+        if(this.index != null) this.index.record(this.position >> 2, pending, n);
+        while(pending.hasRemaining()) this.output.write(pending, this.position + pending.position());
+
+        this.low = this.outputBufferSize;
+    }
+}
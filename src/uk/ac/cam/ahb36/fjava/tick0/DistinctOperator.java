@@ -0,0 +1,60 @@
+/**
+ * DistinctOperator.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * A MergeOperator which writes each distinct key once, giving the sorted, deduplicated input.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class DistinctOperator implements MergeOperator {
+
+    // region Class Attributes
+
+    // Size of the output buffer in ints.
+    private static final int BUFFER_SIZE = 1 << 14;
+
+    private BufferedFileOutput output;
+
+    private long keys = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param out File to write the keys to, from the start.
+     * @throws IOException
+     */
+    public DistinctOperator(RandomAccessFile out) throws IOException {
+        this.output = new BufferedFileOutput(BUFFER_SIZE, out);
+    }
+
+
+    @Override
+    public void accept(int key, long count) throws IOException {
+        this.output.writeInteger(key);
+        this.keys++;
+    }
+
+
+    @Override
+    public void finish() throws IOException {
+        this.output.finalWrite();
+    }
+
+
+    /**
+     * @return Number of distinct keys written.
+     */
+    public long getKeys() {
+        return this.keys;
+    }
+}
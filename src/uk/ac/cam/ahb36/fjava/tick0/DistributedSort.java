@@ -0,0 +1,302 @@
+/**
+ * DistributedSort.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+
+/**
+ * Sort of a file split by key range across several worker processes, which share files in a scratch directory.
+ *
+ * The coordinator samples the input to choose a splitter per worker (see RangePartitioner) and runs the workers in two
+ * rounds. In the first each worker reads its own slice of the input and scatters it into one bucket file per key
+ * range. Once every slice has been read the coordinator knows how many ints fall in each range, and so where each
+ * range starts in the output. In the second round each worker gathers the buckets of its range into a partition file,
+ * sorts it with ExternalSort and copies it into place in the original file.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class DistributedSort {
+
+    // region Class Attributes
+
+    // Name of the file the coordinator describes the job in for the workers.
+    private static final String JOB_FILE = "job.properties";
+
+    // Heap each worker JVM gets on top of its memory budget and half again, for everything else in the JVM.
+    private static final long WORKER_HEAP_HEADROOM = 32 << 20;
+
+    // endregion
+
+    // region Coordinator
+
+    /**
+     * Sort a file in place across worker processes.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param scratchDir Directory for the buckets, partitions and auxiliary files, shared by every worker.
+     * @param workers Number of worker processes.
+     * @param config Memory budget and strategies for each worker's sort. Each worker has the whole budget.
+     * @return Number of ints in each worker's partition, in key order.
+     * @throws IOException If a worker fails, or on failure to read or write.
+     */
+    public static long[] sort(String f1, File scratchDir, int workers, SortConfig config) throws IOException {
+        if(!scratchDir.isDirectory() && !scratchDir.mkdirs()) throw new IOException("Can't create " + scratchDir);
+
+        // Choose the key ranges and describe the job for the workers.
+        Properties job = new Properties();
+        try(RandomAccessFile input = new RandomAccessFile(f1, "r")) {
+            long numInts = input.length() >> 2;
+            RangePartitioner partitioner = RangePartitioner.sample(input, numInts, workers);
+
+            job.setProperty("input", new File(f1).getAbsolutePath());
+            job.setProperty("numInts", Long.toString(numInts));
+            job.setProperty("workers", Integer.toString(workers));
+            job.setProperty("splitters", join(partitioner.getSplitters()));
+            config.toProperties(job);
+        }
+        File jobFile = new File(scratchDir, JOB_FILE);
+        try(OutputStream out = new FileOutputStream(jobFile)) {
+            job.store(out, "Distributed sort job");
+        }
+
+        // Round 1. Every worker scatters its slice into buckets, after which the input can be overwritten.
+        long heap = config.getMemoryBudget() + (config.getMemoryBudget() >> 1) + WORKER_HEAP_HEADROOM;
+        long[] none = new long[workers];
+        runWorkers("scatter", jobFile, none, heap);
+
+        // Each partition starts in the output after every smaller partition.
+        long[] sizes = new long[workers];
+        long[] offsets = new long[workers];
+        long offset = 0;
+        for(int p = 0; p < workers; p++) {
+            for(int w = 0; w < workers; w++) sizes[p] += bucket(scratchDir, w, p).length() >> 2;
+            offsets[p] = offset;
+            offset += sizes[p] << 2;
+        }
+
+        // Round 2. Every worker sorts its partition into place.
+        runWorkers("sort", jobFile, offsets, heap);
+
+        if(!jobFile.delete()) jobFile.deleteOnExit();
+        return sizes;
+    }
+
+
+    /**
+     * Start a round of workers and wait for all of them to finish.
+     * @param round Name of the round.
+     * @param jobFile File describing the job.
+     * @param offsets Byte offset in the output for each worker.
+     * @param heap Maximum heap of each worker JVM in bytes.
+     * @throws IOException If a worker couldn't be started or failed.
+     */
+    private static void runWorkers(String round, File jobFile, long[] offsets, long heap) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+
+        List<Process> processes = new ArrayList<>();
+        try {
+            for(int w = 0; w < offsets.length; w++) {
+                ProcessBuilder pb = new ProcessBuilder(java, "-Xmx" + heap, "-cp", classpath,
+                                                       DistributedSort.class.getName(), "--worker", round,
+                                                       jobFile.getAbsolutePath(), Integer.toString(w),
+                                                       Long.toString(offsets[w]));
+                processes.add(pb.inheritIO().start());
+            }
+
+            for(int w = 0; w < processes.size(); w++) {
+                int status = processes.get(w).waitFor();
+                if(status != 0) throw new IOException("Worker " + w + " failed the " + round + " round: " + status);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        finally {
+            for(Process p : processes) p.destroy();
+        }
+    }
+
+    // endregion
+
+    // region Workers
+
+    /**
+     * Read one slice of the input and append each int to the bucket for its key range.
+     * @param job Description of the job.
+     * @param scratchDir Directory holding the job.
+     * @param w Index of the worker.
+     * @throws IOException
+     */
+    private static void scatter(Properties job, File scratchDir, int w) throws IOException {
+        SortConfig config = SortConfig.fromProperties(job);
+        long numInts = Long.parseLong(job.getProperty("numInts"));
+        int workers = Integer.parseInt(job.getProperty("workers"));
+        RangePartitioner partitioner = new RangePartitioner(split(job.getProperty("splitters")));
+
+        // The input and every bucket get an equal share of a quarter of the budget, as in ExternalSort.
+        int poolSize = SortPlan.poolSize(config.getMemoryBudget());
+        int share = SortPlan.share(poolSize, workers + 1);
+        BufferPool pool = new BufferPool(poolSize);
+
+        long first = numInts * w / workers;
+        long last = numInts * (w + 1) / workers;
+
+        RandomAccessFile[] files = new RandomAccessFile[workers];
+        BufferedFileOutput[] buckets = new BufferedFileOutput[workers];
+        try(RandomAccessFile input = new RandomAccessFile(job.getProperty("input"), "r")) {
+            for(int p = 0; p < workers; p++) {
+                files[p] = new RandomAccessFile(bucket(scratchDir, w, p), "rw");
+                files[p].setLength(0);
+                buckets[p] = new BufferedFileOutput(share >> 2, files[p], 0, null, pool);
+            }
+
+            BinInfo slice = new BinInfo(first << 2, (last - first) << 2, input, w, pool);
+            slice.open(share);
+            int key;
+            while(!slice.isEmpty()) {
+                key = slice.head();
+                buckets[partitioner.partition(key)].writeRepeated(key, slice.drain(key));
+            }
+            slice.close();
+
+            for(BufferedFileOutput bucket : buckets) bucket.finalWrite();
+        }
+        finally {
+            for(RandomAccessFile file : files) if(file != null) file.close();
+        }
+    }
+
+
+    /**
+     * Gather the buckets of one key range, sort them and copy the result into place in the output.
+     * @param job Description of the job.
+     * @param scratchDir Directory holding the job.
+     * @param p Index of the worker, and so of its key range.
+     * @param offset Byte offset of the range in the output.
+     * @throws IOException
+     */
+    private static void sortPartition(Properties job, File scratchDir, int p, long offset) throws IOException {
+        SortConfig config = SortConfig.fromProperties(job);
+        int workers = Integer.parseInt(job.getProperty("workers"));
+        File partition = new File(scratchDir, "partition-" + p + ".dat");
+        File aux = new File(scratchDir, "partition-" + p + ".aux");
+
+        // 1. Concatenate every worker's bucket for this range.
+        try(RandomAccessFile out = new RandomAccessFile(partition, "rw")) {
+            out.setLength(0);
+            FileChannel dst = out.getChannel();
+            for(int w = 0; w < workers; w++) {
+                File bucket = bucket(scratchDir, w, p);
+                try(RandomAccessFile in = new RandomAccessFile(bucket, "r")) {
+                    transfer(in.getChannel(), dst, dst.size());
+                }
+                if(!bucket.delete()) bucket.deleteOnExit();
+            }
+        }
+
+        // 2. Sort it.
+        ExternalSort.sort(partition.getPath(), aux.getPath(), config);
+
+        // 3. Copy it into its place in the output.
+        try(RandomAccessFile in = new RandomAccessFile(partition, "r");
+            RandomAccessFile out = new RandomAccessFile(job.getProperty("input"), "rw")) {
+            transfer(in.getChannel(), out.getChannel(), offset);
+        }
+        if(!partition.delete()) partition.deleteOnExit();
+        if(!aux.delete()) aux.deleteOnExit();
+    }
+
+
+    /**
+     * Copy the whole of one file into another at the given offset.
+     * @param src File to copy.
+     * @param dst File to copy into.
+     * @param offset Offset in bytes to copy to.
+     * @throws IOException
+     */
+    private static void transfer(FileChannel src, FileChannel dst, long offset) throws IOException {
+        long size = src.size();
+        dst.position(offset);
+        for(long done = 0; done < size; ) done += src.transferTo(done, size - done, dst);
+    }
+
+
+    /**
+     * @return The file a worker scatters the ints of a key range into.
+     */
+    private static File bucket(File scratchDir, int w, int p) {
+        return new File(scratchDir, "bucket-" + w + "-" + p + ".dat");
+    }
+
+    // endregion
+
+    // region Splitter Conversions
+
+    /**
+     * @return Comma-separated ints.
+     */
+    private static String join(int[] values) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < values.length; i++) {
+            if(i > 0) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * @return The ints of a comma-separated list.
+     */
+    private static int[] split(String s) {
+        if(s.isEmpty()) return new int[0];
+        String[] parts = s.split(",");
+        int[] values = new int[parts.length];
+        for(int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i]);
+        return values;
+    }
+
+    // endregion
+
+
+    /**
+     * Coordinator: f1 scratchDir workers [budget in bytes per worker].
+     * Worker, started by the coordinator: --worker round jobFile index offset.
+     * @param args Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if(args[0].equals("--worker")) {
+            File jobFile = new File(args[2]);
+            Properties job = new Properties();
+            try(InputStream in = new FileInputStream(jobFile)) {
+                job.load(in);
+            }
+
+            int index = Integer.parseInt(args[3]);
+            if(args[1].equals("scatter")) scatter(job, jobFile.getParentFile(), index);
+            else sortPartition(job, jobFile.getParentFile(), index, Long.parseLong(args[4]));
+            return;
+        }
+
+        SortConfig config = (args.length > 3) ? new SortConfig(Long.parseLong(args[3])) : SortConfig.fromFreeMemory();
+        sort(args[0], new File(args[1]), Integer.parseInt(args[2]), config);
+        System.out.println("The checksum is: " + ExternalSort.checkSum(args[0]));
+    }
+}
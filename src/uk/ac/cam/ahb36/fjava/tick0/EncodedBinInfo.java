@@ -0,0 +1,149 @@
+/**
+ * EncodedBinInfo.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A BinInfo over a run written by RunCodec, decoding it a batch of blocks at a time.
+ *
+ * The encoded bytes are read into a pooled buffer as for a raw run, and decoded into a small array which the usual
+ * head, advance and drain read from.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class EncodedBinInfo extends BinInfo {
+
+    // region Class Attributes
+
+    // Ints decoded per refill.
+    private static final int DECODE_BATCH = 64 * RunCodec.BLOCK_SIZE;
+
+    private long encodedLength;
+    private long intsLeft;
+
+    private ByteBuffer encoded;
+    private int[] decoded;
+
+    private FileChannel channel;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param offset Offset of the start of the run in the file, in bytes.
+     * @param length Length of the run once decoded, in bytes.
+     * @param encodedLength Length of the run in the file, in bytes.
+     * @param input File object.
+     * @param id Identifier of the run.
+     * @param pool Pool to take the read buffer from, or null to allocate it.
+     * @throws IOException
+     */
+    public EncodedBinInfo(long offset, long length, long encodedLength, RandomAccessFile input, int id,
+                          BufferPool pool) throws IOException {
+        super(offset, length, input, id, pool);
+        this.encodedLength = encodedLength;
+        this.intsLeft = length >> 2;
+        this.channel = input.getChannel();
+    }
+
+
+    /**
+     * Take the read buffer and decode the first blocks of the run. Does nothing if already open.
+     * @param bs Size of the read buffer in bytes, raised to hold at least one block.
+     * @throws IOException
+     */
+    @Override
+    public void open(int bs) throws IOException {
+        if(this.buffer != null) return;
+        this.encoded = this.allocate(Math.max(bs, RunCodec.MAX_BLOCK_BYTES));
+        this.encoded.limit(0);
+        this.decoded = new int[DECODE_BATCH];
+        this.buffer = IntBuffer.wrap(this.decoded);
+        this.refill();
+    }
+
+
+    /**
+     * Give the read buffer back to the pool. The bin reads as empty afterwards.
+     */
+    @Override
+    public void close() {
+        if(this.encoded != null && this.pool != null) this.pool.release(this.encoded);
+        this.encoded = null;
+        this.decoded = null;
+        super.close();
+    }
+
+
+    /**
+     * @return Number of items left in the run, including the head.
+     */
+    @Override
+    public long remaining() {
+        return (this.bufferSize - this.bufferPosition) + this.intsLeft;
+    }
+
+
+    /**
+     * Decode the next batch of blocks, reading more of the run whenever a block isn't wholly in the buffer.
+     * @throws IOException
+     */
+    @Override
+    protected void refill() throws IOException {
+        long start = System.nanoTime();
+        this.bufferPosition = 0;
+        this.bufferSize = 0;
+
+        int m;
+        while(this.intsLeft > 0 && this.bufferSize + RunCodec.BLOCK_SIZE <= this.decoded.length) {
+            m = (int)Math.min(RunCodec.BLOCK_SIZE, this.intsLeft);
+            if(!RunCodec.hasBlock(this.encoded, m)) this.read();
+
+            RunCodec.decodeBlock(this.encoded, m, this.decoded, this.bufferSize);
+            this.bufferSize += m;
+            this.intsLeft -= m;
+        }
+        if(this.bufferSize > 0) this.recordRefill(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Keep whatever is left of the buffer and fill the rest with the next encoded bytes of the run.
+     * @throws IOException
+     */
+    private void read() throws IOException {
+        this.encoded.compact();
+        int n = (int)Math.min(this.encoded.remaining(), this.encodedLength - this.internalReadOffset);
+        int from = this.encoded.position();
+        this.encoded.limit(from + n);
+
+        long position = this.binStartOffset + this.internalReadOffset;
+        this.beginIO();
+        long start = System.nanoTime();
+        try {
+            while(this.encoded.hasRemaining()) {
+                if(this.channel.read(this.encoded, position + this.encoded.position() - from) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+        finally {
+            this.endIO();
+        }
+        this.recordRead(position, n, System.nanoTime() - start);
+
+        this.internalReadOffset += n;
+        this.encoded.flip();
+    }
+}
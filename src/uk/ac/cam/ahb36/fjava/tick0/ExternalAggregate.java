@@ -0,0 +1,281 @@
+/**
+ * ExternalAggregate.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Aggregation of a file of ints by key, computed in the merge of an external sort rather than over its output.
+ *
+ * Phase 1 reads the file in bins and sorts each in memory as ExternalSort does. A bin with enough duplicates is then
+ * collapsed into (key, count) pairs before it is spilled, so duplicate-heavy input shrinks before it ever reaches the
+ * disk. Phase 2 merges the runs with a loser tree, summing the counts of each key across every run, and hands the
+ * keys in order to a MergeOperator: DistinctOperator, CountOperator, HistogramOperator or any other. Runs are spilled
+ * to a scratch directory and intermediate merge passes write pairs too, while the last bin stays in memory for the
+ * final merge as in StreamingSort. The input itself is only read.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class ExternalAggregate {
+
+    /**
+     * Write the distinct ints of a file to another file, in ascending order.
+     * @param f1 Path to the file to aggregate. Left as it is.
+     * @param out Path of the file to write the result to, replacing anything in it.
+     * @param config Memory budget, fan-in and minimum merge buffer to aggregate with.
+     * @return Number of distinct ints.
+     * @throws IOException
+     */
+    public static long distinct(String f1, String out, SortConfig config) throws IOException {
+        File result = new File(out);
+        try(RandomAccessFile o = new RandomAccessFile(result, "rw")) {
+            o.setLength(0);
+            DistinctOperator op = new DistinctOperator(o);
+            aggregate(f1, result.getAbsoluteFile().getParentFile(), op, config);
+            return op.getKeys();
+        }
+    }
+
+
+    /**
+     * Write each distinct int of a file with its count to another file, in ascending order (see CountOperator).
+     * @param f1 Path to the file to aggregate. Left as it is.
+     * @param out Path of the file to write the result to, replacing anything in it.
+     * @param config Memory budget, fan-in and minimum merge buffer to aggregate with.
+     * @return Number of distinct ints.
+     * @throws IOException
+     */
+    public static long count(String f1, String out, SortConfig config) throws IOException {
+        File result = new File(out);
+        try(RandomAccessFile o = new RandomAccessFile(result, "rw")) {
+            o.setLength(0);
+            CountOperator op = new CountOperator(o);
+            aggregate(f1, result.getAbsoluteFile().getParentFile(), op, config);
+            return op.getKeys();
+        }
+    }
+
+
+    /**
+     * Count the ints of a file into fixed-width buckets (see HistogramOperator).
+     * @param f1 Path to the file to aggregate. Left as it is.
+     * @param lo Lowest key of the first bucket.
+     * @param width Number of keys in each bucket.
+     * @param buckets Number of buckets.
+     * @param config Memory budget, fan-in and minimum merge buffer to aggregate with.
+     * @return Count of each bucket.
+     * @throws IOException
+     */
+    public static long[] histogram(String f1, int lo, long width, int buckets, SortConfig config) throws IOException {
+        HistogramOperator op = new HistogramOperator(lo, width, buckets);
+        aggregate(f1, null, op, config);
+        return op.getCounts();
+    }
+
+
+    /**
+     * Feed every distinct int of a file, with its count, to an operator in ascending order.
+     * @param f1 Path to the file to aggregate. Left as it is.
+     * @param scratchDir Directory to spill runs to, or null for the default temporary directory.
+     * @param op Operator to feed. Finished once the last key has been fed to it.
+     * @param config Memory budget, fan-in and minimum merge buffer to aggregate with. The I/O mode, run generation,
+     *               bin sorter, merge mode and merge threads don't apply.
+     * @throws IOException
+     */
+    public static void aggregate(String f1, File scratchDir, MergeOperator op, SortConfig config)
+            throws IOException {
+
+        // The budget is split between the buffer pool and a bin as for a sort.
+        int poolSize = SortPlan.poolSize(config.getMemoryBudget());
+        int maxBinInts = SortPlan.maxBinInts(config.getMemoryBudget());
+        int chunkSize = SortPlan.ioChunkSize(poolSize);
+
+        BufferPool pool = new BufferPool(poolSize);
+
+        try(RandomAccessFile in = new RandomAccessFile(f1, "r");
+            SpillFiles spills = new SpillFiles(scratchDir)) {
+
+            long numInts = in.length() >> 2;
+            int[] bin = new int[(int)Math.min(maxBinInts, numInts)];
+
+
+            // PHASE 1 //
+            // Sort each bin and spill it, collapsed into pairs if that's smaller, all but the last.
+
+            List<Long> bounds = new ArrayList<>();
+            List<Boolean> paired = new ArrayList<>();
+            bounds.add(0L);
+
+            long offset = 0;
+            int n = 0;
+            ByteBuffer chunk = pool.acquire(chunkSize);
+            for(long read = 0; read < numInts; read += n) {
+                n = (int)Math.min(bin.length, numInts - read);
+                ExternalSort.readInts(in.getChannel(), read << 2, bin, n, chunk);
+                Arrays.parallelSort(bin, 0, n);
+                if(read + n == numInts) break;
+
+                RandomAccessFile spill = spills.get(0);
+                BufferedFileOutput bfo = new BufferedFileOutput(chunkSize >> 2, spill, offset, null, pool);
+                boolean pairs = collapse(bin, n, bfo);
+                bfo.finalWrite();
+
+                offset = bfo.getPosition();
+                bounds.add(offset);
+                paired.add(pairs);
+            }
+            pool.release(chunk);
+            pool.reset();
+
+
+            // PHASE 2 //
+            // Merge the spilled runs into runs of pairs until one fewer than the fan-in is left, leaving room for the
+            // bin in memory.
+
+            long[] runBounds = new long[bounds.size()];
+            for(int i = 0; i < runBounds.length; i++) runBounds[i] = bounds.get(i);
+
+            int maxFanIn = SortPlan.maxFanIn(config, poolSize);
+            MergePlan plan = new MergePlan(runBounds.length - 1, maxFanIn - 1);
+            int fanIn = plan.getFanIn();
+            int share = SortPlan.share(poolSize, fanIn + 1);
+
+            int src = 0;
+            for(int pass = 0; pass < plan.getPasses() - 1; pass++) {
+                int runs = runBounds.length - 1;
+                int groups = (runs + fanIn - 1) / fanIn;
+                long[] nextBounds = new long[groups + 1];
+                RandomAccessFile out = spills.get(1 - src);
+
+                for(int g = 0; g < groups; g++) {
+                    List<BinInfo> group = new ArrayList<>();
+                    for(int r = g * fanIn; r < Math.min(runs, (g + 1) * fanIn); r++) {
+                        group.add(newRunInfo(runBounds, r, paired, spills.get(src), pool));
+                    }
+                    CountOperator pairs = new CountOperator(out, nextBounds[g], share >> 2, pool);
+                    merge(group, share, pairs);
+                    pairs.finish();
+                    nextBounds[g + 1] = pairs.getPosition();
+                }
+
+                // Merged runs are always pairs.
+                runBounds = nextBounds;
+                paired.clear();
+                for(int g = 0; g < groups; g++) paired.add(true);
+                src = 1 - src;
+                pool.reset();
+            }
+
+
+            // FINAL MERGE //
+            // Every run left and the bin in memory, into the operator.
+
+            List<BinInfo> runs = new ArrayList<>();
+            for(int r = 0; r < runBounds.length - 1; r++) {
+                runs.add(newRunInfo(runBounds, r, paired, spills.get(src), pool));
+            }
+            runs.add(new ArrayBinInfo(bin, n, runs.size()));
+
+            merge(runs, SortPlan.share(poolSize, runs.size()), op);
+        }
+        op.finish();
+    }
+
+
+    /**
+     * Write a sorted bin out as (key, count) pairs if that's smaller, or as it is if not.
+     * @param bin Sorted bin.
+     * @param n Number of ints in the bin, from the start of the array.
+     * @param out Output to write to.
+     * @return True if the bin was written as pairs.
+     * @throws IOException
+     */
+    private static boolean collapse(int[] bin, int n, BufferedFileOutput out) throws IOException {
+        int distinct = 0;
+        for(int i = 0; i < n; i++) {
+            if(i == 0 || bin[i] != bin[i - 1]) distinct++;
+        }
+
+        if(distinct << 1 >= n) {
+            for(int i = 0; i < n; i++) out.writeInteger(bin[i]);
+            return false;
+        }
+
+        int start = 0;
+        for(int i = 1; i <= n; i++) {
+            if(i == n || bin[i] != bin[start]) {
+                out.writeInteger(bin[start]);
+                out.writeInteger(i - start);
+                start = i;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Merge sorted runs, feeding each key to an operator once with its count summed over every run.
+     * @param runs Readers over the runs to merge.
+     * @param bufferSize Buffer size in bytes for each run.
+     * @param op Operator to feed. Not finished.
+     * @throws IOException
+     */
+    private static void merge(List<BinInfo> runs, int bufferSize, MergeOperator op) throws IOException {
+        MergeEngine merger = new LoserTree(runs.size());
+
+        BinInfo bin;
+        for(int r = 0; r < runs.size(); r++) {
+            bin = runs.get(r);
+            bin.open(bufferSize);
+            if(!bin.isEmpty()) merger.offer(r, bin.head());
+        }
+        merger.start();
+
+        // Drain the min from every run it heads before passing it on.
+        int top;
+        long count;
+        while(!merger.isEmpty()) {
+            top = merger.minKey();
+            count = 0;
+            do {
+                bin = runs.get(merger.minRun());
+                count += bin.drain(top);
+
+                if(bin.isEmpty()) merger.removeMin();
+                else merger.replaceMin(bin.head());
+            } while(!merger.isEmpty() && merger.minKey() == top);
+
+            op.accept(top, count);
+        }
+
+        for(BinInfo run : runs) run.close();
+    }
+
+
+    /**
+     * Create a reader over a spilled run, of pairs or plain ints.
+     * @param bounds Byte offsets of the run boundaries.
+     * @param r Index of the run.
+     * @param paired Whether each run is made of pairs.
+     * @param file File holding the runs.
+     * @param pool Pool to take the buffer from.
+     * @return New reader.
+     * @throws IOException
+     */
+    private static BinInfo newRunInfo(long[] bounds, int r, List<Boolean> paired, RandomAccessFile file,
+                                      BufferPool pool) throws IOException {
+        long length = bounds[r + 1] - bounds[r];
+        if(paired.get(r)) return new PairBinInfo(bounds[r], length, file, r, pool);
+        return new BinInfo(bounds[r], length, file, r, pool);
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * ExternalSelect.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * Extraction of part of a file of ints in sorted order, without sorting or rewriting the whole file.
+ *
+ * The input is only ever read, and the result written to a separate output file, so the cost is a read of the input
+ * plus work proportional to the size of the result:
+ *
+ * - Top-K keeps the K smallest ints in a bounded heap (see TopKHeap) in one read of the input, when K ints fit in
+ *   the budget. Larger K are found by a radix select: two counting reads of the input find the K-th smallest value,
+ *   and the selection then becomes a range extraction which cuts ties at that value.
+ * - Range extraction filters the input as it is read (see RangeFilterChannel) and sorts only the survivors with
+ *   StreamingSort, which keeps them in memory if they fit and otherwise spills sorted runs next to the output and
+ *   merges just those.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class ExternalSelect {
+
+    // region Class Attributes
+
+    // Bits of the key resolved by each counting read of the radix select.
+    private static final int RADIX_BITS = 16;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    // Largest K kept in a heap, kept well clear of the maximum Java array length.
+    private static final int MAX_HEAP_SIZE = 1 << 28;
+
+    // endregion
+
+
+    /**
+     * Write the K smallest ints of a file to another file, in ascending order.
+     * @param f1 Path to the file to select from. Left as it is.
+     * @param out Path of the file to write the result to, replacing anything in it.
+     * @param k Number of ints to select. The whole file is selected if it holds fewer.
+     * @param config Memory budget to select within.
+     * @return Number of ints written.
+     * @throws IOException
+     */
+    public static long smallest(String f1, String out, long k, SortConfig config) throws IOException {
+        if(k < 0) throw new IllegalArgumentException("Can't select " + k + " ints");
+
+        try(RandomAccessFile in = new RandomAccessFile(f1, "r")) {
+            long numInts = in.length() >> 2;
+            k = Math.min(k, numInts);
+            int chunkSize = SortPlan.ioChunkSize(SortPlan.poolSize(config.getMemoryBudget()));
+
+            // The heap gets the budget left over after the I/O chunk.
+            long heapInts = Math.min(MAX_HEAP_SIZE, (config.getMemoryBudget() - chunkSize) >> 2);
+            if(k <= heapInts) {
+                TopKHeap heap = new TopKHeap((int)k);
+                BinInfo input = new BinInfo(0, numInts << 2, in, 0);
+                try {
+                    input.open(chunkSize);
+                    while(!input.isEmpty()) {
+                        heap.offer(input.head());
+                        input.advance();
+                    }
+                }
+                finally {
+                    input.close();
+                }
+                return write(out, heap.toSortedArray(), chunkSize);
+            }
+
+            // Find the K-th smallest value a digit at a time, with the ints in order as unsigned keys.
+            long[] counts = histogram(in, numInts, -1, chunkSize);
+            int high = digit(counts, k - 1);
+            long below = countBelow(counts, high);
+
+            counts = histogram(in, numInts, high, chunkSize);
+            int low = digit(counts, k - 1 - below);
+            below += countBelow(counts, low);
+
+            // Everything below the K-th value, and as many copies of it as make up K.
+            int kth = ((high << RADIX_BITS) | low) ^ Integer.MIN_VALUE;
+            return filter(in, out, Integer.MIN_VALUE, kth, k - below, config);
+        }
+    }
+
+
+    /**
+     * Write the ints of a file within a key range to another file, in ascending order.
+     * @param f1 Path to the file to select from. Left as it is.
+     * @param out Path of the file to write the result to, replacing anything in it.
+     * @param lo Smallest int to select.
+     * @param hi Largest int to select.
+     * @param config Memory budget to sort the selected ints within.
+     * @return Number of ints written.
+     * @throws IOException
+     */
+    public static long range(String f1, String out, int lo, int hi, SortConfig config) throws IOException {
+        try(RandomAccessFile in = new RandomAccessFile(f1, "r")) {
+            return filter(in, out, lo, hi, Long.MAX_VALUE, config);
+        }
+    }
+
+
+    /**
+     * Sort the ints of a file within a key range into another file.
+     * @param in File to select from.
+     * @param out Path of the file to write the result to.
+     * @param lo Smallest int to select.
+     * @param hi Largest int to select.
+     * @param copiesOfHi Most copies of hi to select.
+     * @param config Memory budget to sort the selected ints within.
+     * @return Number of ints written.
+     * @throws IOException
+     */
+    private static long filter(RandomAccessFile in, String out, int lo, int hi, long copiesOfHi, SortConfig config)
+            throws IOException {
+        File result = new File(out);
+        int chunkSize = SortPlan.ioChunkSize(SortPlan.poolSize(config.getMemoryBudget()));
+        try(RandomAccessFile o = new RandomAccessFile(result, "rw");
+            RangeFilterChannel survivors = new RangeFilterChannel(in.getChannel(), 0, in.length() & ~0x3L, lo, hi,
+                                                                  copiesOfHi, chunkSize)) {
+            o.setLength(0);
+
+            // Any runs spill next to the output rather than the default temporary directory.
+            return StreamingSort.sort(survivors, o.getChannel(), result.getAbsoluteFile().getParentFile(), config);
+        }
+    }
+
+
+    /**
+     * Count the ints of a file by one digit of their unsigned key, in one read of the file.
+     * @param in File to read.
+     * @param numInts Number of ints in the file.
+     * @param high High digit to count the low digits of, or -1 to count the high digits of every int.
+     * @param chunkSize Size of the chunks to read in, in bytes.
+     * @return Count of each digit.
+     * @throws IOException
+     */
+    private static long[] histogram(RandomAccessFile in, long numInts, int high, int chunkSize) throws IOException {
+        long[] counts = new long[RADIX];
+        BinInfo input = new BinInfo(0, numInts << 2, in, 0);
+        int key;
+        try {
+            input.open(chunkSize);
+            while(!input.isEmpty()) {
+                key = input.head() ^ Integer.MIN_VALUE;
+                if(high < 0) counts[key >>> RADIX_BITS]++;
+                else if(key >>> RADIX_BITS == high) counts[key & (RADIX - 1)]++;
+                input.advance();
+            }
+        }
+        finally {
+            input.close();
+        }
+        return counts;
+    }
+
+
+    /**
+     * Find the digit holding the int of a given rank.
+     * @param counts Count of each digit.
+     * @param rank Zero based rank of the int, less than the total count.
+     * @return The digit.
+     */
+    private static int digit(long[] counts, long rank) {
+        long seen = 0;
+        for(int d = 0; d < RADIX; d++) {
+            seen += counts[d];
+            if(seen > rank) return d;
+        }
+        throw new IllegalArgumentException("Rank " + rank + " is past the last int");
+    }
+
+
+    /**
+     * @param counts Count of each digit.
+     * @param digit Digit to count below.
+     * @return Number of ints with a smaller digit.
+     */
+    private static long countBelow(long[] counts, int digit) {
+        long below = 0;
+        for(int d = 0; d < digit; d++) below += counts[d];
+        return below;
+    }
+
+
+    /**
+     * Write an array of ints out to a file, replacing anything in it.
+     * @param out Path of the file to write.
+     * @param ints Values to write.
+     * @param chunkSize Size of the buffer to write through, in bytes.
+     * @return Number of ints written.
+     * @throws IOException
+     */
+    private static long write(String out, int[] ints, int chunkSize) throws IOException {
+        try(RandomAccessFile o = new RandomAccessFile(out, "rw")) {
+            o.setLength(0);
+            BufferedFileOutput bfo = new BufferedFileOutput(chunkSize >> 2, o);
+            for(int x : ints) bfo.writeInteger(x);
+            bfo.finalWrite();
+        }
+        return ints.length;
+    }
+
+
+    /**
+     * Static class invocation: ExternalSelect f1 out smallest k [budget], or ExternalSelect f1 out range lo hi
+     * [budget].
+     * @param args Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        boolean smallest = args[2].equals("smallest");
+        int budgetArg = smallest ? 4 : 5;
+        SortConfig config = (args.length > budgetArg) ? new SortConfig(Long.parseLong(args[budgetArg]))
+                                                      : SortConfig.fromFreeMemory();
+        long n = smallest ? smallest(args[0], args[1], Long.parseLong(args[3]), config)
+                          : range(args[0], args[1], Integer.parseInt(args[3]), Integer.parseInt(args[4]), config);
+        System.out.println("Selected " + n + " ints, checksum: " + ExternalSort.checkSum(args[1]));
+    }
+}
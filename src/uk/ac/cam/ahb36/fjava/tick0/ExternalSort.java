@@ -5,20 +5,33 @@
 
 package uk.ac.cam.ahb36.fjava.tick0;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
  * This is the main class for Further Java Tick 0.
  * It implements the external sort function required by the task.
  *
+ * Each instance sorts one file with its own configuration, buffers and files, so any number of sorts can run in the
+ * same process at once. SortScheduler runs them within a shared memory budget and I/O scheduler.
+ *
  * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
  */
 public class ExternalSort {
@@ -28,181 +41,1201 @@ public class ExternalSort {
     // Controls whether debug info is printed to console
     private static boolean DEBUG = false;
 
-    private static RandomAccessFile A_1, A_2, B_1;
+    // Paths of the file to sort and the auxiliary file
+    private final String f1, f2;
+
+    // Configuration and plan of the sort
+    private final SortConfig config;
+    private SortPlan sortPlan;
+
+    // Queue the sort's reads and writes wait in for a turn on the disk, null for unscheduled I/O
+    private final IOQueue ioQueue;
+
+    // Off-heap buffers shared by both phases
+    private BufferPool pool;
+
+    // Report of the sort and metrics of its current phase
+    private SortReport report;
+    private PhaseMetrics phase;
+
+    // Checkpoint of a resumable sort, null when not resumable
+    private SortManifest manifest;
 
-    private static int BIN_SIZE_IN_BYTES;
-    private static int BIN_SIZE_IN_INTS;
+    // Length in the file of each bin Phase 1 encoded, or -1 for a bin left raw; null when bins aren't encoded
+    private long[] encodedLengths;
+
+    // Sparse index of the output when configured, and the same index while the final output is being written
+    private SparseIndex index, indexing;
+
+    private RandomAccessFile a1, a2, b1, b2;
+
+    // Maximum number of background threads performing reads and writes in ASYNC mode.
+    private static final int MAX_IO_THREADS = 4;
+
+    // Appended to the auxiliary file's path to give the path of a resumable sort's manifest.
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    // Most distinct values a counting sort will hold, and the heap allowed for each in the histogram.
+    private static final int MAX_DISTINCT = 1 << 24;
+    private static final int BYTES_PER_DISTINCT = 128;
 
     // endregion
 
+
+    /**
+     * Constructor, for a sort whose I/O isn't scheduled against other sorts.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @param config Memory budget and strategies to sort with.
+     */
+    public ExternalSort(String f1, String f2, SortConfig config) {
+        this(f1, f2, config, null);
+    }
+
+
+    /**
+     * Constructor.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @param config Memory budget and strategies to sort with. The sort stays within its budget, whatever else is
+     *               running.
+     * @param ioQueue Queue of the sort's reads and writes in a shared IOScheduler, or null to not schedule them.
+     */
+    public ExternalSort(String f1, String f2, SortConfig config, IOQueue ioQueue) {
+        this.f1 = f1;
+        this.f2 = f2;
+        this.config = config;
+        this.ioQueue = ioQueue;
+    }
+
     // region Main Sort Function
 
+    /**
+     * Main External Sort Function, with a memory budget estimated from the free heap.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @return Report of the plan and each phase.
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public static SortReport sort(String f1, String f2) throws FileNotFoundException, IOException {
+        return sort(f1, f2, SortConfig.fromFreeMemory());
+    }
+
+
     /**
      * Main External Sort Function.
      * @param f1 Path to the file to be sorted. Result stored in this file.
      * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @param config Memory budget and strategies to sort with.
+     * @return Report of the plan and each phase, also published over JMX through SortMetrics.
      * @throws FileNotFoundException
      * @throws IOException
      */
-    public static void sort(String f1, String f2) throws FileNotFoundException, IOException {
+    public static SortReport sort(String f1, String f2, SortConfig config) throws FileNotFoundException, IOException {
+        return new ExternalSort(f1, f2, config).run();
+    }
 
-        // PHASE 0 //
 
-        // Estimate the amount of memory we have to play with.
-        // Note we divide by 3 to calculate the bin size as we need roughly double the bin size in contiguous
-        // storage at any one time during the first phase.
-        long availableMemory = Runtime.getRuntime().freeMemory() - 2000;
-        BIN_SIZE_IN_BYTES = (int)(availableMemory / 3);
+    /**
+     * Run the sort. Each instance runs once.
+     * @return Report of the plan and each phase, also published over JMX through SortMetrics.
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public SortReport run() throws FileNotFoundException, IOException {
+        if(this.report != null) throw new IllegalStateException("Sort of " + this.f1 + " has already run");
+
+        // PHASE 0 //
 
         // Init file access objects.
-        A_1 = new RandomAccessFile(f1, "rw");
-        A_2 = new RandomAccessFile(f1, "rw");
-        B_1 = new RandomAccessFile(f2, "rw");
+        this.a1 = new RandomAccessFile(this.f1, "rw");
+        this.a2 = new RandomAccessFile(this.f1, "rw");
+        this.b1 = new RandomAccessFile(this.f2, "rw");
+        this.b2 = new RandomAccessFile(this.f2, "rw");
+
+        try {
+            // Calculate how many ints we have to sort. 0 or 1 are already implicitly sorted.
+            long numInts = (this.a1.length() >> 2);
+            if(numInts < 2) {
+                this.report = new SortReport(null);
+                this.report.finish(0);
+                if(this.config.getIndexStride() > 0) this.saveIndex();
+                return this.report;
+            }
+
+            // A resumable sort picks up where the manifest of an earlier attempt left off.
+            File manifest = new File(this.f2 + MANIFEST_SUFFIX);
+            this.manifest = this.config.getResumable() ? SortManifest.load(manifest) : null;
+            if(this.manifest != null && this.manifest.getNumInts() != numInts) {
+                throw new IOException("Manifest " + manifest + " is for a different input");
+            }
+            boolean resuming = this.manifest != null;
+
+            // Plan every bin, buffer and merge from the budget and a sample of the input up front. Once an attempt
+            // has begun the input may already be partly overwritten, so it isn't sampled again.
+            boolean detect = this.config.getDetectPresortedness() && !resuming;
+            SortPlan plan = new SortPlan(this.config, numInts, detect ? Presortedness.sample(this.a1, numInts) : null);
+            if(DEBUG) System.out.print(plan);
+            if(DEBUG && resuming) System.out.println("Resuming from:  " + manifest);
+
+            if(this.config.getResumable() && !resuming) {
+                this.manifest = new SortManifest(manifest, numInts, plan.getMaxFanIn());
+            }
+
+            if(this.config.getIndexStride() > 0) this.index = new SparseIndex(numInts, this.config.getIndexStride());
 
-        // Calculate how many ints we have to sort. 0 or 1 are already implicitly sorted.
-        long numInts = (A_1.length() >> 2);
-        if(numInts < 2) return;
+            this.report = new SortReport(plan);
+            SortMetrics.get().started(this.report);
+            try {
+                this.execute(plan);
+                if(this.index != null) this.saveIndex();
+            }
+            finally {
+                SortMetrics.get().finished(this.report);
+            }
 
-        // Calculate the number of bins required and their sizes.
-        long numBins = (long)Math.ceil((numInts << 2) / (double)(BIN_SIZE_IN_BYTES));
-        BIN_SIZE_IN_INTS = (int)(numInts / numBins);
-        int leftOver = (int)(numInts % numBins);
+            if(DEBUG) System.out.print(this.report);
+            return this.report;
+        }
+        finally {
+            this.manifest = null;
 
-        // Debug output.
-        if(DEBUG) {
-            System.out.println("Available Mem:  " + availableMemory);
-            System.out.println("Num. ints:      " + numInts);
-            System.out.println("Num. bins:      " + numBins);
-            System.out.println("Bin size:       " + BIN_SIZE_IN_INTS);
-            System.out.println("Left over:      " + leftOver);
-            System.out.println("Bin Size Bytes: " + BIN_SIZE_IN_BYTES);
+            // Close all our open files.
+            this.a1.close();
+            this.a2.close();
+            this.b1.close();
+            this.b2.close();
         }
+    }
+
+
+    /**
+     * Plan a sort without running it.
+     * @param f1 Path to the file to be sorted.
+     * @param config Memory budget and strategies to sort with.
+     * @return The plan the sort would run with.
+     * @throws IOException If the file couldn't be sampled.
+     */
+    public static SortPlan plan(String f1, SortConfig config) throws IOException {
+        try(RandomAccessFile file = new RandomAccessFile(f1, "r")) {
+            long numInts = file.length() >> 2;
+            boolean sample = config.getDetectPresortedness() && numInts >= 2;
+            return new SortPlan(config, numInts, sample ? Presortedness.sample(file, numInts) : null);
+        }
+    }
+
+
+    /**
+     * Run both phases of a planned sort over the open files.
+     * @param sortPlan Plan to follow.
+     * @throws IOException
+     */
+    private void execute(SortPlan sortPlan) throws IOException {
+
+        // Every I/O buffer comes out of the pool, allocated once up front.
+        this.sortPlan = sortPlan;
+        this.pool = new BufferPool(sortPlan.getPoolSize());
+
+        // Background I/O threads for the prefetching readers and the output writer.
+        ExecutorService ioPool = (this.config.getIOMode() == IOMode.ASYNC) ? newIOPool() : null;
 
+        // Threads merging separate key ranges of each group.
+        int mergeThreads = this.config.getMergeThreads();
+        ExecutorService mergePool = (mergeThreads > 1) ? Executors.newFixedThreadPool(mergeThreads) : null;
 
-        // PHASE 1 //
-        // Partition, sort and write bins out to the auxiliary file.
+        try {
+            long numBytes = sortPlan.getNumInts() << 2;
+
+            // Each merge pass swaps between the two files and the last must write to the original file.
+            MergePlan plan;
+
+            // Run i occupies bytes [runBounds[i], runBounds[i + 1]) of the file.
+            long[] runBounds;
 
-        byte[] buf = new byte[1];
-        int offset;
-        int standardBinLength = BIN_SIZE_IN_INTS << 2;
 
-        List<BinInfo> binInfos = new ArrayList<>();
+            // FAST PATHS //
+            // Input the sample says is sorted, reversed or has few distinct values may not need the full sort.
+            // Their output is final, so they fill in the index as they go, and a fast path which gives up part way
+            // leaves it to be filled in again.
+            this.indexing = this.index;
+            boolean done = this.fastPath(sortPlan.getShape(), ioPool);
+            this.indexing = null;
+            if(done) return;
+            if(this.index != null) this.index.clear();
 
-        for(int i = 0; i < numBins; i++) {
 
-            // Init bin byte arrays and calculate their offset in the file.
-            // Include the extra ints in the first bin.
-            if(i == 0) {
-                buf = new byte[standardBinLength + (leftOver << 2)];
-                offset = 0;
+            // PHASE 1 //
+            // Generate sorted runs, unless a resumed sort already has.
+            this.phase = this.report.startPhase("run generation");
+
+            if(this.manifest != null && this.manifest.isRunsComplete()) {
+                runBounds = this.manifest.getBounds();
+                this.encodedLengths = this.manifest.getEncodedLengths();
+                plan = new MergePlan(runBounds.length - 1, this.manifest.getMaxFanIn(), true);
+                sortPlan.setMergePlan(plan);
             }
-            else if(i == 1) {
-                buf = new byte[standardBinLength];
-                offset = (leftOver << 2) + (i * standardBinLength);
+            else if(sortPlan.usesReplacementSelection()
+                    && (this.manifest == null || this.manifest.getBounds() == null)) {
+
+                // Stream the file through the heap into runs in the auxiliary file. The number of runs isn't known
+                // until the end, so the plan is then forced to an odd number of passes.
+                int writeBufferSize = sortPlan.getRunWriteBufferSize();
+
+                BinInfo input = this.newBinInfo(0, numBytes, this.a1, 0, ioPool);
+                input.open(sortPlan.getRunReadBufferSize());
+                BufferedFileOutput bfo = new BufferedFileOutput(writeBufferSize, this.b2, 0, ioPool, this.pool);
+                bfo.setMetrics(this.phase);
+                bfo.setIOQueue(this.ioQueue);
+
+                runBounds = new ReplacementSelection(sortPlan.getRunCapacity()).generateRuns(input, bfo);
+                input.close();
+                plan = new MergePlan(runBounds.length - 1, sortPlan.getMaxFanIn(), true);
+                sortPlan.setMergePlan(plan);
+
+                // The heap's contents can't be checkpointed, so the runs are only recorded once they're all written.
+                if(this.manifest != null) {
+                    this.b2.getChannel().force(false);
+                    this.manifest.runsComplete(runBounds);
+                }
+
+                // Debug output.
+                if(DEBUG) System.out.println("Merge plan:     " + plan);
             }
             else {
-                offset = (leftOver << 2) + (i * standardBinLength);
+
+                // Bins are written to the auxiliary file for an odd number of passes and back in place for an even
+                // number (including the single bin case, which needs no merge at all).
+                int firstBin = 0;
+                if(this.manifest != null && this.manifest.getBounds() != null) {
+                    // Carry on with the bins the manifest recorded, which always go to the auxiliary file.
+                    runBounds = this.manifest.getBounds();
+                    this.encodedLengths = this.manifest.getEncodedLengths();
+                    firstBin = this.manifest.getBinsDone();
+                    plan = new MergePlan(runBounds.length - 1, this.manifest.getMaxFanIn(), true);
+                    sortPlan.setMergePlan(plan);
+                }
+                else {
+                    plan = sortPlan.getMergePlan();
+                    runBounds = sortPlan.binBounds();
+                    if(sortPlan.usesRunEncoding()) {
+                        this.encodedLengths = new long[runBounds.length - 1];
+                        Arrays.fill(this.encodedLengths, -1);
+                    }
+                    if(this.manifest != null) this.manifest.startBins(runBounds, this.encodedLengths);
+                }
+                boolean binsToAux = (plan.getPasses() & 1) == 1;
+
+                // Without a merge the sorted bins are the output.
+                if(plan.getPasses() == 0) this.indexing = this.index;
+
+                // Without room for the LSD radix sort's scratch array fall back to the in-place radix sort.
+                int[] scratch = null;
+                if(sortPlan.hasRadixScratch()) scratch = new int[(int)((runBounds[1] - runBounds[0]) >> 2)];
+
+                RandomAccessFile target = binsToAux ? this.b1 : this.a2;
+                if(ioPool != null) this.sortBinsPipelined(runBounds, firstBin, target, scratch, ioPool);
+                else this.sortBins(runBounds, firstBin, target, scratch);
+
+                if(this.manifest != null) this.manifest.runsComplete(runBounds);
             }
 
-            // Read in bin segment.
-            A_1.seek(offset);
-            A_1.read(buf);
 
-            try {
-                // 1. Convert to integers.
-                // 2. Sort using Java's inbuilt concurrent dual pivot quicksort implementation.
-                // 3. Convert back to a byte array.
-                // 4. If multiple bins write out to the auxiliary file, else write immediately back to original file.
-                // 5. Save info about the bin in a BinInfo object and store.
-                int[] iBuf = pack(buf);
-                Arrays.parallelSort(iBuf);
-
-                if(numBins > 1) {
-                    B_1.seek(offset);
-                    B_1.write(unpack(iBuf));
-                    binInfos.add(new BinInfo(offset, buf.length, B_1, i));
+
+            // PHASE 2 //
+            // Bins have been partitioned and sorted. Now read in and merge, one group of runs at a time.
+
+            // Carve the pool up again for the merge buffers.
+            this.phase.stop();
+            this.pool.reset();
+
+            // Need to accommodate for all the bins buffers and the BufferedFileOutput buffer.
+            int fanIn = plan.getFanIn();
+            int readBufferSize = sortPlan.mergeReadBufferSize(fanIn);
+            int writeBufferSize = sortPlan.mergeWriteBufferSize(fanIn);
+
+            RandomAccessFile in, out;
+            long[] nextBounds;
+            int runs, groups, last;
+
+            // A resumed sort skips the passes and groups its manifest records as done.
+            int firstPass = (this.manifest != null) ? Math.min(this.manifest.getPass(), plan.getPasses()) : 0;
+            int firstGroup = (this.manifest != null) ? this.manifest.getGroupsDone() : 0;
+            for(int pass = 0; pass < firstPass; pass++) runBounds = mergedBounds(runBounds, fanIn, numBytes);
+            if(firstPass > 0) this.encodedLengths = null;
+
+            for(int pass = firstPass; pass < plan.getPasses(); pass++) {
+                this.phase = this.report.startPhase("merge pass " + (pass + 1));
+                this.indexing = (pass == plan.getPasses() - 1) ? this.index : null;
+
+                // Passes left to go (including this one) decide which way round the files are.
+                boolean fromAux = ((plan.getPasses() - pass) & 1) == 1;
+                in = fromAux ? this.b1 : this.a1;
+                out = fromAux ? this.a2 : this.b2;
+                final String inPath = fromAux ? this.f2 : this.f1;
+                final String outPath = fromAux ? this.f1 : this.f2;
+
+                runs = runBounds.length - 1;
+                nextBounds = mergedBounds(runBounds, fanIn, numBytes);
+                groups = nextBounds.length - 1;
+
+                // Merge each group of consecutive runs into the same region of the other file.
+                for(int g = (pass == firstPass) ? firstGroup : 0; g < groups; g++) {
+                    last = Math.min(runs, (g + 1) * fanIn);
+
+                    if(mergePool != null) {
+                        this.mergeGroupParallel(runBounds, g * fanIn, last, in, inPath, outPath, readBufferSize,
+                                           writeBufferSize, ioPool, mergePool);
+                    }
+                    else {
+                        List<BinInfo> group = new ArrayList<>();
+                        for(int r = g * fanIn; r < last; r++) group.add(this.newRunInfo(runBounds, r, in, ioPool));
+                        this.mergeRuns(group, out, nextBounds[g], readBufferSize, writeBufferSize, ioPool);
+                    }
+
+                    // A failed write of the group has thrown by now, so the manifest only records groups on disk.
+                    if(this.manifest != null) {
+                        out.getChannel().force(false);
+                        this.manifest.groupsDone(pass, g + 1, groups);
+                    }
                 }
-                else {
-                    // Write straight back to original file.
-                    A_2.seek(0);
-                    A_2.write(unpack(iBuf));
-                    return;
+
+                // Merged runs are always written raw.
+                runBounds = nextBounds;
+                this.encodedLengths = null;
+                this.phase.stop();
+            }
+
+            // Sorted, so there's nothing left to resume.
+            if(this.manifest != null) this.manifest.delete();
+        }
+        finally {
+            if(ioPool != null) ioPool.shutdown();
+            if(mergePool != null) mergePool.shutdown();
+            this.report.finish(this.pool.getOverflow());
+            this.pool = null;
+            this.encodedLengths = null;
+            this.indexing = null;
+            this.phase = null;
+        }
+    }
+
+
+    /**
+     * Try the fast path for the sampled shape of the input, confirming the shape against the whole file first.
+     * @param shape Sampled shape of the input.
+     * @param ioPool Executor for background reads and writes in ASYNC mode.
+     * @return True if the file is now sorted, false if it still needs the full sort.
+     * @throws IOException
+     */
+    private boolean fastPath(InputShape shape, ExecutorService ioPool) throws IOException {
+        boolean done;
+        switch(shape) {
+            case SORTED:
+                this.phase = this.report.startPhase("sorted check");
+                done = this.inOrder(false, ioPool);
+                break;
+
+            // A crash part way through rewriting the input in place would lose data, so a resumable sort only takes the
+            // fast path which doesn't write anything.
+            case REVERSED:
+                if(this.manifest != null) return false;
+                this.phase = this.report.startPhase("reversal");
+                done = this.inOrder(true, ioPool);
+                if(done) this.reverse();
+                break;
+
+            case FEW_DISTINCT:
+                if(this.manifest != null) return false;
+                this.phase = this.report.startPhase("counting sort");
+                done = this.countingSort(ioPool);
+                break;
+
+            default:
+                return false;
+        }
+
+        this.phase.stop();
+        this.pool.reset();
+        return done;
+    }
+
+
+    /**
+     * Read through the file checking it's in order, stopping at the first item which isn't.
+     * @param descending True to check for descending order, false for ascending.
+     * @param ioPool Executor for background reads in ASYNC mode.
+     * @return True if every item is in order.
+     * @throws IOException
+     */
+    private boolean inOrder(boolean descending, ExecutorService ioPool) throws IOException {
+        BinInfo input = this.newBinInfo(0, this.sortPlan.getNumInts() << 2, this.a1, 0, ioPool);
+
+        // A file found to be sorted is the output as it is, so its index is sampled on the way through.
+        SparseIndex sampled = descending ? null : this.indexing;
+        long nextSample = (sampled != null) ? 0 : -1;
+        try {
+            input.open(this.sortPlan.getIOChunkSize());
+            int prev = input.head();
+            int cur;
+            for(long position = 0; !input.isEmpty(); input.advance(), position++) {
+                cur = input.head();
+                if(descending ? cur > prev : cur < prev) return false;
+                if(position == nextSample) {
+                    sampled.recordRepeated(position, cur, 1);
+                    nextSample += sampled.getStride();
                 }
+                prev = cur;
             }
-            catch (IOException ioe) {
-                ioe.printStackTrace();
+            return true;
+        }
+        finally {
+            input.close();
+        }
+    }
+
+
+    /**
+     * Reverse the file in place, swapping blocks from either end inwards.
+     * @throws IOException
+     */
+    private void reverse() throws IOException {
+        long lo = 0;
+        long hi = this.sortPlan.getNumInts();
+
+        // Blocks of half a bin each, so both fit in a bin's worth of heap.
+        int maxBlock = Math.max(this.sortPlan.getIOChunkSize() >> 2, this.sortPlan.getBinSizeInInts() >> 1);
+        int[] front = null;
+        int[] back = null;
+        int k;
+
+        while((k = (int)Math.min(maxBlock, (hi - lo) >> 1)) > 0) {
+            front = this.readBin(lo << 2, k << 2, front);
+            back = this.readBin((hi - k) << 2, k << 2, back);
+            reverse(front);
+            reverse(back);
+            this.writeInts(this.a2, lo << 2, back);
+            this.writeInts(this.a2, (hi - k) << 2, front);
+            lo += k;
+            hi -= k;
+        }
+
+        // The middle item of an odd length file stays where it is, so it's never written to be sampled.
+        if(this.indexing != null && lo < hi) this.indexing.record(lo, this.readBin(lo << 2, 4, null), 1);
+    }
+
+
+    /**
+     * Reverse an array in place.
+     * @param a Array to reverse.
+     */
+    private static void reverse(int[] a) {
+        int t;
+        for(int i = 0, j = a.length - 1; i < j; i++, j--) {
+            t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+
+    /**
+     * Count every distinct value in one read of the file, then write them back out in order over it. Gives up as
+     * soon as there are more distinct values than the histogram is allowed to hold.
+     * @param ioPool Executor for background reads and writes in ASYNC mode.
+     * @return True if the file is now sorted.
+     * @throws IOException
+     */
+    private boolean countingSort(ExecutorService ioPool) throws IOException {
+        long heap = this.config.getMemoryBudget() - this.sortPlan.getPoolSize();
+        Histogram histogram = new Histogram((int)Math.min(heap / BYTES_PER_DISTINCT, MAX_DISTINCT));
+
+        BinInfo input = this.newBinInfo(0, this.sortPlan.getNumInts() << 2, this.a1, 0, ioPool);
+        try {
+            input.open(this.sortPlan.getIOChunkSize());
+            int key;
+            while(!input.isEmpty()) {
+                key = input.head();
+                if(!histogram.add(key, input.drain(key))) return false;
             }
         }
+        finally {
+            input.close();
+        }
 
+        int bufferSize = this.sortPlan.getIOChunkSize() >> 2;
+        BufferedFileOutput bfo = new BufferedFileOutput(bufferSize, this.a2, 0, ioPool, this.pool);
+        bfo.setMetrics(this.phase);
+        bfo.setIOQueue(this.ioQueue);
+        bfo.setIndex(this.indexing);
+        for(int key : histogram.sortedKeys()) bfo.writeRepeated(key, histogram.count(key));
+        bfo.finalWrite();
+        return true;
+    }
 
 
-        // PHASE 2 //
-        // Auxiliary file has been partitioned and sorted. Now read in and merge.
+    /**
+     * Partition the file into bins, sorting each one in memory.
+     * @param bounds Byte offsets of the bin boundaries.
+     * @param first Index of the first bin to sort, skipping any a resumed sort has already written.
+     * @param target File to write the sorted bins to, at the same offsets they were read from.
+     * @param scratch Scratch array for the radix sort, or null.
+     * @throws IOException
+     */
+    private void sortBins(long[] bounds, int first, RandomAccessFile target, int[] scratch)
+            throws IOException {
+        int[] iBuf = null;
+
+        // A failed read or write ends the sort, so only bins which have all been written are ever checkpointed.
+        for(int i = first; i < bounds.length - 1; i++) {
+            // 1. Read in the bin segment as integers, reusing the last bin's array if it's the same size.
+            // 2. Sort in memory with the selected bin sorter.
+            // 3. Write out to the auxiliary file, or back to the same place in the original file.
+            iBuf = this.readBin(bounds[i], (int)(bounds[i + 1] - bounds[i]), iBuf);
+            this.sortBin(iBuf, scratch);
+            this.writeBin(target, bounds[i], iBuf, i);
+            this.checkpointBins(target, i + 1);
+        }
+    }
 
-        // Again calculate how much memory we have to play with.
-        // Need to accommodate for all the bins buffers and the BufferedFileOutput buffer.
-        availableMemory = Runtime.getRuntime().freeMemory() - 2000;
-        int binInfoBufferSize = (int)(availableMemory / ((numBins + 1) << 2));
 
-        // Debug output.
-        if(DEBUG) {
-            System.out.println("----------------");
-            System.out.println("Avail. Mem 2:   " + availableMemory);
-            System.out.println("Bin Info Size:  " + binInfoBufferSize);
+    /**
+     * Partition the file into bins, reading bin N+1 and writing bin N-1 on background threads while bin N is sorted.
+     * @param bounds Byte offsets of the bin boundaries.
+     * @param first Index of the first bin to sort, skipping any a resumed sort has already written.
+     * @param target File to write the sorted bins to, at the same offsets they were read from.
+     * @param scratch Scratch array for the radix sort, or null.
+     * @param ioPool Executor to perform the reads and writes on.
+     * @throws IOException
+     */
+    private void sortBinsPipelined(long[] bounds, int first, RandomAccessFile target, int[] scratch,
+                                   ExecutorService ioPool) throws IOException {
+        int bins = bounds.length - 1;
+        if(first >= bins) return;
+
+        // Each read reuses the array of the last bin written, once its write has completed.
+        Future<int[]> nextRead = this.submitRead(bounds, first, null, ioPool);
+        Future<int[]> pendingWrite = null;
+        int[] written = null;
+
+        for(int i = first; i < bins; i++) {
+            final int[] iBuf = await(nextRead);
+            final long offset = bounds[i];
+            final int bin = i;
+            if(i + 1 < bins) nextRead = this.submitRead(bounds, i + 1, written, ioPool);
+
+            this.sortBin(iBuf, scratch);
+
+            if(pendingWrite != null) {
+                written = await(pendingWrite);
+                this.checkpointBins(target, i);
+            }
+            pendingWrite = ioPool.submit(() -> {
+                this.writeBin(target, offset, iBuf, bin);
+                return iBuf;
+            });
         }
 
+        if(pendingWrite != null) {
+            await(pendingWrite);
+            this.checkpointBins(target, bins);
+        }
+    }
+
+
+    /**
+     * Record in a resumable sort's manifest that bins have been written, once they're safely on disk.
+     * @param target File the bins were written to.
+     * @param bins Number of bins written, from the first.
+     * @throws IOException
+     */
+    private void checkpointBins(RandomAccessFile target, int bins) throws IOException {
+        if(this.manifest == null) return;
+
+        // Bins written through a mapping have already been forced by writeInts.
+        target.getChannel().force(false);
+        this.manifest.binsDone(bins);
+    }
 
-        // Assert: We have multiple bins, needs to merge and write out.
-        // All cases with 0 or 1 bins have already returned by this point.
 
-        // Use a heap to pop the min items from all bins.
-        Heap h = new Heap((int) numBins);
-        BufferedFileOutput bfo = new BufferedFileOutput(binInfoBufferSize, A_2);
+    /**
+     * Calculate where the runs of a merge pass end up, each group of runs occupying the region its inputs did.
+     * @param bounds Byte offsets of the run boundaries before the pass.
+     * @param fanIn Number of runs merged by each group.
+     * @param numBytes Length of the file in bytes.
+     * @return Byte offsets of the merged run boundaries.
+     */
+    private static long[] mergedBounds(long[] bounds, int fanIn, long numBytes) {
+        int runs = bounds.length - 1;
+        int groups = (runs + fanIn - 1) / fanIn;
+        long[] merged = new long[groups + 1];
+        for(int g = 0; g < groups; g++) merged[g] = bounds[g * fanIn];
+        merged[groups] = numBytes;
+        return merged;
+    }
 
-        // Loop through each bin and add to the heap.
-        // Use the bin's min item as the key.
-        int head;
-        for(BinInfo entry : binInfos) {
-            try {
-                head = entry.getHeadAndIncrement(binInfoBufferSize);
-                h.push(new Pair(head, entry.getBinID()));
-            } catch (BinEmptyException bee) {
-                // Bin is now empty, don't re-add to the heap.
+
+    /**
+     * Sort a bin in memory with the selected bin sorter.
+     * @param bin Bin to sort.
+     * @param scratch Scratch array for the radix sort, or null to sort in place.
+     */
+    private void sortBin(int[] bin, int[] scratch) {
+        if(this.config.getBinSorter() == BinSorter.PARALLEL_SORT) Arrays.parallelSort(bin);
+        else if(scratch != null) RadixSort.sortLSD(bin, scratch);
+        else RadixSort.sortInPlace(bin);
+    }
+
+
+    /**
+     * Start reading a bin in the background.
+     * @param bounds Byte offsets of the bin boundaries.
+     * @param i Index of the bin to read.
+     * @param reuse Array to read into if it's the right size, or null.
+     * @param ioPool Executor to perform the read on.
+     * @return Future holding the bin's ints.
+     */
+    private Future<int[]> submitRead(long[] bounds, int i, int[] reuse, ExecutorService ioPool) {
+        final long offset = bounds[i];
+        final int length = (int)(bounds[i + 1] - bounds[i]);
+        return ioPool.submit(() -> this.readBin(offset, length, reuse));
+    }
+
+
+    /**
+     * Read a bin of the original file into an int array using the current I/O engine.
+     * @param offset Offset of the bin in bytes.
+     * @param length Length of the bin in bytes.
+     * @param reuse Array to read into if it's exactly the bin's length in ints, or null.
+     * @return The bin's ints.
+     * @throws IOException
+     */
+    private int[] readBin(long offset, int length, int[] reuse) throws IOException {
+        int n = length >> 2;
+        int[] iBuf = (reuse != null && reuse.length == n) ? reuse : new int[n];
+
+        long start = System.nanoTime();
+        if(this.config.getIOMode() == IOMode.MEMORY_MAPPED) {
+            // Copy straight out of the mapped file, taking a turn on the disk for each chunk's worth of pages read.
+            IntBuffer mapped = this.a1.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length).asIntBuffer();
+            int chunkInts = this.sortPlan.getIOChunkSize() >> 2;
+            int k;
+            for(int done = 0; done < n; done += k) {
+                k = Math.min(n - done, chunkInts);
+                this.beginIO();
+                try {
+                    mapped.get(iBuf, done, k);
+                }
+                finally {
+                    this.endIO();
+                }
             }
+            this.phase.recordRead(offset, length, System.nanoTime() - start);
+            return iBuf;
+        }
+
+        // Stream the bin through a pooled chunk.
+        ByteBuffer chunk = this.pool.acquire(this.sortPlan.getIOChunkSize());
+        IntBuffer ints = chunk.asIntBuffer();
+        FileChannel channel = this.a1.getChannel();
+        int k;
+        try {
+            for(int done = 0; done < n; done += k) {
+                k = Math.min(n - done, ints.capacity());
+                this.beginIO();
+                try {
+                    BinInfo.readFully(channel, chunk, k, offset + ((long)done << 2));
+                }
+                finally {
+                    this.endIO();
+                }
+                ints.clear();
+                ints.get(iBuf, done, k);
+            }
+        }
+        finally {
+            this.pool.release(chunk);
+        }
+        this.phase.recordRead(offset, length, System.nanoTime() - start);
+        return iBuf;
+    }
+
+
+    /**
+     * Block until a background task completes.
+     * @param task Task to wait for.
+     * @param <T> Result type of the task.
+     * @return Result of the task.
+     * @throws IOException If the task failed or the wait was interrupted.
+     */
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
         }
+        catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
+        }
+    }
 
-        Pair top;
-        int i;
 
-        // Loop through all the numbers we have, extracting the min and re-adding the bin's new min.
-        // Write this extracted min to the BufferedFileOutput instance.
-        for (long counter = 0; counter < numInts; counter++) {
-            top = h.pop();
-            if (top == null) break;
+    /**
+     * Merge sorted runs into a single sorted run.
+     * @param runs Readers over the runs to merge.
+     * @param out File to write the merged run to.
+     * @param offset Offset in bytes to write the merged run at.
+     * @param readBufferSize Buffer size in bytes for each run.
+     * @param writeBufferSize Buffer size in ints for the output.
+     * @param ioPool Executor for background writes, or null to write synchronously.
+     * @throws IOException
+     */
+    private void mergeRuns(List<BinInfo> runs, RandomAccessFile out, long offset, int readBufferSize,
+                           int writeBufferSize, ExecutorService ioPool) throws IOException {
 
-            bfo.writeInteger(top.getLabel());
+        // Use the merge engine to select the min items from all runs.
+        MergeEngine merger = this.newMergeEngine(runs.size());
+        BufferedFileOutput bfo = new BufferedFileOutput(writeBufferSize, out, offset, ioPool, this.pool);
+        bfo.setMetrics(this.phase);
+        bfo.setIOQueue(this.ioQueue);
+        bfo.setIndex(this.indexing);
+        merge(runs, merger, bfo, readBufferSize);
+    }
 
-            try {
-                i = binInfos.get(top.getBin()).getHeadAndIncrement(binInfoBufferSize);
-                while(top.getLabel() == i) {
-                    bfo.writeInteger(i);
-                    i = binInfos.get(top.getBin()).getHeadAndIncrement(binInfoBufferSize);
+
+    /**
+     * Merge a group of sorted runs by splitting it into key ranges and merging each range on its own thread.
+     * Each thread opens its own handles on the files and writes straight into its range's region of the output.
+     * @param bounds Byte offsets of the run boundaries.
+     * @param first Index of the first run in the group.
+     * @param last Index after the last run in the group.
+     * @param in File holding the runs, used to pick the key ranges.
+     * @param inPath Path of the file holding the runs.
+     * @param outPath Path of the file to write to, at the same offset as the group.
+     * @param readBufferSize Buffer size in bytes for each run, per thread.
+     * @param writeBufferSize Buffer size in ints for the output, per thread.
+     * @param ioPool Executor for background reads and writes, or null.
+     * @param mergePool Executor to run the merges on.
+     * @throws IOException
+     */
+    private void mergeGroupParallel(long[] bounds, int first, int last, RandomAccessFile in,
+                                    String inPath, String outPath, int readBufferSize, int writeBufferSize,
+                                    ExecutorService ioPool, ExecutorService mergePool) throws IOException {
+
+        // Don't bother splitting ranges smaller than a merge buffer.
+        long ints = (bounds[last] - bounds[first]) >> 2;
+        int runInts = Math.max(1, readBufferSize >> 2);
+        int partitions = (int)Math.max(1, Math.min(this.config.getMergeThreads(), ints / runInts));
+        long[][] cuts = MergePartitioner.partition(in, bounds, first, last, partitions, this.ioQueue);
+
+        List<Future<?>> merges = new ArrayList<>();
+        long outOffset = bounds[first];
+        long length;
+
+        for(int p = 0; p < partitions; p++) {
+
+            // Each range lands after all the items of the ranges before it.
+            length = 0;
+            for(int r = 0; r < last - first; r++) length += cuts[p + 1][r] - cuts[p][r];
+            if(length == 0) continue;
+
+            final long[] from = cuts[p];
+            final long[] to = cuts[p + 1];
+            final long offset = outOffset;
+            outOffset += length;
+
+            merges.add(mergePool.submit(() -> {
+                try(RandomAccessFile pIn = new RandomAccessFile(inPath, "r");
+                    RandomAccessFile pOut = new RandomAccessFile(outPath, "rw")) {
+                    List<BinInfo> group = new ArrayList<>();
+                    for(int r = 0; r < from.length; r++) {
+                        group.add(this.newBinInfo(from[r], to[r] - from[r], pIn, r, ioPool));
+                    }
+                    this.mergeRuns(group, pOut, offset, readBufferSize, writeBufferSize, ioPool);
+                }
+                return null;
+            }));
+        }
+
+        for(Future<?> merge : merges) await(merge);
+    }
+
+
+    /**
+     * Create a reader over a run for the current I/O engine.
+     * @param offset Offset of the start of the run in the file, in bytes.
+     * @param length Length of the run, in bytes.
+     * @param file File holding the run.
+     * @param id Identifier of the run.
+     * @param ioPool Executor for background reads in ASYNC mode.
+     * @return New reader.
+     * @throws IOException
+     */
+    private BinInfo newBinInfo(long offset, long length, RandomAccessFile file, int id,
+                               ExecutorService ioPool) throws IOException {
+        BinInfo bin;
+        if(this.config.getIOMode() == IOMode.MEMORY_MAPPED) bin = new MappedBinInfo(offset, length, file, id);
+        else if(this.config.getIOMode() == IOMode.ASYNC) {
+            bin = new PrefetchingBinInfo(offset, length, file, id, ioPool, this.pool);
+        }
+        else bin = new BinInfo(offset, length, file, id, this.pool);
+
+        // Every reader reports its run to the phase it's read in.
+        bin.setMetrics(this.phase);
+        bin.setIOQueue(this.ioQueue);
+        return bin;
+    }
+
+
+    /**
+     * Create a reader over a run to be merged, decoding it if Phase 1 encoded it.
+     * @param bounds Byte offsets of the run boundaries.
+     * @param r Index of the run.
+     * @param file File holding the run.
+     * @param ioPool Executor for background reads in ASYNC mode.
+     * @return New reader.
+     * @throws IOException
+     */
+    private BinInfo newRunInfo(long[] bounds, int r, RandomAccessFile file, ExecutorService ioPool)
+            throws IOException {
+        long length = bounds[r + 1] - bounds[r];
+        if(this.encodedLengths == null || this.encodedLengths[r] < 0) {
+            return this.newBinInfo(bounds[r], length, file, r, ioPool);
+        }
+
+        BinInfo bin = new EncodedBinInfo(bounds[r], length, this.encodedLengths[r], file, r, this.pool);
+        bin.setMetrics(this.phase);
+        bin.setIOQueue(this.ioQueue);
+        return bin;
+    }
+
+
+    /**
+     * Write a sorted bin out to be merged, encoded with RunCodec if the plan calls for it and that makes it smaller.
+     * @param file File to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @param bin Sorted bin.
+     * @param i Index of the bin.
+     * @throws IOException
+     */
+    private void writeBin(RandomAccessFile file, long offset, int[] bin, int i) throws IOException {
+        if(this.encodedLengths != null) {
+            long length = RunCodec.encodedLength(bin, bin.length);
+            if(length < (long)bin.length << 2) {
+                this.writeEncoded(file, offset, bin);
+                this.encodedLengths[i] = length;
+                return;
+            }
+        }
+        this.writeInts(file, offset, bin);
+    }
+
+
+    /**
+     * Encode a sorted bin with RunCodec and write it to a file at the given offset through a pooled chunk.
+     * @param file File to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @param bin Sorted bin.
+     * @throws IOException
+     */
+    private void writeEncoded(RandomAccessFile file, long offset, int[] bin) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer chunk = this.pool.acquire(Math.max(this.sortPlan.getIOChunkSize(), RunCodec.MAX_BLOCK_BYTES));
+        FileChannel channel = file.getChannel();
+        long at = offset;
+        int m;
+        try {
+            for(int from = 0; from < bin.length; from += m) {
+                m = Math.min(RunCodec.BLOCK_SIZE, bin.length - from);
+                RunCodec.encodeBlock(bin, from, m, chunk);
+
+                // Write the chunk out once another block might not fit, and after the last block.
+                if(chunk.remaining() < RunCodec.MAX_BLOCK_BYTES || from + m == bin.length) {
+                    chunk.flip();
+                    this.beginIO();
+                    try {
+                        while(chunk.hasRemaining()) channel.write(chunk, at + chunk.position());
+                    }
+                    finally {
+                        this.endIO();
+                    }
+                    at += chunk.limit();
+                    chunk.clear();
+                }
+            }
+        }
+        finally {
+            this.pool.release(chunk);
+        }
+        this.phase.recordWrite(offset, at - offset, System.nanoTime() - start);
+    }
+
+
+    /**
+     * Write an int array to a file at the given offset using the current I/O engine.
+     * @param file File to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @param ints Values to write.
+     * @throws IOException
+     */
+    private void writeInts(RandomAccessFile file, long offset, int[] ints) throws IOException {
+        if(this.indexing != null) this.indexing.record(offset >> 2, ints, ints.length);
+        long start = System.nanoTime();
+        if(this.config.getIOMode() == IOMode.MEMORY_MAPPED) {
+            // Copy into the mapped file a chunk per turn on the disk, as the positional writes below do.
+            MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, offset,
+                                                            (long)ints.length << 2);
+            IntBuffer view = mapped.asIntBuffer();
+            int chunkInts = this.sortPlan.getIOChunkSize() >> 2;
+            int k;
+            for(int done = 0; done < ints.length; done += k) {
+                k = Math.min(ints.length - done, chunkInts);
+                this.beginIO();
+                try {
+                    view.put(ints, done, k);
+                }
+                finally {
+                    this.endIO();
+                }
+            }
+
+            // FileChannel.force isn't guaranteed to reach a mapping, so a resumable sort forces it before any
+            // checkpoint can record the write.
+            if(this.manifest != null) {
+                this.beginIO();
+                try {
+                    mapped.force();
+                }
+                finally {
+                    this.endIO();
+                }
+            }
+            this.phase.recordWrite(offset, (long)ints.length << 2, System.nanoTime() - start);
+            return;
+        }
+
+        // Stream the ints through a pooled chunk.
+        ByteBuffer chunk = this.pool.acquire(this.sortPlan.getIOChunkSize());
+        IntBuffer view = chunk.asIntBuffer();
+        FileChannel channel = file.getChannel();
+        long at;
+        int k;
+        try {
+            for(int done = 0; done < ints.length; done += k) {
+                k = Math.min(ints.length - done, view.capacity());
+                view.clear();
+                view.put(ints, done, k);
+
+                at = offset + ((long)done << 2);
+                chunk.clear().limit(k << 2);
+                this.beginIO();
+                try {
+                    while(chunk.hasRemaining()) channel.write(chunk, at + chunk.position());
+                }
+                finally {
+                    this.endIO();
                 }
-                top.setLabel(i);
-                h.push(top);
-            } catch (BinEmptyException bee) {
-                // Bin is now empty, don't re-add to the heap.
             }
         }
+        finally {
+            this.pool.release(chunk);
+        }
+        this.phase.recordWrite(offset, (long)ints.length << 2, System.nanoTime() - start);
+    }
+
+
+    /**
+     * Save the index of the sorted file next to it, reading the file to build it if the writes didn't fill it all in
+     * (which happens when a resumed sort skips part of its final pass).
+     * @throws IOException
+     */
+    private void saveIndex() throws IOException {
+        if(this.index == null || !this.index.isComplete()) {
+            if(DEBUG) System.out.println("Index:          rebuilt by reading the output");
+            this.index = SparseIndex.build(this.a1, this.config.getIndexStride());
+        }
+        this.index.save(new File(this.f1 + SparseIndex.SUFFIX));
+    }
+
+
+    /**
+     * Wait for a turn on the disk, if the sort's I/O is scheduled.
+     * @throws IOException If interrupted while waiting.
+     */
+    private void beginIO() throws IOException {
+        if(this.ioQueue != null) this.ioQueue.begin();
+    }
+
+
+    /**
+     * Give up the turn taken by beginIO().
+     */
+    private void endIO() {
+        if(this.ioQueue != null) this.ioQueue.end();
+    }
+
 
-        // Looped through all the numbers, flush the buffer.
+    /**
+     * Create the pool of daemon threads used for background reads and writes.
+     * @return New executor.
+     */
+    private static ExecutorService newIOPool() {
+        int threads = Math.min(MAX_IO_THREADS, Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "external-sort-io");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    /**
+     * Create the merge engine for the current merge mode.
+     * @param runs Number of runs to merge.
+     * @return New merge engine.
+     */
+    private MergeEngine newMergeEngine(int runs) {
+        if(this.config.getMergeMode() == MergeMode.HEAP) return new HeapMergeEngine(runs);
+        return new LoserTree(runs);
+    }
+
+    // endregion
+
+    // region Shared Merge and I/O
+    // Used by the other sorts built on this one (StreamingSort, ExternalAggregate, IncrementalSort).
+
+    /**
+     * Merge sorted runs into a single sorted run through a merge engine.
+     * @param runs Readers over the runs to merge.
+     * @param merger Empty merge engine for as many runs.
+     * @param bfo Output to write the merged run to. Flushed once the runs are merged.
+     * @param readBufferSize Buffer size in bytes for each run.
+     * @throws IOException
+     */
+    static void merge(List<BinInfo> runs, MergeEngine merger, BufferedFileOutput bfo, int readBufferSize)
+            throws IOException {
+
+        // Loop through each run and offer its min item to the merge engine.
+        BinInfo bin;
+        for(int r = 0; r < runs.size(); r++) {
+            bin = runs.get(r);
+            bin.open(readBufferSize);
+            if(!bin.isEmpty()) merger.offer(r, bin.head());
+        }
+        merger.start();
+
+        int top;
+
+        // Loop through all the numbers we have, extracting the min and replacing it with the run's new min.
+        // Every copy of the min at the head of its run is drained and written to the BufferedFileOutput in one go.
+        while(!merger.isEmpty()) {
+            top = merger.minKey();
+            bin = runs.get(merger.minRun());
+
+            bfo.writeRepeated(top, bin.drain(top));
+
+            if(bin.isEmpty()) merger.removeMin();
+            else merger.replaceMin(bin.head());
+        }
+
+        // Looped through all the numbers, flush the buffer and hand every buffer back to the pool.
         bfo.finalWrite();
+        for(BinInfo run : runs) run.close();
+    }
 
 
-        // Close all our open files.
-        A_1.close();
-        A_2.close();
-        B_1.close();
+    /**
+     * Merge sorted runs into a single sorted run with a loser tree, writing synchronously.
+     * @param runs Readers over the runs to merge.
+     * @param out File to write the merged run to.
+     * @param offset Offset in bytes to write the merged run at.
+     * @param bufferSize Buffer size in bytes for each run and the output.
+     * @param pool Pool to take the buffers from.
+     * @throws IOException
+     */
+    static void mergeRuns(List<BinInfo> runs, RandomAccessFile out, long offset, int bufferSize, BufferPool pool)
+            throws IOException {
+        BufferedFileOutput bfo = new BufferedFileOutput(bufferSize >> 2, out, offset, null, pool);
+        merge(runs, new LoserTree(runs.size()), bfo, bufferSize);
+    }
+
+
+    /**
+     * Merge consecutive groups of runs from one file to another.
+     * @param in File holding the runs.
+     * @param inBase Offset in bytes of the runs in the file holding them.
+     * @param out File to write the merged runs to.
+     * @param outBase Offset in bytes to write the merged runs at, each group in the region its runs occupied.
+     * @param bounds Byte offsets of the run boundaries, from the base.
+     * @param fanIn Number of runs to merge in each group.
+     * @param pool Pool to take the buffers from, shared equally by every run of a group and the output.
+     * @return Byte offsets of the merged run boundaries, from the base.
+     * @throws IOException
+     */
+    static long[] mergePass(RandomAccessFile in, long inBase, RandomAccessFile out, long outBase, long[] bounds,
+                            int fanIn, BufferPool pool) throws IOException {
+        int share = SortPlan.share(pool.getCapacity(), fanIn + 1);
+        long[] nextBounds = mergedBounds(bounds, fanIn, bounds[bounds.length - 1]);
+        int runs = bounds.length - 1;
+
+        for(int g = 0; g < nextBounds.length - 1; g++) {
+            List<BinInfo> group = new ArrayList<>();
+            for(int r = g * fanIn; r < Math.min(runs, (g + 1) * fanIn); r++) {
+                group.add(new BinInfo(inBase + bounds[r], bounds[r + 1] - bounds[r], in, r, pool));
+            }
+            mergeRuns(group, out, outBase + nextBounds[g], share, pool);
+        }
+        return nextBounds;
+    }
+
+
+    /**
+     * Read ints from a file into the start of an array through a buffer.
+     * @param channel File to read from.
+     * @param offset Offset in bytes to start reading at.
+     * @param dst Array to read into.
+     * @param n Number of ints to read.
+     * @param chunk Buffer to read through.
+     * @throws IOException
+     */
+    static void readInts(FileChannel channel, long offset, int[] dst, int n, ByteBuffer chunk) throws IOException {
+        chunk.clear();
+        IntBuffer ints = chunk.asIntBuffer();
+        int k;
+        for(int done = 0; done < n; done += k) {
+            k = Math.min(n - done, ints.capacity());
+            BinInfo.readFully(channel, chunk, k, offset + ((long)done << 2));
+            ints.clear();
+            ints.get(dst, done, k);
+        }
+    }
+
+
+    /**
+     * Write part of an int array to a file at the given offset through a buffer.
+     * @param channel File to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @param ints Values to write.
+     * @param n Number of values to write, from the start of the array.
+     * @param chunk Buffer to write through.
+     * @throws IOException
+     */
+    static void writeInts(FileChannel channel, long offset, int[] ints, int n, ByteBuffer chunk) throws IOException {
+        chunk.clear();
+        IntBuffer view = chunk.asIntBuffer();
+        long at;
+        int k;
+        for(int done = 0; done < n; done += k) {
+            k = Math.min(n - done, view.capacity());
+            view.clear();
+            view.put(ints, done, k);
+
+            at = offset + ((long)done << 2);
+            chunk.clear().limit(k << 2);
+            while(chunk.hasRemaining()) channel.write(chunk, at + chunk.position());
+        }
     }
 
     // endregion
@@ -217,15 +1250,27 @@ public class ExternalSort {
     public static int[] pack(byte[] bytes) {
         int n = bytes.length >> 2;
         int[] packed = new int[n];
+        pack(bytes, n, packed, 0);
+        return packed;
+    }
+
+
+    /**
+     * Convert the start of a byte array into ints, in place in an existing int array.
+     * @param bytes Array of bytes to convert.
+     * @param n Number of ints to convert.
+     * @param packed Array to write the ints to.
+     * @param offset Index in the int array to write the first int to.
+     */
+    public static void pack(byte[] bytes, int n, int[] packed, int offset) {
         int i2;
         for (int i = 0; i < n; i++) {
             i2 = i << 2;
-            packed[i] = (bytes[i2 + 0x03] & 0xFF)       |
-                        (bytes[i2 + 0x02] & 0xFF) << 8  |
-                        (bytes[i2 + 0x01] & 0xFF) << 16 |
-                        (bytes[i2]        & 0xFF) << 24;
+            packed[offset + i] = (bytes[i2 + 0x03] & 0xFF)       |
+                                 (bytes[i2 + 0x02] & 0xFF) << 8  |
+                                 (bytes[i2 + 0x01] & 0xFF) << 16 |
+                                 (bytes[i2]        & 0xFF) << 24;
         }
-        return packed;
     }
 
 
@@ -304,7 +1349,9 @@ public class ExternalSort {
     public static void main(String[] args) throws Exception {
         String f1 = args[0];
         String f2 = args[1];
-        sort(f1, f2);
+        SortConfig config = (args.length > 3) ? new SortConfig(Long.parseLong(args[3])) : SortConfig.fromFreeMemory();
+        if(args.length > 2) config.setIOMode(IOMode.valueOf(args[2]));
+        sort(f1, f2, config);
         System.out.println("The checksum is: "+checkSum(f1));
     }
 
@@ -0,0 +1,311 @@
+/**
+ * ExternalSortBenchmark.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * For benchmarking only, times each building block of the sort in isolation and whole sorts over generated data.
+ *
+ * Each benchmark is warmed up and then timed over several iterations, reporting the median time per iteration and
+ * the throughput in millions of ints per second. Usage:
+ *
+ *   ExternalSortBenchmark [suite[,suite...]] [size[,size...]] [dir]
+ *
+ * where the suites are kernels, engines, io and sort (default all), sizes are numbers of ints (default 4000000) and
+ * dir is where scratch files are written (default the system temp directory).
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class ExternalSortBenchmark {
+
+    // region Class Attributes
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    private static final long SEED = 42;
+
+    private static final int[] FAN_INS = { 2, 8, 64, 512 };
+
+    private static final int IO_BUFFER_SIZE = 1 << 20;
+
+    // Results are folded in here so the JIT can't discard the work being timed.
+    private static long SINK;
+
+    // endregion
+
+
+    /**
+     * A unit of work to time.
+     */
+    private interface Task {
+        /**
+         * Prepare for an iteration, outside the timed region.
+         * @throws Exception
+         */
+        default void setUp() throws Exception { }
+
+        /**
+         * Perform one iteration.
+         * @return Any value derived from the work.
+         * @throws Exception
+         */
+        long run() throws Exception;
+    }
+
+
+    /**
+     * Static class invocation.
+     * @param args Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> suites = Arrays.asList((args.length > 0 ? args[0] : "all").split(","));
+        int[] sizes = Arrays.stream((args.length > 1 ? args[1] : "4000000").split(",")).mapToInt(Integer::parseInt)
+                            .toArray();
+        File dir = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+        boolean all = suites.contains("all");
+
+        for(int n : sizes) {
+            System.out.println("== " + n + " ints");
+            if(all || suites.contains("kernels")) benchmarkKernels(n);
+            if(all || suites.contains("engines")) benchmarkEngines(n);
+            if(all || suites.contains("io")) benchmarkIO(n, dir);
+            if(all || suites.contains("sort")) benchmarkSort(n, dir);
+        }
+
+        if(SINK == 42) System.out.println();
+    }
+
+
+    /**
+     * Conversions between bytes and ints, and the in-memory sorters used on each bin.
+     * @param n Number of ints.
+     * @throws Exception
+     */
+    private static void benchmarkKernels(int n) throws Exception {
+        final int[] source = Dataset.UNIFORM.generate(n, SEED);
+        final byte[] bytes = ExternalSort.unpack(source);
+        final int[] bin = new int[n];
+        final int[] scratch = new int[n];
+
+        time("pack", n, () -> ExternalSort.pack(bytes)[n - 1]);
+        time("unpack", n, () -> ExternalSort.unpack(source)[0]);
+
+        for(Dataset d : Dataset.values()) {
+            final int[] data = d.generate(n, SEED);
+            Task copy = () -> { System.arraycopy(data, 0, bin, 0, n); return 0; };
+
+            time("Arrays.sort " + d, n, withSetUp(copy, () -> { Arrays.sort(bin); return bin[0]; }));
+            time("Arrays.parallelSort " + d, n, withSetUp(copy, () -> { Arrays.parallelSort(bin); return bin[0]; }));
+            time("RadixSort.sortLSD " + d, n, withSetUp(copy, () -> { RadixSort.sortLSD(bin, scratch); return bin[0]; }));
+            time("RadixSort.sortInPlace " + d, n, withSetUp(copy, () -> { RadixSort.sortInPlace(bin); return bin[0]; }));
+        }
+    }
+
+
+    /**
+     * Heap push/pop and both merge engines, merging sorted runs held in memory at varying fan-in.
+     * @param n Total number of ints merged.
+     * @throws Exception
+     */
+    private static void benchmarkEngines(int n) throws Exception {
+        for(int k : FAN_INS) {
+            final int[][] runs = sortedRuns(Dataset.UNIFORM.generate(n, SEED), k);
+
+            time("Heap push/pop k=" + k, n, () -> {
+                Heap heap = new Heap(k);
+                int[] next = new int[k];
+                long sum = 0;
+                for(int r = 0; r < k; r++) if(runs[r].length > 0) heap.push(new Pair(runs[r][next[r]++], r));
+
+                Pair p;
+                while((p = heap.pop()) != null) {
+                    sum += p.getLabel();
+                    int r = p.getBin();
+                    if(next[r] < runs[r].length) heap.push(new Pair(runs[r][next[r]++], r));
+                }
+                return sum;
+            });
+
+            for(MergeMode mode : MergeMode.values()) {
+                time(mode + " k=" + k, n, () -> {
+                    MergeEngine engine = (mode == MergeMode.HEAP) ? new HeapMergeEngine(k) : new LoserTree(k);
+                    int[] next = new int[k];
+                    long sum = 0;
+                    for(int r = 0; r < k; r++) if(runs[r].length > 0) engine.offer(r, runs[r][next[r]++]);
+                    engine.start();
+
+                    int r;
+                    while(!engine.isEmpty()) {
+                        sum += engine.minKey();
+                        r = engine.minRun();
+                        if(next[r] < runs[r].length) engine.replaceMin(runs[r][next[r]++]);
+                        else engine.removeMin();
+                    }
+                    return sum;
+                });
+            }
+        }
+    }
+
+
+    /**
+     * Sequential read throughput of each BinInfo and write throughput of BufferedFileOutput.
+     * @param n Number of ints in the file.
+     * @param dir Directory for the scratch file.
+     * @throws Exception
+     */
+    private static void benchmarkIO(int n, File dir) throws Exception {
+        File file = new File(dir, "benchmark-io.dat");
+        Dataset.UNIFORM.write(file.getPath(), n, SEED);
+        ExecutorService ioPool = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "benchmark-io");
+            t.setDaemon(true);
+            return t;
+        });
+        final BufferPool buffers = new BufferPool(4 * IO_BUFFER_SIZE);
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long length = raf.length();
+
+            for(IOMode mode : IOMode.values()) {
+                time("read " + mode, n, () -> {
+                    BinInfo bin;
+                    if(mode == IOMode.MEMORY_MAPPED) bin = new MappedBinInfo(0, length, raf, 0);
+                    else if(mode == IOMode.ASYNC) bin = new PrefetchingBinInfo(0, length, raf, 0, ioPool, buffers);
+                    else bin = new BinInfo(0, length, raf, 0, buffers);
+
+                    bin.open(IO_BUFFER_SIZE);
+                    long sum = 0;
+                    while(!bin.isEmpty()) {
+                        sum += bin.head();
+                        bin.advance();
+                    }
+                    bin.close();
+                    return sum;
+                });
+            }
+
+            for(boolean async : new boolean[] { false, true }) {
+                time("write " + (async ? "async" : "sync"), n, () -> {
+                    BufferedFileOutput bfo = new BufferedFileOutput(IO_BUFFER_SIZE >> 2, raf, 0,
+                                                                    async ? ioPool : null, buffers);
+                    for(int i = 0; i < n; i++) bfo.writeInteger(i);
+                    bfo.finalWrite();
+                    return bfo.getPosition();
+                });
+            }
+        }
+        finally {
+            ioPool.shutdown();
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Whole sorts of each dataset with each I/O engine, under a budget of a quarter of the data so the merge runs.
+     * @param n Number of ints to sort.
+     * @param dir Directory for the input and auxiliary files.
+     * @throws Exception
+     */
+    private static void benchmarkSort(int n, File dir) throws Exception {
+        final File f1 = new File(dir, "benchmark-a.dat");
+        final File f2 = new File(dir, "benchmark-b.dat");
+        final long budget = Math.max(SortConfig.MIN_MEMORY_BUDGET, (long)n);
+
+        try {
+            for(Dataset d : Dataset.values()) {
+                final int[] data = d.generate(n, SEED);
+
+                for(IOMode mode : IOMode.values()) {
+                    final SortConfig config = new SortConfig(budget);
+                    config.setIOMode(mode);
+
+                    time("sort " + d + " " + mode, n, new Task() {
+                        public void setUp() throws IOException {
+                            Dataset.write(f1.getPath(), data);
+                            f2.delete();
+                        }
+
+                        public long run() throws IOException {
+                            ExternalSort.sort(f1.getPath(), f2.getPath(), config);
+                            return f1.length();
+                        }
+                    });
+                }
+            }
+        }
+        finally {
+            f1.delete();
+            f2.delete();
+        }
+    }
+
+
+    /**
+     * Time a task and print its median time and throughput.
+     * @param name Name of the benchmark.
+     * @param items Number of ints processed per iteration.
+     * @param task Task to time.
+     * @throws Exception
+     */
+    private static void time(String name, long items, Task task) throws Exception {
+        long[] times = new long[MEASURED_ITERATIONS];
+        long start;
+
+        for(int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            task.setUp();
+            start = System.nanoTime();
+            SINK += task.run();
+            if(i >= WARMUP_ITERATIONS) times[i - WARMUP_ITERATIONS] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(times);
+        long median = times[MEASURED_ITERATIONS >> 1];
+        System.out.printf("%-40s %10.3f ms %10.2f Mints/s%n", name, median / 1e6, items * 1e3 / median);
+    }
+
+
+    /**
+     * Combine an untimed set up step with a task.
+     * @param setUp Work to do before each iteration.
+     * @param task Work to time.
+     * @return Combined task.
+     */
+    private static Task withSetUp(Task setUp, Task task) {
+        return new Task() {
+            public void setUp() throws Exception { setUp.run(); }
+            public long run() throws Exception { return task.run(); }
+        };
+    }
+
+
+    /**
+     * Split data into sorted runs of near equal length.
+     * @param data Values to split.
+     * @param k Number of runs.
+     * @return The runs.
+     */
+    private static int[][] sortedRuns(int[] data, int k) {
+        int[][] runs = new int[k][];
+        for(int r = 0; r < k; r++) {
+            runs[r] = Arrays.copyOfRange(data, (int)((long)data.length * r / k), (int)((long)data.length * (r + 1) / k));
+            Arrays.sort(runs[r]);
+        }
+        return runs;
+    }
+}
@@ -7,13 +7,28 @@ package uk.ac.cam.ahb36.fjava.tick0;
 
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
  * For testing only, runs all test files.
  *
  * Note that running this requires the test suite files to be unzipped in the tick0/test-suite folder.
  *
+ * Run as "ExternalSortTester modes [scratchDir]" it instead generates its own inputs and checks the sort modes and
+ * the operations built on the sort against Arrays.sort (see checkModes). Nothing outside the scratch directory is
+ * needed.
+ *
  * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
  */
 public class ExternalSortTester {
@@ -37,6 +52,31 @@ public class ExternalSortTester {
                                 "c7477d400c36fca5414e0674863ba91",
                                 "cc80f01b7d2d26042f3286bdeff0d9"
                             };
+
+    // Size of each generated input, and a budget small enough that it is sorted as several bins and merged.
+    private static final int MODE_INTS = 1 << 20;
+    private static final long MODE_BUDGET = 1 << 20;
+
+    // Times a resumable sort is killed before it is left to finish, and the window each kill falls in, in ms.
+    private static final int KILLS = 3;
+    private static final int KILL_AFTER_MIN = 150;
+    private static final int KILL_AFTER_SPREAD = 900;
+
+    private static final String CHILD_HEAP = "-Xmx100m";
+
+    // Layout of the records checked: the record's index, its key and, after the key, the index's complement.
+    private static final int RECORD_SIZE = 16;
+    private static final int RECORD_KEY_OFFSET = 4;
+    private static final int RECORD_CHECK_OFFSET = 12;
+
+    // Bits of the doubles Double.compare orders specially: zeros of both signs, NaNs of both signs with different
+    // payloads, both infinities and the smallest subnormals.
+    private static final long[] SPECIAL_DOUBLES = { 0x8000000000000000L, 0L, 0x7ff8000000000000L,
+                                                    0xfff8000000000000L, 0x7ff0000000000001L, 0x7ff0000000000000L,
+                                                    0xfff0000000000000L, 1L, 0x8000000000000001L };
+
+    private static int failures = 0;
+
     /**
      * Constructor.
      * @param args Command line arguments.
@@ -44,6 +84,19 @@ public class ExternalSortTester {
      */
     public static void main(String[] args) throws Exception {
 
+        if(args.length > 0 && args[0].equals("modes")) {
+            File dir = new File((args.length > 1) ? args[1] : "src/uk/ac/cam/ahb36/fjava/tick0/mode-checks");
+            checkModes(dir);
+            System.out.println("Success: " + (failures == 0));
+            System.exit((failures == 0) ? 0 : 1);
+        }
+
+        // The process a resumable sort is killed in: ExternalSortTester resume f1 f2.
+        if(args.length > 0 && args[0].equals("resume")) {
+            ExternalSort.sort(args[1], args[2], modeConfig(true));
+            return;
+        }
+
         executeCommand("rm -rf src/uk/ac/cam/ahb36/fjava/tick0/test-suite");
 
         int tests = 10;
@@ -110,6 +163,607 @@ public class ExternalSortTester {
     }
 
 
+    /**
+     * Run every mode check on freshly generated inputs, counting the failures.
+     * @param dir Scratch directory for the inputs, auxiliary files and results. Deleted afterwards.
+     * @throws Exception
+     */
+    private static void checkModes(File dir) throws Exception {
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+        String f1 = new File(dir, "input.dat").getPath();
+        String f2 = new File(dir, "aux.dat").getPath();
+        String out = new File(dir, "output.dat").getPath();
+
+        try {
+            for(Dataset shape : Dataset.values()) {
+                int[] data = shape.generate(MODE_INTS, shape.ordinal());
+                int[] expected = data.clone();
+                Arrays.sort(expected);
+
+                checkSorts(shape, data, expected, f1, f2);
+                checkRadix(shape, data, expected);
+                checkStreaming(shape, data, expected, f1, new File(dir, "streaming"));
+                checkDistributed(shape, data, expected, f1, new File(dir, "distributed"));
+                checkSelect(shape, data, expected, f1, out);
+                checkAggregate(shape, data, expected, f1, out);
+                checkIndex(shape, data, expected, f1, f2);
+                checkIncremental(shape, data, f1, f2);
+            }
+            checkRecords(f1, f2);
+            checkScheduler(new File(dir, "scheduled"));
+            checkResume(Dataset.UNIFORM, f1, f2);
+        }
+        finally {
+            delete(dir);
+        }
+    }
+
+
+    /**
+     * Sort the data under each configuration of the sort itself.
+     * @param shape Shape the data was generated with.
+     * @param data Input.
+     * @param expected Input sorted by Arrays.sort.
+     * @param f1 Path to write the input to.
+     * @param f2 Path of the auxiliary file.
+     * @throws IOException
+     */
+    private static void checkSorts(Dataset shape, int[] data, int[] expected, String f1, String f2)
+            throws IOException {
+        List<String> names = new ArrayList<>();
+        List<SortConfig> configs = new ArrayList<>();
+
+        addRow(names, configs, "default");
+        for(IOMode mode : IOMode.values()) addRow(names, configs, mode.name()).setIOMode(mode);
+        for(MergeMode mode : MergeMode.values()) addRow(names, configs, mode.name()).setMergeMode(mode);
+        addRow(names, configs, "fan-in 3").setMaxFanIn(3);
+        for(RunGeneration generation : RunGeneration.values()) {
+            addRow(names, configs, generation.name()).setRunGeneration(generation);
+        }
+        addRow(names, configs, "4 merge threads").setMergeThreads(4);
+        for(BinSorter sorter : BinSorter.values()) addRow(names, configs, sorter.name()).setBinSorter(sorter);
+        for(RunEncoding encoding : RunEncoding.values()) {
+            addRow(names, configs, encoding.name()).setRunEncoding(encoding);
+        }
+
+        addRow(names, configs, "presortedness").setDetectPresortedness(true);
+
+        String fastPath;
+        List<PhaseMetrics> phases;
+        boolean ok;
+        for(int c = 0; c < configs.size(); c++) {
+            Dataset.write(f1, data);
+            phases = ExternalSort.sort(f1, f2, configs.get(c)).getPhases();
+            ok = Arrays.equals(expected, readInts(f1));
+
+            // A shape with a fast path is sorted by it alone when detection is on; otherwise the full sort runs.
+            fastPath = configs.get(c).getDetectPresortedness() ? fastPathPhase(shape) : null;
+            if(fastPath != null) ok &= phases.size() == 1 && phases.get(0).getName().equals(fastPath);
+            else ok &= !phases.isEmpty() && phases.get(0).getName().equals("run generation");
+            report(shape, "sort " + names.get(c), ok);
+        }
+    }
+
+
+    /**
+     * Sort the data with both radix sort kernels directly. A RADIX sort falls back to the in-place kernel only when
+     * its plan has no room for the LSD kernel's scratch array, which the mode checks' budget rarely leaves it.
+     * @param shape Shape the data was generated with.
+     * @param data Input.
+     * @param expected Input sorted by Arrays.sort.
+     */
+    private static void checkRadix(Dataset shape, int[] data, int[] expected) {
+        int[] sorted = data.clone();
+        RadixSort.sortLSD(sorted, new int[sorted.length]);
+        report(shape, "LSD radix sort", Arrays.equals(expected, sorted));
+
+        sorted = data.clone();
+        RadixSort.sortInPlace(sorted);
+        report(shape, "in-place radix sort", Arrays.equals(expected, sorted));
+    }
+
+
+    /**
+     * Sort the data read from a stream, spilling runs to a scratch directory.
+     * @param shape Shape the data was generated with.
+     * @param data Input.
+     * @param expected Input sorted by Arrays.sort.
+     * @param f1 Path to write the input to.
+     * @param scratchDir Directory for the spilled runs, which must be left empty.
+     * @throws IOException
+     */
+    private static void checkStreaming(Dataset shape, int[] data, int[] expected, String f1, File scratchDir)
+            throws IOException {
+        if(!scratchDir.isDirectory() && !scratchDir.mkdirs()) throw new IOException("Can't create " + scratchDir);
+        Dataset.write(f1, data);
+
+        boolean ok = true;
+        int i = 0;
+        try(InputStream in = new FileInputStream(f1);
+            IntIterator sorted = StreamingSort.sort(in, scratchDir, modeConfig(false))) {
+            while(ok && sorted.hasNext()) ok = i < expected.length && sorted.next() == expected[i++];
+        }
+        String[] left = scratchDir.list();
+        report(shape, "streaming sort", ok && i == expected.length && left != null && left.length == 0);
+    }
+
+
+    /**
+     * Sort the data across worker processes.
+     * @param shape Shape the data was generated with.
+     * @param data Input.
+     * @param expected Input sorted by Arrays.sort.
+     * @param f1 Path to write the input to.
+     * @param scratchDir Scratch directory for the workers, which must be left empty.
+     * @throws IOException
+     */
+    private static void checkDistributed(Dataset shape, int[] data, int[] expected, String f1, File scratchDir)
+            throws IOException {
+        Dataset.write(f1, data);
+        long[] partitions = DistributedSort.sort(f1, scratchDir, 3, modeConfig(false));
+
+        long total = 0;
+        for(long p : partitions) total += p;
+        String[] left = scratchDir.list();
+        report(shape, "distributed sort", Arrays.equals(expected, readInts(f1)) && total == data.length
+                                          && left != null && left.length == 0);
+    }
+
+
+    /**
+     * Select the smallest ints of the data, and the ints within a key range.
+     * @param shape Shape the data was generated with.
+     * @param data Input.
+     * @param expected Input sorted by Arrays.sort.
+     * @param f1 Path to write the input to.
+     * @param out Path to write the selection to.
+     * @throws IOException
+     */
+    private static void checkSelect(Dataset shape, int[] data, int[] expected, String f1, String out)
+            throws IOException {
+        Dataset.write(f1, data);
+
+        int k = expected.length / 10;
+        ExternalSelect.smallest(f1, out, k, modeConfig(false));
+        boolean ok = Arrays.equals(Arrays.copyOf(expected, k), readInts(out));
+        ExternalSelect.smallest(f1, out, expected.length + 1, modeConfig(false));
+        report(shape, "select smallest", ok && Arrays.equals(expected, readInts(out)));
+
+        int lo = expected[expected.length / 4];
+        int hi = expected[expected.length / 2];
+        ExternalSelect.range(f1, out, lo, hi, modeConfig(false));
+        report(shape, "select range", Arrays.equals(Arrays.copyOfRange(expected, lowerBound(expected, lo),
+                                                                         lowerBound(expected, hi + 1L)),
+                                                    readInts(out)));
+    }
+
+
+    /**
+     * Aggregate the data into its distinct ints, the count of each, and a histogram.
+     * @param shape Shape the data was generated with.
+     * @param data Input.
+     * @param expected Input sorted by Arrays.sort.
+     * @param f1 Path to write the input to.
+     * @param out Path to write the aggregate to.
+     * @throws IOException
+     */
+    private static void checkAggregate(Dataset shape, int[] data, int[] expected, String f1, String out)
+            throws IOException {
+        Dataset.write(f1, data);
+
+        // Distinct ints and their counts, as key,count pairs.
+        int[] distinct = new int[expected.length];
+        int[] pairs = new int[expected.length << 1];
+        int keys = 0;
+        for(int i = 0; i < expected.length; i++) {
+            if(keys > 0 && distinct[keys - 1] == expected[i]) pairs[(keys << 1) - 1]++;
+            else {
+                distinct[keys] = expected[i];
+                pairs[keys << 1] = expected[i];
+                pairs[(keys << 1) + 1] = 1;
+                keys++;
+            }
+        }
+
+        long found = ExternalAggregate.distinct(f1, out, modeConfig(false));
+        report(shape, "aggregate distinct", found == keys && Arrays.equals(Arrays.copyOf(distinct, keys),
+                                                                           readInts(out)));
+
+        found = ExternalAggregate.count(f1, out, modeConfig(false));
+        report(shape, "aggregate count", found == keys && Arrays.equals(Arrays.copyOf(pairs, keys << 1),
+                                                                        readInts(out)));
+
+        // A histogram over the middle of the key range, so there are ints below and above the buckets.
+        int buckets = 64;
+        int lo = expected[expected.length / 8];
+        long width = Math.max(1, ((long)expected[expected.length * 7 / 8] - lo) / buckets);
+        long[] counts = new long[buckets];
+        long bucket;
+        for(int x : data) {
+            bucket = ((long)x - lo) / width;
+            if(x >= lo && bucket < buckets) counts[(int)bucket]++;
+        }
+        report(shape, "aggregate histogram", Arrays.equals(counts, ExternalAggregate.histogram(f1, lo, width,
+                                                                                               buckets,
+                                                                                               modeConfig(false))));
+    }
+
+
+    /**
+     * Sort the data with a sparse index, then look keys up through it.
+     * @param shape Shape the data was generated with.
+     * @param data Input.
+     * @param expected Input sorted by Arrays.sort.
+     * @param f1 Path to write the input to.
+     * @param f2 Path of the auxiliary file.
+     * @throws IOException
+     */
+    private static void checkIndex(Dataset shape, int[] data, int[] expected, String f1, String f2)
+            throws IOException {
+        Dataset.write(f1, data);
+        SortConfig config = modeConfig(false);
+        config.setIndexStride(256);
+        ExternalSort.sort(f1, f2, config);
+
+        boolean ok = true;
+        Random random = new Random(shape.ordinal());
+        try(SortedFileReader reader = new SortedFileReader(f1, 16)) {
+            ok &= reader.size() == expected.length;
+
+            // Keys from the data, and keys which mostly aren't in it.
+            int key;
+            long first;
+            long last;
+            for(int i = 0; ok && i < 1000; i++) {
+                key = ((i & 1) == 0) ? expected[random.nextInt(expected.length)] : random.nextInt();
+                first = lowerBound(expected, key);
+                last = lowerBound(expected, key + 1L);
+                ok = reader.rank(key) == first && reader.count(key) == last - first
+                     && reader.find(key) == ((last > first) ? first : -1);
+            }
+
+            int lo = expected[expected.length / 3];
+            int hi = expected[expected.length / 3 * 2];
+            int i = lowerBound(expected, lo);
+            int end = lowerBound(expected, hi + 1L);
+            try(IntIterator scan = reader.scan(lo, hi)) {
+                while(ok && scan.hasNext()) ok = i < end && scan.next() == expected[i++];
+            }
+            ok &= i == end;
+        }
+        new File(f1 + SparseIndex.SUFFIX).delete();
+        report(shape, "sparse index reader", ok);
+    }
+
+
+    /**
+     * Append a tail to a sorted prefix of the data and sort the file incrementally, with each fan-in.
+     * @param shape Shape the data was generated with.
+     * @param data Input. Its first three quarters are sorted into the prefix.
+     * @param f1 Path to write the input to.
+     * @param f2 Path of the auxiliary file.
+     * @throws IOException
+     */
+    private static void checkIncremental(Dataset shape, int[] data, String f1, String f2) throws IOException {
+        int sortedInts = data.length / 4 * 3;
+        int[] prefixed = data.clone();
+        Arrays.sort(prefixed, 0, sortedInts);
+        int[] expected = data.clone();
+        Arrays.sort(expected);
+
+        for(int fanIn : new int[] { 0, 2, 3 }) {
+            Dataset.write(f1, prefixed);
+            SortConfig config = modeConfig(false);
+            config.setMaxFanIn(fanIn);
+            IncrementalSort.sort(f1, f2, sortedInts, config);
+            report(shape, "incremental sort, fan-in " + ((fanIn == 0) ? "unlimited" : fanIn),
+                   Arrays.equals(expected, readInts(f1)));
+        }
+    }
+
+
+    /**
+     * Sort records by each type of key. The keys must come out in the order Arrays.sort puts them in under the same
+     * comparator, with every record kept whole.
+     * @param f1 Path to write the records to.
+     * @param f2 Path of the auxiliary file.
+     * @throws IOException
+     */
+    private static void checkRecords(String f1, String f2) throws IOException {
+        int n = MODE_INTS >> 2;
+        Random random = new Random(0);
+
+        for(KeyType type : KeyType.values()) {
+            // Each key is kept as the bits it is stored with.
+            long[] keys = new long[n];
+            ByteBuffer records = ByteBuffer.allocate(n * RECORD_SIZE);
+            for(int i = 0; i < n; i++) {
+                keys[i] = recordKey(type, random, i);
+                records.putInt(i * RECORD_SIZE, i);
+                if(type == KeyType.INT) records.putInt(i * RECORD_SIZE + RECORD_KEY_OFFSET, (int)keys[i]);
+                else records.putLong(i * RECORD_SIZE + RECORD_KEY_OFFSET, keys[i]);
+                records.putInt(i * RECORD_SIZE + RECORD_CHECK_OFFSET, ~i);
+            }
+            try(RandomAccessFile file = new RandomAccessFile(f1, "rw")) {
+                file.setLength(0);
+                while(records.hasRemaining()) file.getChannel().write(records);
+            }
+
+            RecordSort.sort(f1, f2, new RecordFormat(RECORD_SIZE, RECORD_KEY_OFFSET, type), modeConfig(false));
+
+            Integer[] expected = new Integer[n];
+            for(int i = 0; i < n; i++) expected[i] = i;
+            Arrays.sort(expected, (a, b) -> compareKeys(type, keys[a], keys[b]));
+
+            boolean ok;
+            boolean[] seen = new boolean[n];
+            try(RandomAccessFile file = new RandomAccessFile(f1, "r")) {
+                ok = file.length() == (long)n * RECORD_SIZE;
+                records.clear();
+                while(ok && records.hasRemaining()) ok = file.getChannel().read(records) >= 0;
+            }
+
+            // Records with equal keys may come out in any order, so each must only match the key of its position.
+            int index;
+            for(int i = 0; ok && i < n; i++) {
+                index = records.getInt(i * RECORD_SIZE);
+                ok = index >= 0 && index < n && !seen[index]
+                     && records.getInt(i * RECORD_SIZE + RECORD_CHECK_OFFSET) == ~index
+                     && compareKeys(type, keys[index], keys[expected[i]]) == 0;
+                if(ok) seen[index] = true;
+            }
+            report("records by " + type + " key", ok);
+        }
+    }
+
+
+    /**
+     * Sort every shape of data under each I/O mode as concurrent jobs of one SortScheduler, with a single turn on the
+     * disk at a time. Bins and merged runs move through the same chunks whether they're mapped or read and written at
+     * positions, so outside the merge readers' refills a MEMORY_MAPPED job must take as many turns on the disk as a
+     * RANDOM_ACCESS job of the same data.
+     * @param scratchDir Directory for the jobs' files.
+     * @throws Exception
+     */
+    private static void checkScheduler(File scratchDir) throws Exception {
+        if(!scratchDir.isDirectory() && !scratchDir.mkdirs()) throw new IOException("Can't create " + scratchDir);
+        Dataset[] shapes = Dataset.values();
+        IOMode[] modes = IOMode.values();
+        SortScheduler scheduler = new SortScheduler(3 * MODE_BUDGET, 3, 1);
+
+        SortJob[][] jobs = new SortJob[shapes.length][modes.length];
+        String f1;
+        for(int s = 0; s < shapes.length; s++) {
+            for(int m = 0; m < modes.length; m++) {
+                f1 = new File(scratchDir, "job" + s + "-" + m + ".dat").getPath();
+                shapes[s].write(f1, MODE_INTS, s);
+
+                SortConfig config = modeConfig(false);
+                config.setIOMode(modes[m]);
+                jobs[s][m] = scheduler.submit(f1, new File(scratchDir, "job" + s + "-" + m + ".aux").getPath(), config);
+            }
+        }
+        scheduler.shutdown();
+
+        int[] expected;
+        long[] turns = new long[modes.length];
+        boolean ok;
+        for(int s = 0; s < shapes.length; s++) {
+            expected = shapes[s].generate(MODE_INTS, s);
+            Arrays.sort(expected);
+
+            for(int m = 0; m < modes.length; m++) {
+                turns[m] = jobs[s][m].getIOQueue().getOperations();
+                for(PhaseMetrics phase : jobs[s][m].getResult().get().getPhases()) turns[m] -= phase.getRefills();
+            }
+            for(int m = 0; m < modes.length; m++) {
+                ok = Arrays.equals(expected, readInts(jobs[s][m].getPath()));
+                if(modes[m] == IOMode.MEMORY_MAPPED) ok &= turns[m] == turns[IOMode.RANDOM_ACCESS.ordinal()];
+                report(shapes[s], "scheduled sort " + modes[m], ok);
+            }
+        }
+    }
+
+
+    /**
+     * Kill a resumable sort midway a few times, each in a new process, then let it finish from the manifest.
+     * @param shape Shape to generate the data with.
+     * @param f1 Path to write the input to.
+     * @param f2 Path of the auxiliary file.
+     * @throws Exception
+     */
+    private static void checkResume(Dataset shape, String f1, String f2) throws Exception {
+        Random random = new Random(shape.ordinal());
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        for(int trial = 0; trial < 3; trial++) {
+            int[] data = shape.generate(MODE_INTS << 2, trial);
+            Dataset.write(f1, data);
+            new File(f2).delete();
+            new File(f2 + ExternalSort.MANIFEST_SUFFIX).delete();
+
+            int kills = 0;
+            int resumed = 0;
+            boolean ok = true;
+            Process p;
+            while(true) {
+                p = new ProcessBuilder(java, CHILD_HEAP, "-cp", System.getProperty("java.class.path"),
+                                       ExternalSortTester.class.getName(), "resume", f1, f2)
+                        .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+                if(kills < KILLS && !p.waitFor(KILL_AFTER_MIN + random.nextInt(KILL_AFTER_SPREAD),
+                                               TimeUnit.MILLISECONDS)) {
+                    p.destroyForcibly().waitFor();
+                    kills++;
+                    if(new File(f2 + ExternalSort.MANIFEST_SUFFIX).exists()) resumed++;
+                    continue;
+                }
+                ok = p.waitFor() == 0;
+                break;
+            }
+
+            Arrays.sort(data);
+            ok = ok && Arrays.equals(data, readInts(f1)) && !new File(f2 + ExternalSort.MANIFEST_SUFFIX).exists();
+            report(shape, "resume after " + kills + " kills (" + resumed + " with a manifest)", ok);
+        }
+    }
+
+
+    /**
+     * Presortedness detection is left off, so the sorted, reversed and few-valued shapes go through the mode under
+     * test rather than a fast path.
+     * @param resumable Whether the sort keeps a manifest to resume from.
+     * @return Configuration with the mode checks' budget.
+     */
+    private static SortConfig modeConfig(boolean resumable) {
+        SortConfig config = new SortConfig(MODE_BUDGET);
+        config.setResumable(resumable);
+        config.setDetectPresortedness(false);
+        return config;
+    }
+
+
+    /**
+     * @param shape Shape of the data.
+     * @return Name of the phase the presortedness fast path sorts the shape in, or null if it has none.
+     */
+    private static String fastPathPhase(Dataset shape) {
+        switch(shape) {
+            case SORTED:
+                return "sorted check";
+            case REVERSE:
+                return "reversal";
+            case FEW_DISTINCT:
+                return "counting sort";
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * Add a row to the sort checks.
+     * @param names Name of each row.
+     * @param configs Configuration of each row.
+     * @param name Name of the new row.
+     * @return The new row's configuration, with the mode checks' budget, to set the mode under test on.
+     */
+    private static SortConfig addRow(List<String> names, List<SortConfig> configs, String name) {
+        SortConfig config = modeConfig(false);
+        names.add(name);
+        configs.add(config);
+        return config;
+    }
+
+
+    /**
+     * @param type Type of the key.
+     * @param random Random number generator.
+     * @param i Index of the record.
+     * @return Bits of a key for the record. Half the int and long keys are drawn from a small range so they repeat,
+     *         and every eighth double is one Double.compare orders specially.
+     */
+    private static long recordKey(KeyType type, Random random, int i) {
+        switch(type) {
+            case INT:
+                return ((i & 1) == 0) ? random.nextInt(1000) : random.nextInt();
+            case LONG:
+                return ((i & 1) == 0) ? random.nextInt(1000) - 500 : random.nextLong();
+            default:
+                if((i & 7) == 0) return SPECIAL_DOUBLES[(i >> 3) % SPECIAL_DOUBLES.length];
+                return Double.doubleToRawLongBits(random.nextGaussian() * 1e6);
+        }
+    }
+
+
+    /**
+     * Compare two keys as Java orders their type.
+     * @param type Type of the keys.
+     * @param x Bits of the first key.
+     * @param y Bits of the second key.
+     * @return Negative, zero or positive as the first key is less than, equal to or greater than the second.
+     */
+    private static int compareKeys(KeyType type, long x, long y) {
+        switch(type) {
+            case INT:
+                return Integer.compare((int)x, (int)y);
+            case LONG:
+                return Long.compare(x, y);
+            default:
+                return Double.compare(Double.longBitsToDouble(x), Double.longBitsToDouble(y));
+        }
+    }
+
+
+    /**
+     * Print the outcome of a check on one shape of data.
+     * @param shape Shape of the data checked.
+     * @param check Name of the check.
+     * @param ok Whether it matched Arrays.sort.
+     */
+    private static void report(Dataset shape, String check, boolean ok) {
+        report(shape + ", " + check, ok);
+    }
+
+
+    /**
+     * Print the outcome of a check and count it if it failed.
+     * @param check Name of the check.
+     * @param ok Whether it matched Arrays.sort.
+     */
+    private static void report(String check, boolean ok) {
+        if(!ok) failures++;
+        System.out.println(check + ": " + (ok ? "OK" : "FAILED"));
+    }
+
+
+    /**
+     * Delete a directory and everything in it.
+     * @param dir Directory to delete.
+     */
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(file.isDirectory()) delete(file);
+                else file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+
+    /**
+     * @param sorted Sorted ints.
+     * @param key Key to look for, as a long so one past the largest int can be given.
+     * @return Number of ints less than the key.
+     */
+    private static int lowerBound(int[] sorted, long key) {
+        int lo = 0;
+        int hi = sorted.length;
+        int mid;
+        while(lo < hi) {
+            mid = (lo + hi) >>> 1;
+            if(sorted[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+
+    /**
+     * @param path Path to a file of ints.
+     * @return Every int in the file.
+     * @throws IOException
+     */
+    private static int[] readInts(String path) throws IOException {
+        try(RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            int[] ints = new int[(int)(file.length() >> 2)];
+            ExternalSort.readInts(file.getChannel(), 0, ints, ints.length, ByteBuffer.allocateDirect(1 << 16));
+            return ints;
+        }
+    }
+
+
     /**
      * Executes bash command.
      * @param command Command to execute.
@@ -0,0 +1,79 @@
+/**
+ * HeapMergeEngine.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * MergeEngine backed by the Pair min-heap.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class HeapMergeEngine implements MergeEngine {
+
+    // region Class Attributes
+
+    private Heap heap;
+
+    private Pair top;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param runs Number of runs being merged.
+     */
+    public HeapMergeEngine(int runs) {
+        this.heap = new Heap(runs);
+    }
+
+
+    @Override
+    public void offer(int run, int key) {
+        this.heap.push(new Pair(key, run));
+    }
+
+
+    /**
+     * Pop the first minimum once all runs have been offered.
+     */
+    @Override
+    public void start() {
+        this.top = this.heap.pop();
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return this.top == null;
+    }
+
+
+    @Override
+    public int minKey() {
+        return this.top.getLabel();
+    }
+
+
+    @Override
+    public int minRun() {
+        return this.top.getBin();
+    }
+
+
+    @Override
+    public void replaceMin(int key) {
+        this.top.setLabel(key);
+        this.heap.push(this.top);
+        this.top = this.heap.pop();
+    }
+
+
+    @Override
+    public void removeMin() {
+        this.top = this.heap.pop();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Histogram.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.Arrays;
+
+
+/**
+ * Count of each distinct int, in an open-addressed table of primitives which refuses to grow past a limit.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class Histogram {
+
+    // region Class Attributes
+
+    private int limit;
+    private int size = 0;
+    private int mask;
+
+    private int[] keys;
+    private long[] counts;
+    private boolean[] used;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param limit Most distinct values the histogram will hold.
+     */
+    public Histogram(int limit) {
+        this.limit = limit;
+        this.allocate(16);
+    }
+
+
+    /**
+     * Add to the count of a value.
+     * @param key Value to count.
+     * @param count Number of occurrences to add.
+     * @return False if the value is new and the histogram is already at its limit, in which case nothing is added.
+     */
+    public boolean add(int key, long count) {
+        int slot = this.find(key);
+        if(this.used[slot]) {
+            this.counts[slot] += count;
+            return true;
+        }
+        if(this.size == this.limit) return false;
+
+        this.used[slot] = true;
+        this.keys[slot] = key;
+        this.counts[slot] = count;
+
+        // Keep the table at most half full.
+        if(++this.size << 1 > this.keys.length) this.rehash();
+        return true;
+    }
+
+
+    /**
+     * @param key Value to look up.
+     * @return Number of occurrences counted.
+     */
+    public long count(int key) {
+        int slot = this.find(key);
+        return this.used[slot] ? this.counts[slot] : 0;
+    }
+
+
+    /**
+     * @return Number of distinct values counted.
+     */
+    public int size() {
+        return this.size;
+    }
+
+
+    /**
+     * @return Every distinct value counted, in ascending order.
+     */
+    public int[] sortedKeys() {
+        int[] sorted = new int[this.size];
+        int n = 0;
+        for(int i = 0; i < this.keys.length; i++) if(this.used[i]) sorted[n++] = this.keys[i];
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+
+    /**
+     * @return Slot holding the key, or the empty slot it would go in.
+     */
+    private int find(int key) {
+        int h = key * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & this.mask;
+        while(this.used[slot] && this.keys[slot] != key) slot = (slot + 1) & this.mask;
+        return slot;
+    }
+
+
+    /**
+     * Double the table and reinsert everything.
+     */
+    private void rehash() {
+        int[] oldKeys = this.keys;
+        long[] oldCounts = this.counts;
+        boolean[] oldUsed = this.used;
+
+        this.allocate(oldKeys.length << 1);
+        int slot;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(!oldUsed[i]) continue;
+            slot = this.find(oldKeys[i]);
+            this.used[slot] = true;
+            this.keys[slot] = oldKeys[i];
+            this.counts[slot] = oldCounts[i];
+        }
+    }
+
+
+    /**
+     * @param capacity Number of slots, a power of two.
+     */
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.counts = new long[capacity];
+        this.used = new boolean[capacity];
+        this.mask = capacity - 1;
+    }
+}
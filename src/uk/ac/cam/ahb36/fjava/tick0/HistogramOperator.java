@@ -0,0 +1,67 @@
+/**
+ * HistogramOperator.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * A MergeOperator which counts the input into fixed-width buckets: bucket i holds the keys from lo + i * width up to
+ * but not including lo + (i + 1) * width. Keys outside every bucket are counted as below or above.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class HistogramOperator implements MergeOperator {
+
+    // region Class Attributes
+
+    private final long lo;
+    private final long width;
+
+    private final long[] counts;
+
+    private long below = 0;
+    private long above = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param lo Lowest key of the first bucket.
+     * @param width Number of keys in each bucket.
+     * @param buckets Number of buckets.
+     */
+    public HistogramOperator(int lo, long width, int buckets) {
+        if(width < 1) throw new IllegalArgumentException("Bucket width must be positive");
+        this.lo = lo;
+        this.width = width;
+        this.counts = new long[buckets];
+    }
+
+
+    @Override
+    public void accept(int key, long count) {
+        if(key < this.lo) {
+            this.below += count;
+            return;
+        }
+        long bucket = (key - this.lo) / this.width;
+        if(bucket < this.counts.length) this.counts[(int)bucket] += count;
+        else this.above += count;
+    }
+
+
+    @Override
+    public void finish() {
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public long[] getCounts() { return this.counts; }
+    public long getBelow() { return this.below; }
+    public long getAbove() { return this.above; }
+}
@@ -0,0 +1,30 @@
+/**
+ * IOMode.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * The I/O engines available for reading and writing bins.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum IOMode {
+
+    /**
+     * Positional reads and writes through the file's channel, on the calling thread.
+     */
+    RANDOM_ACCESS,
+
+    /**
+     * Map file segments with FileChannel and access them through big-endian IntBuffer views.
+     */
+    MEMORY_MAPPED,
+
+    /**
+     * Double-buffered FileChannel reads and writes, with the next buffer filled or drained on a background I/O pool.
+     */
+    ASYNC
+}
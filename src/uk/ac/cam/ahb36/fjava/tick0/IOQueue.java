@@ -0,0 +1,83 @@
+/**
+ * IOQueue.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.InterruptedIOException;
+
+
+/**
+ * One job's queue for turns on the disk in a shared IOScheduler.
+ *
+ * Every read or write of a file a job makes is bracketed by begin() and end(), waiting in begin() until the scheduler
+ * gives this queue a turn. A job's threads share its queue, so a job with more I/O threads gets no more turns than one
+ * with fewer.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class IOQueue {
+
+    // region Class Attributes
+
+    private final IOScheduler scheduler;
+
+    private final String name;
+
+    // Threads of the job waiting for a turn, guarded by the scheduler.
+    int waiting = 0;
+
+    private long operations = 0;
+    private long waitNanos = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor. Queues are made by IOScheduler.newQueue.
+     * @param scheduler Scheduler handing out the turns.
+     * @param name Name of the job, for reporting.
+     */
+    IOQueue(IOScheduler scheduler, String name) {
+        this.scheduler = scheduler;
+        this.name = name;
+    }
+
+
+    /**
+     * Wait for a turn on the disk. Every call must be followed by a call to end() once the I/O is done.
+     * @throws InterruptedIOException If interrupted while waiting, in which case end() mustn't be called.
+     */
+    public void begin() throws InterruptedIOException {
+        long start = System.nanoTime();
+        this.scheduler.acquire(this);
+        synchronized(this) {
+            this.operations++;
+            this.waitNanos += System.nanoTime() - start;
+        }
+    }
+
+
+    /**
+     * Give up the turn taken by begin().
+     */
+    public void end() {
+        this.scheduler.release();
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public String getName() { return this.name; }
+    public synchronized long getOperations() { return this.operations; }
+    public synchronized long getWaitNanos() { return this.waitNanos; }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d I/Os, %.1f ms waiting", this.name, this.getOperations(),
+                             this.getWaitNanos() / 1e6);
+    }
+}
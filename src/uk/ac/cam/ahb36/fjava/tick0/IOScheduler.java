@@ -0,0 +1,95 @@
+/**
+ * IOScheduler.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+
+
+/**
+ * Shares the disk fairly between the jobs running in one process.
+ *
+ * At most a fixed number of reads and writes run at once. When every slot is taken, waiting jobs get the next free
+ * slot in round robin order: each job has an IOQueue, and a queue which is given a slot goes to the back of the line
+ * behind every other job with I/O waiting. One job's sequential stream then can't starve the others, and the disk
+ * isn't made to seek between more streams at once than it can keep up with.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class IOScheduler {
+
+    // region Class Attributes
+
+    private final int maxConcurrentIO;
+    private int inUse = 0;
+
+    // Queues with a thread waiting for a slot, in the order they get one.
+    private final ArrayDeque<IOQueue> turns = new ArrayDeque<>();
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param maxConcurrentIO Most reads and writes to run at once, across every job.
+     */
+    public IOScheduler(int maxConcurrentIO) {
+        if(maxConcurrentIO < 1) throw new IllegalArgumentException("Need at least one concurrent I/O");
+        this.maxConcurrentIO = maxConcurrentIO;
+    }
+
+
+    /**
+     * Create the queue for a job.
+     * @param name Name of the job, for reporting.
+     * @return New queue.
+     */
+    public IOQueue newQueue(String name) {
+        return new IOQueue(this, name);
+    }
+
+
+    /**
+     * Block until a slot is free and it's the queue's turn, then take the slot.
+     * @param queue Queue of the job asking.
+     * @throws InterruptedIOException If interrupted while waiting.
+     */
+    synchronized void acquire(IOQueue queue) throws InterruptedIOException {
+        if(queue.waiting++ == 0) this.turns.addLast(queue);
+
+        try {
+            while(this.inUse >= this.maxConcurrentIO || this.turns.peekFirst() != queue) this.wait();
+        }
+        catch (InterruptedException ie) {
+            if(--queue.waiting == 0) this.turns.remove(queue);
+            this.notifyAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        // Take the slot and go to the back of the line if the job has more I/O waiting.
+        this.inUse++;
+        this.turns.pollFirst();
+        if(--queue.waiting > 0) this.turns.addLast(queue);
+        this.notifyAll();
+    }
+
+
+    /**
+     * Give up a slot taken by acquire.
+     */
+    synchronized void release() {
+        this.inUse--;
+        this.notifyAll();
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public int getMaxConcurrentIO() { return this.maxConcurrentIO; }
+    public synchronized int getInUse() { return this.inUse; }
+}
@@ -0,0 +1,222 @@
+/**
+ * IncrementalSort.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Sort of a file whose start is already sorted, such as a sorted file with a new batch of ints appended to it.
+ *
+ * Only the appended tail goes through the first phase: it is sorted in memory if it fits, otherwise split into bins
+ * which are sorted and written as runs to the auxiliary file, and merged down between the auxiliary file and the
+ * tail's own space in the input until one fewer than the fan-in is left. The tail is sorted in descending order (as
+ * the complements ~x of its ints, so the usual ascending merge applies) and the final merge takes the sorted prefix
+ * in from its end (see DescendingBinInfo), so the merged file is written into the input from its end downwards. The
+ * write position never drops below the part of the prefix still to be read, so no copy of the prefix is needed, and
+ * the merge stops as soon as the tail is used up: the part of the prefix below the smallest new int is never moved.
+ *
+ * The cost is the sort of the tail plus at most one sequential pass over the prefix, rather than a full sort.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class IncrementalSort {
+
+    /**
+     * Sort a file whose first ints are already in ascending order, in place.
+     * @param f1 Path to the file to sort. Overwritten with the sorted result.
+     * @param f2 Path to the auxiliary file, used only if the tail doesn't fit in memory.
+     * @param sortedInts Number of ints at the start of the file which are already sorted.
+     * @param config Memory budget, fan-in, minimum merge buffer and index stride to sort with. The I/O mode, run
+     *               generation, bin sorter and merge mode don't apply.
+     * @return Number of ints of the file rewritten by the final merge, out of the tail and the prefix above it.
+     * @throws IOException
+     * @throws IllegalArgumentException If the sorted prefix is longer than the file, or the fan-in is below 2.
+     */
+    public static long sort(String f1, String f2, long sortedInts, SortConfig config) throws IOException {
+        try(RandomAccessFile a1 = new RandomAccessFile(f1, "rw");
+            RandomAccessFile a2 = new RandomAccessFile(f2, "rw")) {
+            long numInts = a1.length() >> 2;
+            if(sortedInts < 0 || sortedInts > numInts) {
+                throw new IllegalArgumentException("Sorted prefix of " + sortedInts + " ints in a file of " +
+                                                   numInts);
+            }
+            long tailInts = numInts - sortedInts;
+            if(tailInts == 0) return 0;
+
+            // The budget is split between the buffer pool and a bin as for a full sort.
+            int poolSize = SortPlan.poolSize(config.getMemoryBudget());
+            int maxBinInts = SortPlan.maxBinInts(config.getMemoryBudget());
+            int chunkSize = SortPlan.ioChunkSize(poolSize);
+
+            int runs = (int)((tailInts + maxBinInts - 1) / maxBinInts);
+            int maxFanIn = SortPlan.maxFanIn(config, poolSize);
+            if(maxFanIn < 2) throw new IllegalArgumentException("Fan-in of " + maxFanIn + " can't merge the prefix");
+
+            // One slot of the final merge is kept for the prefix. The passes before it alternate between the
+            // auxiliary file and the tail's space in the input, and must leave the runs in the auxiliary file: the
+            // final merge overwrites the tail's space first. With a fan-in of 2 the plan's last pass merges pairs
+            // too, leaving the one run which fits next to the prefix; otherwise it is the final merge itself.
+            MergePlan plan = new MergePlan(runs, maxFanIn - 1);
+            int passes = (maxFanIn < 3) ? plan.getPasses() : Math.max(0, plan.getPasses() - 1);
+            long tailOffset = sortedInts << 2;
+
+            BufferPool pool = new BufferPool(poolSize);
+
+
+            // PHASE 1 //
+            // Sort each bin of the tail as complements, spilling it unless the whole tail is the one bin.
+
+            RandomAccessFile runFile = ((passes & 1) == 0) ? a2 : a1;
+            long[] bounds = new long[runs + 1];
+            int[] bin = new int[(int)Math.min(maxBinInts, tailInts)];
+            int n = 0;
+
+            ByteBuffer chunk = pool.acquire(chunkSize);
+            for(int r = 0; r < runs; r++) {
+                bounds[r] = ((long)r * bin.length) << 2;
+                n = (int)Math.min(bin.length, tailInts - (long)r * bin.length);
+                ExternalSort.readInts(a1.getChannel(), tailOffset + bounds[r], bin, n, chunk);
+
+                for(int i = 0; i < n; i++) bin[i] = ~bin[i];
+                Arrays.parallelSort(bin, 0, n);
+
+                // Bins are read whole before being written back, so runs can go into the tail's own space.
+                if(runs > 1) {
+                    ExternalSort.writeInts(runFile.getChannel(), base(runFile, a1, tailOffset) + bounds[r], bin, n,
+                                           chunk);
+                }
+            }
+            bounds[runs] = tailInts << 2;
+            pool.release(chunk);
+            pool.reset();
+
+
+            // PHASE 2 //
+            // Merge the runs down until they fit into the final merge alongside the prefix.
+
+            RandomAccessFile src = runFile;
+            RandomAccessFile dst;
+            for(int pass = 0; pass < passes; pass++) {
+                dst = (src == a1) ? a2 : a1;
+                bounds = ExternalSort.mergePass(src, base(src, a1, tailOffset), dst, base(dst, a1, tailOffset),
+                                                bounds, plan.getFanIn(), pool);
+                src = dst;
+                pool.reset();
+            }
+
+
+            // FINAL MERGE //
+            // The prefix read from its end against the runs of the tail, written into the input from its end.
+
+            List<BinInfo> sources = new ArrayList<>();
+            sources.add(new DescendingBinInfo(0, tailOffset, a1, 0, pool));
+            if(runs == 1) sources.add(new ArrayBinInfo(bin, n, 1));
+            else {
+                for(int r = 0; r < bounds.length - 1; r++) {
+                    sources.add(new BinInfo(bounds[r], bounds[r + 1] - bounds[r], a2, r + 1, pool));
+                }
+            }
+
+            // Every source and the output get an equal share of the pool.
+            int share = SortPlan.share(poolSize, sources.size() + 1);
+            DescendingFileOutput out = new DescendingFileOutput(share >> 2, a1, numInts << 2, pool);
+
+            SparseIndex index = (config.getIndexStride() > 0) ? new SparseIndex(numInts, config.getIndexStride())
+                                                              : null;
+            out.setIndex(index);
+
+            MergeEngine merger = new LoserTree(sources.size());
+            BinInfo source;
+            for(int r = 0; r < sources.size(); r++) {
+                source = sources.get(r);
+                source.open(share);
+                if(!source.isEmpty()) merger.offer(r, source.head());
+            }
+            merger.start();
+
+            long tailLeft = tailInts;
+            int top;
+            long count;
+            while(tailLeft > 0) {
+                top = merger.minKey();
+                source = sources.get(merger.minRun());
+
+                count = source.drain(top);
+                if(merger.minRun() > 0) tailLeft -= count;
+                out.writeRepeated(~top, count);
+
+                if(source.isEmpty()) merger.removeMin();
+                else merger.replaceMin(source.head());
+            }
+
+            out.finalWrite();
+            for(BinInfo s : sources) s.close();
+
+            long untouched = out.getPosition() >> 2;
+            if(index != null) saveIndex(f1, a1, index, sortedInts, untouched);
+            return numInts - untouched;
+        }
+    }
+
+
+    /**
+     * @param file One of the two files.
+     * @param a1 The input file.
+     * @param tailOffset Offset of the tail in the input, in bytes.
+     * @return Offset in bytes the tail's runs start at in the file.
+     */
+    private static long base(RandomAccessFile file, RandomAccessFile a1, long tailOffset) {
+        return (file == a1) ? tailOffset : 0;
+    }
+
+
+    /**
+     * Complete the index of the merged file and save it next to the file. Samples below the part rewritten by the
+     * merge are taken from the prefix's own index if it has one with the same stride, or else the whole index is
+     * rebuilt by reading the file.
+     * @param f1 Path to the sorted file.
+     * @param a1 The sorted file.
+     * @param index Index with the samples of the rewritten part filled in.
+     * @param sortedInts Number of ints in the prefix.
+     * @param untouched Number of ints at the start of the file the merge didn't rewrite.
+     * @throws IOException
+     */
+    private static void saveIndex(String f1, RandomAccessFile a1, SparseIndex index, long sortedInts, long untouched)
+            throws IOException {
+        File sidecar = new File(f1 + SparseIndex.SUFFIX);
+        if(sidecar.exists()) {
+            SparseIndex old = SparseIndex.load(sidecar);
+            if(old.getNumInts() == sortedInts && old.getStride() == index.getStride()) {
+                long position;
+                for(int s = 0; (position = (long)s * index.getStride()) < untouched; s++) {
+                    index.recordRepeated(position, old.getKey(s), 1);
+                }
+            }
+        }
+        if(!index.isComplete()) index = SparseIndex.build(a1, index.getStride());
+        index.save(sidecar);
+    }
+
+
+    /**
+     * Static class invocation: IncrementalSort f1 f2 sortedInts [budget].
+     * @param args Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        SortConfig config = (args.length > 3) ? new SortConfig(Long.parseLong(args[3]))
+                                              : SortConfig.fromFreeMemory();
+        long rewritten = sort(args[0], args[1], Long.parseLong(args[2]), config);
+        System.out.println("Rewrote " + rewritten + " ints, checksum: " + ExternalSort.checkSum(args[0]));
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * InputShape.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * Shapes of input a sample can reveal, each with its own fast path.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum InputShape {
+
+    /**
+     * No order worth exploiting; sorted as usual.
+     */
+    UNSORTED,
+
+    /**
+     * Every sampled pair in order. Confirmed with a single read of the file, then left as it is.
+     */
+    SORTED,
+
+    /**
+     * Every sampled pair in reverse order. Confirmed with a single read of the file, then reversed in place.
+     */
+    REVERSED,
+
+    /**
+     * Few distinct values. Counted in a single read of the file and written back out in order.
+     */
+    FEW_DISTINCT,
+
+    /**
+     * Mostly in order. Runs are generated by replacement selection, which follows the natural runs of the input.
+     */
+    NEARLY_SORTED
+}
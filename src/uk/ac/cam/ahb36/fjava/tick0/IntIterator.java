@@ -0,0 +1,38 @@
+/**
+ * IntIterator.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+
+/**
+ * Pull-based iteration over primitive ints, reading from disk as it goes.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public interface IntIterator extends Closeable {
+
+    /**
+     * @return True if there is another int.
+     */
+    boolean hasNext();
+
+
+    /**
+     * @return The next int.
+     * @throws IOException
+     * @throws java.util.NoSuchElementException If there are no more ints.
+     */
+    int next() throws IOException;
+
+
+    /**
+     * Release every file and buffer held, whether or not iteration is complete.
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
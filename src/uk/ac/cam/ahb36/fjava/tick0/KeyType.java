@@ -0,0 +1,80 @@
+/**
+ * KeyType.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * The types of key a record can be sorted by, all stored big-endian.
+ *
+ * Every key is read as a long whose signed order is the key's order, so sorting and merging only ever compare longs.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum KeyType {
+
+    /**
+     * 32-bit signed int.
+     */
+    INT(4),
+
+    /**
+     * 64-bit signed long.
+     */
+    LONG(8),
+
+    /**
+     * 64-bit IEEE 754 double, ordered as Double.compare orders them: -0.0 before 0.0 and NaN last.
+     */
+    DOUBLE(8);
+
+    // region Class Attributes
+
+    private int width;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param width Size of the key in bytes.
+     */
+    KeyType(int width) {
+        this.width = width;
+    }
+
+
+    /**
+     * @return Size of the key in bytes.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+
+    /**
+     * Read a key as a long with the same order.
+     * @param buffer Buffer holding the key.
+     * @param offset Offset of the key in the buffer.
+     * @return Sortable key.
+     */
+    public long read(ByteBuffer buffer, int offset) {
+        switch(this) {
+            case INT:
+                return buffer.getInt(offset);
+
+            case LONG:
+                return buffer.getLong(offset);
+
+            default:
+                // Every NaN is read as the one canonical, positive NaN so it sorts last whatever its sign and payload.
+                // Negative doubles order backwards by their bits, so flip everything but the sign bit of those.
+                long bits = Double.doubleToLongBits(buffer.getDouble(offset));
+                return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * LongLoserTree.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.Arrays;
+
+/**
+ * Tournament tree of losers over primitive long keys, for merging records by their keys.
+ *
+ * Leaf r (run r) sits at position k + r of an implicit binary tree, each internal node stores the run which lost the
+ * match played there and the overall winner is kept separately. Replacing the winner replays only the matches on its
+ * path to the root, so each element costs about log k comparisons and no allocation.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class LongLoserTree {
+
+    // region Class Attributes
+
+    private int k;
+    private int remaining = 0;
+    private int winner = -1;
+
+    private long[] keys;
+    private int[] losers;
+
+    private boolean[] exhausted;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param runs Number of runs being merged.
+     */
+    public LongLoserTree(int runs) {
+        this.k = Math.max(1, runs);
+        this.keys = new long[this.k];
+        this.losers = new int[this.k];
+        this.exhausted = new boolean[this.k];
+        Arrays.fill(this.exhausted, true);
+    }
+
+
+    /**
+     * Offer the first key of a run. All runs are offered, then start() is called, before the minimum is first queried.
+     * @param run Index of the run.
+     * @param key Head of the run.
+     */
+    public void offer(int run, long key) {
+        this.keys[run] = key;
+        this.exhausted[run] = false;
+        this.remaining++;
+    }
+
+
+    /**
+     * @return True once every run has been removed.
+     */
+    public boolean isEmpty() {
+        return this.remaining == 0;
+    }
+
+
+    /**
+     * @return Smallest key across all runs.
+     */
+    public long minKey() {
+        return this.keys[this.winner];
+    }
+
+
+    /**
+     * @return Index of the run holding the smallest key.
+     */
+    public int minRun() {
+        return this.winner;
+    }
+
+
+    /**
+     * Replace the smallest key with the next key of the same run.
+     * @param key New head of the run.
+     */
+    public void replaceMin(long key) {
+        this.keys[this.winner] = key;
+        this.replay();
+    }
+
+
+    /**
+     * Remove the run holding the smallest key, once it is exhausted.
+     */
+    public void removeMin() {
+        this.exhausted[this.winner] = true;
+        this.remaining--;
+        this.replay();
+    }
+
+
+    /**
+     * Play the initial tournament once all runs have been offered.
+     */
+    public void start() {
+        this.winner = (this.k == 1) ? 0 : this.build(1);
+    }
+
+
+    /**
+     * Recursively play the matches below a node, recording the losers.
+     * @param node Node of the tree.
+     * @return Run which won at this node.
+     */
+    private int build(int node) {
+        if(node >= this.k) return node - this.k;
+
+        int left = this.build(node << 1);
+        int right = this.build((node << 1) + 1);
+        if(this.beats(left, right)) {
+            this.losers[node] = right;
+            return left;
+        }
+        this.losers[node] = left;
+        return right;
+    }
+
+
+    /**
+     * Replay the matches on the path from the winner's leaf to the root.
+     */
+    private void replay() {
+        int w = this.winner;
+        int tmp;
+        for(int node = (w + this.k) >> 1; node > 0; node >>= 1) {
+            if(this.beats(this.losers[node], w)) {
+                tmp = this.losers[node];
+                this.losers[node] = w;
+                w = tmp;
+            }
+        }
+        this.winner = w;
+    }
+
+
+    /**
+     * Exhausted runs lose every match.
+     * @param a First run.
+     * @param b Second run.
+     * @return True if run a's head should come out before run b's.
+     */
+    private boolean beats(int a, int b) {
+        if(this.exhausted[a]) return false;
+        return this.exhausted[b] || this.keys[a] < this.keys[b];
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * MappedBinInfo.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A BinInfo which reads its bin through memory mapped windows of the file rather than seeks and reads.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class MappedBinInfo extends BinInfo {
+
+    // region Class Attributes
+
+    // Size of each mapped window in bytes. Must be a multiple of 4 so windows stay int aligned.
+    private static final long MAPPED_WINDOW_SIZE = 1 << 27;
+
+    private IntBuffer window;
+
+    private FileChannel channel;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param offset Offset of the start of the bin in the file, in bytes.
+     * @param length Length of the bin, in bytes.
+     * @param input File object.
+     * @param id Identifier of the bin.
+     * @throws IOException
+     */
+    public MappedBinInfo(long offset, long length, RandomAccessFile input, int id) throws IOException {
+        super(offset, length, input, id);
+        this.channel = input.getChannel();
+    }
+
+
+    /**
+     * Map the first window of the bin. Nothing is taken from the pool, the window is read in place.
+     * @param bs Ignored.
+     * @throws IOException
+     */
+    @Override
+    public void open(int bs) throws IOException {
+        if(this.buffer != null) return;
+        this.refill();
+    }
+
+
+    /**
+     * Read straight out of the next mapped window.
+     * @throws IOException
+     */
+    @Override
+    protected void refill() throws IOException {
+        this.bufferPosition = 0;
+        if(this.internalReadOffset == this.binLength) {
+            if(this.buffer == null) this.buffer = IntBuffer.allocate(0);
+            this.bufferSize = 0;
+            return;
+        }
+
+        long position = this.binStartOffset + this.internalReadOffset;
+        long start = System.nanoTime();
+        this.map();
+        this.buffer = this.window;
+        this.bufferSize = this.window.limit();
+
+        long nanos = System.nanoTime() - start;
+        this.recordRead(position, (long)this.bufferSize << 2, nanos);
+        this.recordRefill(nanos);
+    }
+
+
+    /**
+     * Maps the next window of the bin and loads it within a turn on the disk, so scheduled reads of the window
+     * aren't left to page faults outside the I/O queue.
+     * @throws IOException
+     */
+    private void map() throws IOException {
+        long size = Math.min(MAPPED_WINDOW_SIZE, this.binLength - this.internalReadOffset);
+        MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                                                   this.binStartOffset + this.internalReadOffset, size);
+        if(this.ioQueue != null) {
+            this.beginIO();
+            try {
+                mapped.load();
+            }
+            finally {
+                this.endIO();
+            }
+        }
+        this.window = mapped.asIntBuffer();
+        this.internalReadOffset += size;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * MergeEngine.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * Selects the minimum head across a set of sorted runs during the k-way merge.
+ *
+ * Runs are identified by their index. All run heads are offered, then start() is called once before the minimum is
+ * first queried, so the queries in the merge loop don't have to check whether the engine is ready.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public interface MergeEngine {
+
+    /**
+     * Offer the first key of a run.
+     * @param run Index of the run.
+     * @param key Head of the run.
+     */
+    void offer(int run, int key);
+
+
+    /**
+     * Set up the engine once every run head has been offered. Called exactly once, before any other query.
+     */
+    void start();
+
+
+    /**
+     * @return True once every run has been removed.
+     */
+    boolean isEmpty();
+
+
+    /**
+     * @return Smallest key across all runs.
+     */
+    int minKey();
+
+
+    /**
+     * @return Index of the run holding the smallest key.
+     */
+    int minRun();
+
+
+    /**
+     * Replace the minimum with the next key of the same run.
+     * @param key New head of the run.
+     */
+    void replaceMin(int key);
+
+
+    /**
+     * Remove the minimum as its run has been exhausted.
+     */
+    void removeMin();
+}
@@ -0,0 +1,82 @@
+/**
+ * MergeIterator.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Merges sorted runs one int at a time, as they are pulled from it, rather than writing the result to a file.
+ *
+ * Closes itself as soon as the last int has been taken, so any files behind the runs can go as early as possible.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class MergeIterator implements IntIterator {
+
+    // region Class Attributes
+
+    private List<BinInfo> runs;
+    private MergeEngine merger;
+    private Closeable cleanup;
+    private boolean closed = false;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param runs Readers over the runs to merge.
+     * @param readBufferSize Buffer size in bytes for each run.
+     * @param cleanup Called once when the iterator is closed, or null.
+     * @throws IOException
+     */
+    public MergeIterator(List<BinInfo> runs, int readBufferSize, Closeable cleanup) throws IOException {
+        this.runs = runs;
+        this.merger = new LoserTree(runs.size());
+        this.cleanup = cleanup;
+
+        BinInfo bin;
+        for(int r = 0; r < runs.size(); r++) {
+            bin = runs.get(r);
+            bin.open(readBufferSize);
+            if(!bin.isEmpty()) this.merger.offer(r, bin.head());
+        }
+        this.merger.start();
+        if(this.merger.isEmpty()) this.close();
+    }
+
+
+    public boolean hasNext() {
+        return !this.closed && !this.merger.isEmpty();
+    }
+
+
+    public int next() throws IOException {
+        if(!this.hasNext()) throw new NoSuchElementException();
+
+        int top = this.merger.minKey();
+        BinInfo bin = this.runs.get(this.merger.minRun());
+        bin.advance();
+
+        if(bin.isEmpty()) this.merger.removeMin();
+        else this.merger.replaceMin(bin.head());
+
+        if(this.merger.isEmpty()) this.close();
+        return top;
+    }
+
+
+    public void close() throws IOException {
+        if(this.closed) return;
+        this.closed = true;
+        for(BinInfo run : this.runs) run.close();
+        if(this.cleanup != null) this.cleanup.close();
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * MergeMode.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * The MergeEngine implementations available to the k-way merge.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum MergeMode {
+
+    /**
+     * Binary min-heap of Pair objects, roughly 2 log k comparisons per element.
+     */
+    HEAP,
+
+    /**
+     * Primitive tournament tree of losers, roughly log k comparisons per element and no allocation.
+     */
+    LOSER_TREE
+}
@@ -0,0 +1,33 @@
+/**
+ * MergeOperator.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+
+
+/**
+ * Consumer of the final merge of ExternalAggregate: every distinct key of the input, in ascending order, with the
+ * number of times it occurs.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public interface MergeOperator {
+
+    /**
+     * Take the next key. Keys arrive in strictly ascending order.
+     * @param key Key.
+     * @param count Number of times the key occurs in the input, at least 1.
+     * @throws IOException
+     */
+    void accept(int key, long count) throws IOException;
+
+
+    /**
+     * Called once after the last key, to flush any output.
+     * @throws IOException
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,134 @@
+/**
+ * MergePartitioner.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * Splits the merge of a group of sorted runs into independent key ranges, so each range can be merged on its own
+ * thread into its own region of the output.
+ *
+ * Splitter keys are picked from an even sample of the runs and each run is then cut at the first item not less than
+ * each splitter by binary search. Every item left of a cut is less than every item right of it, so range p of the
+ * output is exactly the merge of the items between cuts p and p + 1 of every run. Each probe is a single positional
+ * read, which waits its turn in the sort's IOQueue like the rest of its reads.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class MergePartitioner {
+
+    // region Class Attributes
+
+    // Number of sampled keys per partition, more samples give more evenly sized partitions.
+    private static final int SAMPLES_PER_PARTITION = 32;
+
+    // endregion
+
+
+    /**
+     * Cut a group of runs into key ranges.
+     * @param in File holding the runs.
+     * @param bounds Byte offsets of the run boundaries; run r occupies [bounds[r], bounds[r + 1]).
+     * @param first Index of the first run in the group.
+     * @param last Index after the last run in the group.
+     * @param partitions Number of key ranges to split into.
+     * @param queue Queue of the sort's reads in a shared IOScheduler, or null to read unscheduled.
+     * @return Byte offsets cuts[p][r] of the start of range p in run first + r, for p in [0, partitions].
+     * @throws IOException
+     */
+    public static long[][] partition(RandomAccessFile in, long[] bounds, int first, int last, int partitions,
+                                     IOQueue queue) throws IOException {
+        FileChannel channel = in.getChannel();
+        ByteBuffer probe = ByteBuffer.allocateDirect(4);
+        int k = last - first;
+        long total = (bounds[last] - bounds[first]) >> 2;
+
+        // Sample keys evenly across every run.
+        long stride = Math.max(1, total / ((long)partitions * SAMPLES_PER_PARTITION));
+        int[] samples = new int[16];
+        int n = 0;
+        for(int r = first; r < last; r++) {
+            long ints = (bounds[r + 1] - bounds[r]) >> 2;
+            for(long i = stride >> 1; i < ints; i += stride) {
+                if(n == samples.length) samples = Arrays.copyOf(samples, n << 1);
+                samples[n++] = readIntAt(channel, probe, bounds[r] + (i << 2), queue);
+            }
+        }
+        Arrays.sort(samples, 0, n);
+
+        long[][] cuts = new long[partitions + 1][k];
+        for(int r = 0; r < k; r++) {
+            cuts[0][r] = bounds[first + r];
+            cuts[partitions][r] = bounds[first + r + 1];
+        }
+
+        // Cut every run at each splitter. Splitters are non-decreasing so the cuts are too.
+        for(int p = 1; p < partitions; p++) {
+            if(n == 0) {
+                cuts[p] = cuts[partitions].clone();
+                continue;
+            }
+            int splitter = samples[(int)((long)p * n / partitions)];
+            for(int r = 0; r < k; r++) {
+                cuts[p][r] = lowerBound(channel, probe, cuts[p - 1][r], bounds[first + r + 1], splitter, queue);
+            }
+        }
+
+        return cuts;
+    }
+
+
+    /**
+     * Binary search a sorted run in the file for the first item not less than a key.
+     * @param channel File holding the run.
+     * @param probe Buffer of one int to read through.
+     * @param from Byte offset to search from.
+     * @param to Byte offset to search to.
+     * @param key Key to search for.
+     * @param queue Queue to wait in before each read, or null.
+     * @return Byte offset of the first item not less than the key, or to if there is none.
+     * @throws IOException
+     */
+    private static long lowerBound(FileChannel channel, ByteBuffer probe, long from, long to, int key, IOQueue queue)
+            throws IOException {
+        long lo = 0;
+        long hi = (to - from) >> 2;
+        long mid;
+        while(lo < hi) {
+            mid = (lo + hi) >>> 1;
+            if(readIntAt(channel, probe, from + (mid << 2), queue) < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return from + (lo << 2);
+    }
+
+
+    /**
+     * Read a single int from the file with one positional read.
+     * @param channel File to read.
+     * @param probe Buffer of one int to read through.
+     * @param offset Byte offset to read at.
+     * @param queue Queue to wait in for a turn on the disk, or null.
+     * @return The int at that offset.
+     * @throws IOException
+     */
+    private static int readIntAt(FileChannel channel, ByteBuffer probe, long offset, IOQueue queue)
+            throws IOException {
+        if(queue != null) queue.begin();
+        try {
+            BinInfo.readFully(channel, probe, 1, offset);
+        }
+        finally {
+            if(queue != null) queue.end();
+        }
+        return probe.getInt(0);
+    }
+}
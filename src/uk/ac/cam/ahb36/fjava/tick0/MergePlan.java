@@ -0,0 +1,134 @@
+/**
+ * MergePlan.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * Plans the merge passes needed to reduce a number of sorted runs to one without exceeding a maximum fan-in.
+ *
+ * Each pass merges groups of consecutive runs, so a group's output occupies exactly the region of the file its
+ * inputs did and passes can ping-pong between the input file and the auxiliary file.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class MergePlan {
+
+    // region Class Attributes
+
+    private int runs;
+    private int passes;
+    private int fanIn;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param runs Number of sorted runs to start with.
+     * @param maxFanIn Maximum number of runs merged at once.
+     */
+    public MergePlan(int runs, int maxFanIn) {
+        this(runs, maxFanIn, false);
+    }
+
+
+    /**
+     * Constructor, for runs which must go through an odd number of passes to end up in the other file.
+     * @param runs Number of sorted runs to start with.
+     * @param maxFanIn Maximum number of runs merged at once.
+     * @param oddPasses True to force an odd number of passes, adding a pass if required.
+     */
+    public MergePlan(int runs, int maxFanIn, boolean oddPasses) {
+        this.runs = runs;
+        maxFanIn = Math.max(2, maxFanIn);
+
+        // Fewest passes which can reduce the runs to one.
+        long reach = 1;
+        while(reach < runs) {
+            reach *= maxFanIn;
+            this.passes++;
+        }
+
+        // An extra pass lowers the fan-in; a single run is just copied across.
+        if(oddPasses && (this.passes & 1) == 0) this.passes++;
+
+        // Then the smallest fan-in which still does it in that many passes, so groups come out balanced.
+        this.fanIn = balancedFanIn(runs, this.passes);
+    }
+
+
+    /**
+     * Calculate the largest fan-in which leaves each run a buffer of at least the given size.
+     * @param availableMemory Memory available to the merge in bytes.
+     * @param minBufferSize Smallest efficient read buffer in bytes.
+     * @return Maximum fan-in, at least 2.
+     */
+    public static int maxFanIn(long availableMemory, int minBufferSize) {
+        // Matches the merge's buffer sizing, an equal share of availableMemory for every run and the output.
+        long fanIn = availableMemory / minBufferSize - 1;
+        return (int)Math.max(2, Math.min(Integer.MAX_VALUE, fanIn));
+    }
+
+
+    /**
+     * @return Number of merge passes.
+     */
+    public int getPasses() {
+        return this.passes;
+    }
+
+
+    /**
+     * @return Number of runs merged by each group in every pass.
+     */
+    public int getFanIn() {
+        return this.fanIn;
+    }
+
+
+    /**
+     * @param pass Number of passes completed.
+     * @return Number of runs left after that many passes.
+     */
+    public int getRunsAfter(int pass) {
+        long runsLeft = this.runs;
+        for(int i = 0; i < pass; i++) runsLeft = (runsLeft + this.fanIn - 1) / this.fanIn;
+        return (int)runsLeft;
+    }
+
+
+    /**
+     * Smallest f such that f^passes is at least runs.
+     * @param runs Number of runs.
+     * @param passes Number of passes.
+     * @return Balanced fan-in.
+     */
+    private static int balancedFanIn(int runs, int passes) {
+        if(passes == 0) return 1;
+        int f = Math.max(1, (int)Math.floor(Math.pow(runs, 1.0 / passes)));
+        while(power(f, passes) < runs) f++;
+        return f;
+    }
+
+
+    /**
+     * @return base^exponent, saturating at Long.MAX_VALUE.
+     */
+    private static long power(long base, int exponent) {
+        long result = 1;
+        for(int i = 0; i < exponent; i++) {
+            if(result > Long.MAX_VALUE / base) return Long.MAX_VALUE;
+            result *= base;
+        }
+        return result;
+    }
+
+
+    @Override
+    public String toString() {
+        return this.runs + " runs, " + this.passes + " pass(es) of fan-in " + this.fanIn;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * PairBinInfo.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * A BinInfo over a pre-aggregated run of (key, count) pairs of ints, as written by CountOperator.
+ *
+ * The head is the key of the current pair and draining it consumes every pair with that key, returning the sum of
+ * their counts, so a merge reads it just as it would the expanded run.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class PairBinInfo extends BinInfo {
+
+    /**
+     * Constructor.
+     * @param offset Offset of the start of the run in the file, in bytes.
+     * @param length Length of the run, in bytes. A whole number of pairs.
+     * @param input File object.
+     * @param id Identifier of the run.
+     * @param pool Pool to take the buffer from, or null to allocate it.
+     * @throws IOException
+     */
+    public PairBinInfo(long offset, long length, RandomAccessFile input, int id, BufferPool pool) throws IOException {
+        super(offset, length, input, id, pool);
+    }
+
+
+    /**
+     * Take a buffer of a whole number of pairs, so no pair is split between refills.
+     * @param bs Maximum size of the buffer in bytes.
+     * @throws IOException
+     */
+    @Override
+    public void open(int bs) throws IOException {
+        super.open(Math.max(8, bs & ~0x7));
+    }
+
+
+    /**
+     * Consume the head pair.
+     * @throws IOException
+     */
+    @Override
+    public void advance() throws IOException {
+        this.bufferPosition += 2;
+        if(this.bufferPosition >= this.bufferSize) this.refill();
+    }
+
+
+    /**
+     * Consume every pair from the head onwards with the given key.
+     * @param key Key to consume.
+     * @return Total count of the pairs consumed.
+     * @throws IOException
+     */
+    @Override
+    public long drain(int key) throws IOException {
+        long count = 0;
+        while(!this.isEmpty() && this.head() == key) {
+            count += this.buffer.get(this.bufferPosition + 1);
+            this.advance();
+        }
+        return count;
+    }
+}
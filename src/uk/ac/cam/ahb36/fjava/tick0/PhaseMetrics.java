@@ -0,0 +1,213 @@
+/**
+ * PhaseMetrics.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters for one phase of a sort. I/O counters may be updated from any thread.
+ *
+ * Wall time against CPU time, time spent in I/O and time spent in GC shows whether the phase was CPU-bound,
+ * disk-bound or short of memory. A seek is counted for every read or write which doesn't start where the previous
+ * one ended.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class PhaseMetrics {
+
+    // region Class Attributes
+
+    private String name;
+
+    private long startWall, wallNanos;
+    private long startCPU, cpuNanos;
+    private long startGCCount, gcCount;
+    private long startGCMillis, gcMillis;
+
+    private LongAdder bytesRead = new LongAdder();
+    private LongAdder bytesWritten = new LongAdder();
+    private LongAdder seeks = new LongAdder();
+    private LongAdder refills = new LongAdder();
+    private LongAdder ioNanos = new LongAdder();
+
+    private AtomicLong lastEnd = new AtomicLong(-1);
+
+    private List<RunMetrics> runs = Collections.synchronizedList(new ArrayList<>());
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param name Name of the phase.
+     */
+    public PhaseMetrics(String name) {
+        this.name = name;
+    }
+
+
+    /**
+     * Start the clocks.
+     */
+    public void start() {
+        this.startWall = System.nanoTime();
+        this.startCPU = processCPUNanos();
+        this.startGCCount = gcCount();
+        this.startGCMillis = gcMillis();
+    }
+
+
+    /**
+     * Stop the clocks.
+     */
+    public void stop() {
+        this.wallNanos = System.nanoTime() - this.startWall;
+        this.cpuNanos = processCPUNanos() - this.startCPU;
+        this.gcCount = gcCount() - this.startGCCount;
+        this.gcMillis = gcMillis() - this.startGCMillis;
+    }
+
+
+    /**
+     * Record a read from a file.
+     * @param offset Offset read from, in bytes.
+     * @param bytes Number of bytes read.
+     * @param nanos Time taken.
+     */
+    public void recordRead(long offset, long bytes, long nanos) {
+        this.bytesRead.add(bytes);
+        this.recordAccess(offset, bytes, nanos);
+    }
+
+
+    /**
+     * Record a write to a file.
+     * @param offset Offset written at, in bytes.
+     * @param bytes Number of bytes written.
+     * @param nanos Time taken.
+     */
+    public void recordWrite(long offset, long bytes, long nanos) {
+        this.bytesWritten.add(bytes);
+        this.recordAccess(offset, bytes, nanos);
+    }
+
+
+    /**
+     * Record a reader's buffer being refilled.
+     */
+    public void recordRefill() {
+        this.refills.increment();
+    }
+
+
+    /**
+     * Record what a reader did over its run, once it's finished with.
+     * @param run The run's counters.
+     */
+    public void addRun(RunMetrics run) {
+        this.runs.add(run);
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public String getName() { return this.name; }
+    public long getWallNanos() { return this.wallNanos; }
+    public long getCPUNanos() { return this.cpuNanos; }
+    public long getGCCount() { return this.gcCount; }
+    public long getGCMillis() { return this.gcMillis; }
+    public long getBytesRead() { return this.bytesRead.sum(); }
+    public long getBytesWritten() { return this.bytesWritten.sum(); }
+    public long getSeeks() { return this.seeks.sum(); }
+    public long getRefills() { return this.refills.sum(); }
+    public long getIONanos() { return this.ioNanos.sum(); }
+
+
+    /**
+     * @return Reports of every reader used in the phase.
+     */
+    public List<RunMetrics> getRuns() {
+        synchronized(this.runs) {
+            return new ArrayList<>(this.runs);
+        }
+    }
+
+
+    /**
+     * @return Bytes read and written per second of wall time.
+     */
+    public double getThroughput() {
+        if(this.wallNanos == 0) return 0;
+        return (this.getBytesRead() + this.getBytesWritten()) * 1e9 / this.wallNanos;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%-14s %8.1fms wall %8.1fms cpu %8.1fms io %4d gc (%dms) %12d read %12d written "
+                             + "%8d seeks %8d refills %8.1f MB/s",
+                             this.name, this.wallNanos / 1e6, this.cpuNanos / 1e6, this.getIONanos() / 1e6,
+                             this.gcCount, this.gcMillis, this.getBytesRead(), this.getBytesWritten(),
+                             this.getSeeks(), this.getRefills(), this.getThroughput() / 1e6);
+    }
+
+
+    /**
+     * Count time and seeks for a read or write.
+     * @param offset Offset of the access, in bytes.
+     * @param bytes Number of bytes accessed.
+     * @param nanos Time taken.
+     */
+    private void recordAccess(long offset, long bytes, long nanos) {
+        this.ioNanos.add(nanos);
+        if(this.lastEnd.getAndSet(offset + bytes) != offset) this.seeks.increment();
+    }
+
+
+    /**
+     * @return CPU time used by the whole process, or by the current thread if the JVM can't tell.
+     */
+    private static long processCPUNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if(os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+
+
+    /**
+     * @return Collections so far across every garbage collector.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+
+    /**
+     * @return Time spent collecting so far across every garbage collector, in milliseconds.
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * PrefetchingBinInfo.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * A BinInfo which keeps a second buffer filled in the background, so refilling only swaps buffers.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class PrefetchingBinInfo extends BinInfo {
+
+    // region Class Attributes
+
+    private int pendingSize = 0;
+
+    private ByteBuffer spare;
+    private IntBuffer spareInts;
+
+    private Future<Integer> pending;
+
+    private FileChannel channel;
+
+    private ExecutorService ioPool;
+
+    // endregion
+
+
+    /**
+     * Constructor, for a bin whose buffers are allocated on their own.
+     * @param offset Offset of the start of the bin in the file, in bytes.
+     * @param length Length of the bin, in bytes.
+     * @param input File object.
+     * @param id Identifier of the bin.
+     * @param pool Executor to perform the background reads on.
+     * @throws IOException
+     */
+    public PrefetchingBinInfo(long offset, long length, RandomAccessFile input, int id, ExecutorService pool)
+            throws IOException {
+        this(offset, length, input, id, pool, null);
+    }
+
+
+    /**
+     * Constructor.
+     * @param offset Offset of the start of the bin in the file, in bytes.
+     * @param length Length of the bin, in bytes.
+     * @param input File object.
+     * @param id Identifier of the bin.
+     * @param pool Executor to perform the background reads on.
+     * @param buffers Pool to take both buffers from, or null to allocate them.
+     * @throws IOException
+     */
+    public PrefetchingBinInfo(long offset, long length, RandomAccessFile input, int id, ExecutorService pool,
+                              BufferPool buffers) throws IOException {
+        super(offset, length, input, id, buffers);
+        this.channel = input.getChannel();
+        this.ioPool = pool;
+    }
+
+
+    /**
+     * @return Number of items left in the bin, including the head.
+     */
+    @Override
+    public long remaining() {
+        // Items being prefetched are already counted as read from the file.
+        return super.remaining() + this.pendingSize;
+    }
+
+
+    /**
+     * Wait for any read still in flight, then give both buffers back to the pool.
+     */
+    @Override
+    public void close() {
+        try {
+            if(this.pending != null) this.pending.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ee) {
+            // The data is being thrown away anyway.
+        }
+        this.pending = null;
+        this.pendingSize = 0;
+
+        if(this.spare != null && this.pool != null) this.pool.release(this.spare);
+        this.spare = null;
+        this.spareInts = null;
+        super.close();
+    }
+
+
+    /**
+     * Wait for the pending read, make it the current buffer and start prefetching into the other.
+     * @throws IOException
+     */
+    @Override
+    protected void refill() throws IOException {
+        if(this.spare == null) {
+            this.spare = this.allocate(this.bytes.capacity());
+            this.spareInts = this.spare.asIntBuffer();
+            this.prefetch();
+        }
+
+        this.bufferPosition = 0;
+
+        // Check for empty bin.
+        if(this.pending == null) {
+            this.bufferSize = 0;
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            this.bufferSize = this.pending.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
+        }
+
+        this.recordRefill(System.nanoTime() - start);
+
+        ByteBuffer tmp = this.bytes;
+        this.bytes = this.spare;
+        this.spare = tmp;
+
+        IntBuffer tmpInts = this.buffer;
+        this.buffer = this.spareInts;
+        this.spareInts = tmpInts;
+        this.prefetch();
+    }
+
+
+    /**
+     * Start filling the spare buffer with the next section of the bin.
+     */
+    private void prefetch() {
+        final int n = (int)Math.min(this.spare.capacity() >> 2, (this.binLength - this.internalReadOffset) >> 2);
+        this.pendingSize = n;
+        if(n == 0) {
+            this.pending = null;
+            return;
+        }
+
+        final ByteBuffer target = this.spare;
+        final long position = this.binStartOffset + this.internalReadOffset;
+        this.internalReadOffset += (long)n << 2;
+
+        this.pending = this.ioPool.submit(() -> {
+            this.beginIO();
+            long start = System.nanoTime();
+            try {
+                readFully(this.channel, target, n, position);
+            }
+            finally {
+                this.endIO();
+            }
+            this.recordRead(position, (long)n << 2, System.nanoTime() - start);
+            return n;
+        });
+    }
+}
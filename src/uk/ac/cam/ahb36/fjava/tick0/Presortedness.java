@@ -0,0 +1,124 @@
+/**
+ * Presortedness.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * How ordered an input looks from a sample of evenly spaced windows, and the InputShape that suggests.
+ *
+ * Consecutive sampled ints are compared within each window and across the gap to the next, so a file which is only
+ * sorted within stretches shorter than the gaps still shows up as out of order. The shape is only a hint: every fast
+ * path confirms it against the whole file before relying on it.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class Presortedness {
+
+    // region Class Attributes
+
+    // Number of windows sampled, and the number of ints in each.
+    private static final int SAMPLE_WINDOWS = 64;
+    private static final int WINDOW_SIZE_IN_INTS = 1024;
+
+    // Share of unequal sampled pairs which must be in order for the input to count as nearly sorted.
+    private static final double NEARLY_SORTED_THRESHOLD = 0.9;
+
+    // The input counts as having few distinct values if there's at most one per this many samples.
+    private static final int SAMPLES_PER_DISTINCT = 64;
+
+    private long samples = 0;
+    private long ascending = 0;
+    private long descending = 0;
+    private int distinct;
+    private boolean fewDistinct = true;
+
+    private InputShape shape;
+
+    // endregion
+
+
+    /**
+     * Sample a file of ints.
+     * @param file File to sample.
+     * @param numInts Number of ints in the file.
+     * @return The sampled presortedness.
+     * @throws IOException
+     */
+    public static Presortedness sample(RandomAccessFile file, long numInts) throws IOException {
+        Presortedness p = new Presortedness();
+        FileChannel channel = file.getChannel();
+        ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE_IN_INTS << 2);
+        IntBuffer ints = window.asIntBuffer();
+
+        // Small files are read whole, larger ones in windows spread from the start to the end.
+        boolean whole = numInts <= (long) SAMPLE_WINDOWS * WINDOW_SIZE_IN_INTS;
+        int windows = whole ? (int)((numInts + WINDOW_SIZE_IN_INTS - 1) / WINDOW_SIZE_IN_INTS) : SAMPLE_WINDOWS;
+        long maxSamples = Math.min(numInts, (long) windows * WINDOW_SIZE_IN_INTS);
+        Histogram values = new Histogram((int)(maxSamples / SAMPLES_PER_DISTINCT) + 1);
+
+        long start;
+        int n, prev = 0, cur;
+        for(int w = 0; w < windows; w++) {
+            start = whole ? (long) w * WINDOW_SIZE_IN_INTS
+                          : (numInts - WINDOW_SIZE_IN_INTS) * w / (SAMPLE_WINDOWS - 1);
+            n = (int)Math.min(WINDOW_SIZE_IN_INTS, numInts - start);
+            BinInfo.readFully(channel, window, n, start << 2);
+
+            for(int i = 0; i < n; i++) {
+                cur = ints.get(i);
+                if(p.samples++ > 0) {
+                    if(prev < cur) p.ascending++;
+                    else if(prev > cur) p.descending++;
+                }
+                if(p.fewDistinct) p.fewDistinct = values.add(cur, 1);
+                prev = cur;
+            }
+        }
+
+        p.distinct = values.size();
+        p.shape = p.classify();
+        return p;
+    }
+
+
+    /**
+     * Pick the shape the sample suggests, preferring the cheapest fast path.
+     * @return Suggested shape.
+     */
+    private InputShape classify() {
+        if(this.descending == 0) return InputShape.SORTED;
+        if(this.ascending == 0) return InputShape.REVERSED;
+        if(this.fewDistinct) return InputShape.FEW_DISTINCT;
+
+        double inOrder = (double) this.ascending / (this.ascending + this.descending);
+        if(inOrder >= NEARLY_SORTED_THRESHOLD) return InputShape.NEARLY_SORTED;
+        return InputShape.UNSORTED;
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public InputShape getShape() { return this.shape; }
+    public long getSamples() { return this.samples; }
+    public long getAscending() { return this.ascending; }
+    public long getDescending() { return this.descending; }
+    public int getDistinct() { return this.distinct; }
+
+
+    @Override
+    public String toString() {
+        return this.shape + " (" + this.samples + " samples, " + this.ascending + " rising, " + this.descending
+               + " falling, " + (this.fewDistinct ? "" : "over ") + this.distinct
+               + " distinct)";
+    }
+}
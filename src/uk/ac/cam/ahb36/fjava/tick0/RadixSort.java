@@ -0,0 +1,285 @@
+/**
+ * RadixSort.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/**
+ * Radix sorts for 32-bit signed ints, and for 64-bit signed keys carrying an index, one byte per digit.
+ *
+ * The top digit has its sign bit flipped so negative values sort before positive ones.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RadixSort {
+
+    // region Class Attributes
+
+    private static final int RADIX = 256;
+
+    // Arrays smaller than this are sorted on a single thread.
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    // Buckets smaller than this are finished off with an insertion sort.
+    private static final int INSERTION_THRESHOLD = 64;
+
+    // endregion
+
+
+    /**
+     * Parallel LSD radix sort. Each pass histograms and scatters separate chunks of the array in parallel, with each
+     * chunk's share of every bucket laid out in chunk order so the sort stays stable. Passes whose digit is the same
+     * for every item are skipped.
+     * @param a Array to sort.
+     * @param scratch Scratch array, at least as long as a.
+     */
+    public static void sortLSD(int[] a, int[] scratch) {
+        int n = a.length;
+        int chunks = (n < PARALLEL_THRESHOLD) ? 1 : Runtime.getRuntime().availableProcessors();
+        int chunkSize = (n + chunks - 1) / Math.max(1, chunks);
+        int[][] counts = new int[chunks][RADIX];
+
+        int[] src = a;
+        int[] dst = scratch;
+        int[] tmp;
+
+        for(int shift = 0; shift < 32; shift += 8) {
+            final int s = shift;
+            final int[] from = src;
+            final int[] to = dst;
+
+            // Histogram each chunk.
+            range(chunks).forEach(c -> {
+                int[] count = counts[c];
+                Arrays.fill(count, 0);
+                int end = Math.min(n, (c + 1) * chunkSize);
+                for(int i = c * chunkSize; i < end; i++) count[digit(from[i], s)]++;
+            });
+
+            // Skip the pass if every item shares this digit.
+            if(singleBucket(counts, n)) continue;
+
+            // Turn the counts into each chunk's starting offset in each bucket.
+            int offset = 0;
+            int count;
+            for(int d = 0; d < RADIX; d++) {
+                for(int c = 0; c < chunks; c++) {
+                    count = counts[c][d];
+                    counts[c][d] = offset;
+                    offset += count;
+                }
+            }
+
+            // Scatter each chunk.
+            range(chunks).forEach(c -> {
+                int[] next = counts[c];
+                int end = Math.min(n, (c + 1) * chunkSize);
+                for(int i = c * chunkSize; i < end; i++) to[next[digit(from[i], s)]++] = from[i];
+            });
+
+            tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+
+        // An odd number of passes leaves the result in the scratch array.
+        if(src != a) System.arraycopy(src, 0, a, 0, n);
+    }
+
+
+    /**
+     * LSD radix sort of 64-bit keys, moving an index alongside each key. Used to sort records by key, after which the
+     * indexes give the order to write the records in. Passes whose digit is the same for every key are skipped.
+     * @param keys Keys to sort.
+     * @param index Index carried with each key.
+     * @param n Number of keys, from the start of the arrays.
+     * @param keyScratch Scratch array, at least n long.
+     * @param indexScratch Scratch array, at least n long.
+     */
+    public static void sortLSD(long[] keys, int[] index, int n, long[] keyScratch, int[] indexScratch) {
+        if(n < 2) return;
+        int[] count = new int[RADIX];
+
+        long[] src = keys, dst = keyScratch, tmp;
+        int[] srcIndex = index, dstIndex = indexScratch, tmpIndex;
+
+        for(int shift = 0; shift < 64; shift += 8) {
+
+            // Histogram, skipping the pass if every key shares this digit.
+            Arrays.fill(count, 0);
+            for(int i = 0; i < n; i++) count[digit(src[i], shift)]++;
+            if(count[digit(src[0], shift)] == n) continue;
+
+            // Turn the counts into each bucket's starting offset, then scatter.
+            int offset = 0;
+            int c;
+            for(int d = 0; d < RADIX; d++) {
+                c = count[d];
+                count[d] = offset;
+                offset += c;
+            }
+
+            int to;
+            for(int i = 0; i < n; i++) {
+                to = count[digit(src[i], shift)]++;
+                dst[to] = src[i];
+                dstIndex[to] = srcIndex[i];
+            }
+
+            tmp = src;
+            src = dst;
+            dst = tmp;
+            tmpIndex = srcIndex;
+            srcIndex = dstIndex;
+            dstIndex = tmpIndex;
+        }
+
+        // An odd number of passes leaves the result in the scratch arrays.
+        if(src != keys) {
+            System.arraycopy(src, 0, keys, 0, n);
+            System.arraycopy(srcIndex, 0, index, 0, n);
+        }
+    }
+
+
+    /**
+     * In-place MSD radix sort (American flag sort). The top level buckets are sorted in parallel.
+     * @param a Array to sort.
+     */
+    public static void sortInPlace(int[] a) {
+        if(a.length < PARALLEL_THRESHOLD) {
+            americanFlag(a, 0, a.length, 24);
+            return;
+        }
+
+        int[] bounds = partition(a, 0, a.length, 24);
+        IntStream.range(0, RADIX).parallel().forEach(d -> americanFlag(a, bounds[d], bounds[d + 1], 16));
+    }
+
+
+    /**
+     * Recursively sort a section of the array on the given digit and those below it.
+     * @param a Array to sort.
+     * @param lo Start of the section.
+     * @param hi End of the section.
+     * @param shift Shift of the digit to sort on.
+     */
+    private static void americanFlag(int[] a, int lo, int hi, int shift) {
+        if(hi - lo < INSERTION_THRESHOLD) {
+            insertionSort(a, lo, hi);
+            return;
+        }
+
+        int[] bounds = partition(a, lo, hi, shift);
+        if(shift == 0) return;
+        for(int d = 0; d < RADIX; d++) {
+            if(bounds[d + 1] - bounds[d] > 1) americanFlag(a, bounds[d], bounds[d + 1], shift - 8);
+        }
+    }
+
+
+    /**
+     * Permute a section of the array in place so it is grouped by the given digit.
+     * @param a Array to permute.
+     * @param lo Start of the section.
+     * @param hi End of the section.
+     * @param shift Shift of the digit to group by.
+     * @return Start of each bucket, with the end of the section appended.
+     */
+    private static int[] partition(int[] a, int lo, int hi, int shift) {
+        int[] bounds = new int[RADIX + 1];
+        int[] next = new int[RADIX];
+
+        for(int i = lo; i < hi; i++) bounds[digit(a[i], shift) + 1]++;
+        bounds[0] = lo;
+        for(int d = 0; d < RADIX; d++) {
+            bounds[d + 1] += bounds[d];
+            next[d] = bounds[d];
+        }
+
+        // Cycle each misplaced item into its bucket until every bucket is full.
+        int v;
+        int d;
+        int t;
+        for(int b = 0; b < RADIX; b++) {
+            while(next[b] < bounds[b + 1]) {
+                v = a[next[b]];
+                d = digit(v, shift);
+                while(d != b) {
+                    t = a[next[d]];
+                    a[next[d]++] = v;
+                    v = t;
+                    d = digit(v, shift);
+                }
+                a[next[b]++] = v;
+            }
+        }
+
+        return bounds;
+    }
+
+
+    /**
+     * Insertion sort a small section of the array.
+     */
+    private static void insertionSort(int[] a, int lo, int hi) {
+        int v;
+        int j;
+        for(int i = lo + 1; i < hi; i++) {
+            v = a[i];
+            for(j = i - 1; j >= lo && a[j] > v; j--) a[j + 1] = a[j];
+            a[j + 1] = v;
+        }
+    }
+
+
+    /**
+     * @return True if every item across the chunk histograms falls in the same bucket.
+     */
+    private static boolean singleBucket(int[][] counts, int n) {
+        int total;
+        for(int d = 0; d < RADIX; d++) {
+            total = 0;
+            for(int[] count : counts) total += count[d];
+            if(total == n) return true;
+            if(total > 0) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * @return Stream over the chunk indices, in parallel if there's more than one.
+     */
+    private static IntStream range(int chunks) {
+        IntStream range = IntStream.range(0, chunks);
+        return (chunks > 1) ? range.parallel() : range;
+    }
+
+
+    /**
+     * Extract a digit of a value, flipping the sign bit of the top digit.
+     * @param v Value.
+     * @param shift Shift of the digit.
+     * @return Digit in [0, 256).
+     */
+    private static int digit(int v, int shift) {
+        return (shift == 24) ? ((v >>> 24) ^ 0x80) : ((v >>> shift) & 0xFF);
+    }
+
+
+    /**
+     * Extract a digit of a 64-bit value, flipping the sign bit of the top digit.
+     * @param v Value.
+     * @param shift Shift of the digit.
+     * @return Digit, 0 to 255.
+     */
+    private static int digit(long v, int shift) {
+        return (shift == 56) ? ((int)(v >>> 56) ^ 0x80) : ((int)(v >>> shift) & 0xFF);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * RangeFilterChannel.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * A channel over a file of ints which only passes on the ints within a key range, so whatever reads it (such as
+ * StreamingSort) only ever sees the survivors.
+ *
+ * The file is read in chunks with positional reads and is left as it is. Optionally only so many copies of the top
+ * of the range are passed on, which lets a top-K selection cut ties at the K-th value.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RangeFilterChannel implements ReadableByteChannel {
+
+    // region Class Attributes
+
+    private final FileChannel source;
+    private long position;
+    private final long end;
+
+    private final int lo, hi;
+    private long copiesOfHi;
+
+    private final ByteBuffer chunk;
+    private final IntBuffer ints;
+
+    private boolean open = true;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param source File to read.
+     * @param offset Offset to start reading from, in bytes.
+     * @param length Number of bytes to read, a whole number of ints.
+     * @param lo Smallest int to pass on.
+     * @param hi Largest int to pass on.
+     * @param copiesOfHi Most copies of hi to pass on, or Long.MAX_VALUE for all of them.
+     * @param chunkSize Size in bytes of the chunks the file is read in.
+     */
+    public RangeFilterChannel(FileChannel source, long offset, long length, int lo, int hi, long copiesOfHi,
+                              int chunkSize) {
+        this.source = source;
+        this.position = offset;
+        this.end = offset + length;
+        this.lo = lo;
+        this.hi = hi;
+        this.copiesOfHi = copiesOfHi;
+        this.chunk = ByteBuffer.allocateDirect(Math.max(4, chunkSize & ~0x3));
+        this.ints = this.chunk.asIntBuffer();
+        this.ints.limit(0);
+    }
+
+
+    /**
+     * Fill a buffer with the next whole ints in range.
+     * @param dst Buffer to fill.
+     * @return Number of bytes read, or -1 once the file has been read to its end.
+     * @throws IOException
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int x;
+        while(dst.remaining() >= 4) {
+            if(!this.ints.hasRemaining() && !this.refill()) break;
+            x = this.ints.get();
+            if(x < this.lo || x > this.hi) continue;
+            if(x == this.hi && this.copiesOfHi-- <= 0) continue;
+            dst.putInt(x);
+        }
+
+        int n = dst.position() - start;
+        return (n == 0 && !this.ints.hasRemaining() && this.position == this.end) ? -1 : n;
+    }
+
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+
+    /**
+     * Stop reading. The file itself is left open.
+     */
+    @Override
+    public void close() {
+        this.open = false;
+    }
+
+
+    /**
+     * Read the next chunk of the file.
+     * @return False if the file has been read to its end.
+     * @throws IOException
+     */
+    private boolean refill() throws IOException {
+        int n = (int)Math.min(this.chunk.capacity() >> 2, (this.end - this.position) >> 2);
+        if(n == 0) return false;
+
+        BinInfo.readFully(this.source, this.chunk, n, this.position);
+        this.position += (long)n << 2;
+        this.ints.clear();
+        this.ints.limit(n);
+        return true;
+    }
+}
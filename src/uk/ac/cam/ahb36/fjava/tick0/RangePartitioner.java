@@ -0,0 +1,104 @@
+/**
+ * RangePartitioner.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * Splits the range of int keys into partitions of roughly equal population, using splitters chosen from a sample.
+ *
+ * Partition p holds keys k with splitters[p - 1] <= k < splitters[p], so every key in a partition sorts before every
+ * key in the next. Equal keys always land in the same partition, so a single very common key unbalances the split.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RangePartitioner {
+
+    // region Class Attributes
+
+    // Ints sampled for each partition, read in windows spread evenly through the file.
+    private static final int SAMPLES_PER_PARTITION = 1024;
+    private static final int WINDOW_SIZE_IN_INTS = 64;
+
+    private int[] splitters;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param splitters Ascending lower bounds of every partition but the first.
+     */
+    public RangePartitioner(int[] splitters) {
+        this.splitters = splitters;
+    }
+
+
+    /**
+     * Choose splitters from a sample of a file.
+     * @param file File of ints to sample.
+     * @param numInts Number of ints in the file.
+     * @param partitions Number of partitions to split into.
+     * @return The partitioner.
+     * @throws IOException
+     */
+    public static RangePartitioner sample(RandomAccessFile file, long numInts, int partitions) throws IOException {
+        int n = (int)Math.min(numInts, (long) partitions * SAMPLES_PER_PARTITION);
+        int[] sample = new int[n];
+
+        FileChannel channel = file.getChannel();
+        ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE_IN_INTS << 2);
+        IntBuffer ints = window.asIntBuffer();
+
+        // Windows spread from the start of the file to the end; a small file is read whole.
+        int windows = (n + WINDOW_SIZE_IN_INTS - 1) / WINDOW_SIZE_IN_INTS;
+        long start;
+        int k;
+        for(int w = 0, done = 0; w < windows; w++, done += k) {
+            k = Math.min(WINDOW_SIZE_IN_INTS, n - done);
+            start = (windows == 1) ? 0 : (numInts - k) * w / (windows - 1);
+            BinInfo.readFully(channel, window, k, start << 2);
+            ints.clear();
+            ints.get(sample, done, k);
+        }
+
+        // Every partition gets an equal share of the sorted sample.
+        Arrays.sort(sample);
+        int[] splitters = new int[partitions - 1];
+        for(int p = 1; p < partitions; p++) splitters[p - 1] = (n == 0) ? 0 : sample[(int)((long) p * n / partitions)];
+        return new RangePartitioner(splitters);
+    }
+
+
+    /**
+     * @param key Key to place.
+     * @return Index of the partition holding the key.
+     */
+    public int partition(int key) {
+        int lo = 0;
+        int hi = this.splitters.length;
+        int mid;
+        while(lo < hi) {
+            mid = (lo + hi) >>> 1;
+            if(this.splitters[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public int getPartitions() { return this.splitters.length + 1; }
+    public int[] getSplitters() { return this.splitters; }
+}
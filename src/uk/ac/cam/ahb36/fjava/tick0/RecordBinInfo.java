@@ -0,0 +1,155 @@
+/**
+ * RecordBinInfo.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * The record counterpart of BinInfo: retrieves fixed-width records sequentially from a sector of a file, a whole
+ * pooled buffer of records at a time, keeping the key of the head record to hand.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RecordBinInfo {
+
+    // region Class Attributes
+
+    private long binStartOffset;
+    private long binLength;
+    private long internalReadOffset = 0;
+
+    private RecordFormat format;
+    private int recordSize;
+
+    private ByteBuffer buffer;
+    private ByteBuffer view;
+    private int bufferSize = 0;
+    private int bufferPosition = 0;
+
+    private long headKey;
+
+    private FileChannel dataSource;
+
+    private BufferPool pool;
+
+    private PhaseMetrics metrics;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param offset Offset of the start of the bin in the file, in bytes.
+     * @param length Length of the bin, in bytes. A whole number of records.
+     * @param input Channel of the file.
+     * @param format Layout of the records.
+     * @param pool Pool to take the buffer from.
+     */
+    public RecordBinInfo(long offset, long length, FileChannel input, RecordFormat format, BufferPool pool) {
+        this.binStartOffset = offset;
+        this.binLength = length;
+        this.dataSource = input;
+        this.format = format;
+        this.recordSize = format.getRecordSize();
+        this.pool = pool;
+    }
+
+
+    /**
+     * Count this bin's reads in a phase's metrics.
+     * @param phase Metrics of the phase the bin is read in.
+     */
+    public void setMetrics(PhaseMetrics phase) {
+        this.metrics = phase;
+    }
+
+
+    /**
+     * Take the buffer and load the first records of the bin.
+     * @param records Number of records the buffer holds.
+     * @throws IOException
+     */
+    public void open(int records) throws IOException {
+        this.buffer = this.pool.acquire(Math.max(1, records) * this.recordSize);
+        this.view = this.buffer.duplicate();
+        this.refill();
+    }
+
+
+    /**
+     * @return True once every record in the bin has been consumed.
+     */
+    public boolean isEmpty() {
+        return this.bufferPosition >= this.bufferSize;
+    }
+
+
+    /**
+     * @return Key of the head record. Only valid if the bin is not empty.
+     */
+    public long headKey() {
+        return this.headKey;
+    }
+
+
+    /**
+     * Copy the head record to the end of a buffer and consume it.
+     * @param dst Buffer to copy to, with room for the record.
+     * @throws IOException
+     */
+    public void copyHeadAndAdvance(ByteBuffer dst) throws IOException {
+        int at = this.bufferPosition * this.recordSize;
+        this.view.limit(at + this.recordSize).position(at);
+        dst.put(this.view);
+
+        if(++this.bufferPosition >= this.bufferSize) this.refill();
+        else this.headKey = this.format.key(this.buffer, this.bufferPosition * this.recordSize);
+    }
+
+
+    /**
+     * Give the buffer back to the pool.
+     */
+    public void close() {
+        if(this.buffer != null) this.pool.release(this.buffer);
+        this.buffer = null;
+        this.view = null;
+        this.bufferSize = 0;
+        this.bufferPosition = 0;
+    }
+
+
+    /**
+     * Replace the contents of the buffer with the next records in the bin.
+     * @throws IOException
+     */
+    private void refill() throws IOException {
+        this.bufferPosition = 0;
+        long remaining = (this.binLength - this.internalReadOffset) / this.recordSize;
+        this.bufferSize = (int)Math.min(this.buffer.capacity() / this.recordSize, remaining);
+        if(this.bufferSize == 0) return;
+
+        long position = this.binStartOffset + this.internalReadOffset;
+        int bytes = this.bufferSize * this.recordSize;
+        long start = System.nanoTime();
+
+        this.buffer.clear().limit(bytes);
+        while(this.buffer.hasRemaining()) {
+            if(this.dataSource.read(this.buffer, position + this.buffer.position()) < 0) throw new EOFException();
+        }
+
+        if(this.metrics != null) {
+            this.metrics.recordRead(position, bytes, System.nanoTime() - start);
+            this.metrics.recordRefill();
+        }
+        this.internalReadOffset += bytes;
+        this.headKey = this.format.key(this.buffer, 0);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * RecordFormat.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Layout of a file of fixed-width binary records, each sorted by a key at a fixed offset within it.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RecordFormat {
+
+    // region Class Attributes
+
+    private int recordSize;
+    private int keyOffset;
+    private KeyType keyType;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param recordSize Size of each record in bytes.
+     * @param keyOffset Offset of the key within each record, in bytes.
+     * @param keyType Type of the key.
+     * @throws IllegalArgumentException If the key doesn't fit inside the record.
+     */
+    public RecordFormat(int recordSize, int keyOffset, KeyType keyType) {
+        if(recordSize <= 0) throw new IllegalArgumentException("Record size must be positive");
+        if(keyOffset < 0 || keyOffset + keyType.getWidth() > recordSize) {
+            throw new IllegalArgumentException("Key must lie within the record");
+        }
+        this.recordSize = recordSize;
+        this.keyOffset = keyOffset;
+        this.keyType = keyType;
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public int getRecordSize() { return this.recordSize; }
+    public int getKeyOffset() { return this.keyOffset; }
+    public KeyType getKeyType() { return this.keyType; }
+
+
+    /**
+     * Read the key of a record.
+     * @param buffer Buffer holding the record.
+     * @param recordOffset Offset of the start of the record in the buffer.
+     * @return Sortable key, see KeyType.read.
+     */
+    public long key(ByteBuffer buffer, int recordOffset) {
+        return this.keyType.read(buffer, recordOffset + this.keyOffset);
+    }
+
+
+    @Override
+    public String toString() {
+        return this.recordSize + " byte records, " + this.keyType + " key at " + this.keyOffset;
+    }
+}
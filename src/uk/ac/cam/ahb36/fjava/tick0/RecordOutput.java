@@ -0,0 +1,113 @@
+/**
+ * RecordOutput.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * The record counterpart of BufferedFileOutput: buffered sequential writing of whole records to a file.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RecordOutput {
+
+    // region Class Attributes
+
+    private int recordSize;
+
+    private long position;
+
+    private ByteBuffer buffer;
+
+    private FileChannel output;
+
+    private BufferPool pool;
+
+    private PhaseMetrics metrics;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param records Number of records the buffer holds.
+     * @param recordSize Size of each record in bytes.
+     * @param output Channel of the file to write to.
+     * @param offset Offset in bytes to start writing at.
+     * @param pool Pool to take the buffer from.
+     */
+    public RecordOutput(int records, int recordSize, FileChannel output, long offset, BufferPool pool) {
+        this.recordSize = recordSize;
+        this.output = output;
+        this.position = offset;
+        this.pool = pool;
+        this.buffer = pool.acquire(Math.max(1, records) * recordSize);
+    }
+
+
+    /**
+     * Count this output's writes in a phase's metrics.
+     * @param phase Metrics of the phase the output is written in.
+     */
+    public void setMetrics(PhaseMetrics phase) {
+        this.metrics = phase;
+    }
+
+
+    /**
+     * Make room for the next record, flushing if the buffer is full.
+     * @return Buffer to put exactly one record into.
+     * @throws IOException
+     */
+    public ByteBuffer next() throws IOException {
+        if(this.buffer.remaining() < this.recordSize) this.flush();
+        return this.buffer;
+    }
+
+
+    /**
+     * Flush the remaining records to the file and give the buffer back.
+     * @throws IOException
+     */
+    public void finalWrite() throws IOException {
+        try {
+            this.flush();
+        }
+        finally {
+            this.pool.release(this.buffer);
+            this.buffer = null;
+        }
+    }
+
+
+    /**
+     * Offset in the file after the last byte flushed by this instance.
+     * @return Offset in bytes.
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+
+    /**
+     * Write out the buffered records and refresh.
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+        this.buffer.flip();
+        int bytes = this.buffer.remaining();
+        long start = System.nanoTime();
+
+        while(this.buffer.hasRemaining()) this.output.write(this.buffer, this.position + this.buffer.position());
+
+        if(this.metrics != null) this.metrics.recordWrite(this.position, bytes, System.nanoTime() - start);
+        this.position += bytes;
+        this.buffer.clear();
+    }
+}
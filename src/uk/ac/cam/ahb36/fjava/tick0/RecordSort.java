@@ -0,0 +1,261 @@
+/**
+ * RecordSort.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * External sort of a file of fixed-width records by a key within each record, using a single auxiliary file.
+ *
+ * The phases follow ExternalSort. Phase 1 reads each bin of records into memory, radix sorts the keys alongside each
+ * record's index and writes the records out in that order. Phase 2 merges the runs on their keys with a LongLoserTree.
+ * Keys are compared as primitive longs throughout (see KeyType), whatever their type.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RecordSort {
+
+    // region Class Attributes
+
+    // Heap used per record of a bin on top of the record itself: its key and index, and their scratch copies.
+    private static final int SORT_OVERHEAD_PER_RECORD = 24;
+
+    // endregion
+
+
+    /**
+     * Sort a file of records in place.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @param format Layout of the records.
+     * @param config Memory budget to sort within. The I/O mode, run generation, bin sorter and merge threads don't
+     *               apply to records.
+     * @return Report of each phase.
+     * @throws IOException If the file isn't a whole number of records, or on failure to read or write.
+     */
+    public static SortReport sort(String f1, String f2, RecordFormat format, SortConfig config) throws IOException {
+        SortReport report = new SortReport(null);
+        int recordSize = format.getRecordSize();
+
+        try(RandomAccessFile a = new RandomAccessFile(f1, "rw");
+            RandomAccessFile b = new RandomAccessFile(f2, "rw")) {
+
+            long numBytes = a.length();
+            if(numBytes % recordSize != 0) {
+                throw new IOException("File length " + numBytes + " is not a whole number of " + recordSize
+                                      + " byte records");
+            }
+
+            // 0 or 1 records are already implicitly sorted.
+            long numRecords = numBytes / recordSize;
+            if(numRecords < 2) {
+                report.finish(0);
+                return report;
+            }
+
+            // The budget is split as for ints, the heap holding a bin and its keys.
+            int poolSize = SortPlan.poolSize(config.getMemoryBudget());
+            long heap = config.getMemoryBudget() - poolSize;
+            long binRecords = Math.max(1, Math.min(heap / (recordSize + SORT_OVERHEAD_PER_RECORD),
+                                                   SortPlan.MAX_BIN_SIZE_IN_BYTES / recordSize));
+
+            // Spread the records evenly over the fewest bins which fit.
+            long numBins = (numRecords + binRecords - 1) / binRecords;
+            long[] bounds = new long[(int) numBins + 1];
+            for(int i = 0; i <= numBins; i++) bounds[i] = (numRecords * i / numBins) * recordSize;
+
+            int maxFanIn = SortPlan.maxFanIn(config, poolSize);
+            MergePlan plan = new MergePlan((int) numBins, maxFanIn);
+            BufferPool pool = new BufferPool(poolSize);
+
+            FileChannel in = a.getChannel();
+            FileChannel aux = b.getChannel();
+
+
+            // PHASE 1 //
+            // Sort each bin, to the auxiliary file for an odd number of passes and in place for an even number.
+
+            PhaseMetrics phase = report.startPhase("run generation");
+            sortBins(in, ((plan.getPasses() & 1) == 1) ? aux : in, bounds, format, pool, phase);
+            phase.stop();
+            pool.reset();
+
+
+            // PHASE 2 //
+            // Merge groups of runs, ping-ponging between the files.
+
+            // Every run and the output get an equal share of the pool, in whole records.
+            int fanIn = plan.getFanIn();
+            int share = SortPlan.share(poolSize, fanIn + 1);
+            int bufferRecords = Math.max(1, share / recordSize);
+
+            long[] nextBounds;
+            int runs, groups, last;
+
+            for(int pass = 0; pass < plan.getPasses(); pass++) {
+                phase = report.startPhase("merge pass " + (pass + 1));
+
+                boolean fromAux = ((plan.getPasses() - pass) & 1) == 1;
+                FileChannel src = fromAux ? aux : in;
+                FileChannel dst = fromAux ? in : aux;
+
+                runs = bounds.length - 1;
+                groups = (runs + fanIn - 1) / fanIn;
+                nextBounds = new long[groups + 1];
+                nextBounds[groups] = numBytes;
+
+                for(int g = 0; g < groups; g++) {
+                    last = Math.min(runs, (g + 1) * fanIn);
+                    nextBounds[g] = bounds[g * fanIn];
+
+                    List<RecordBinInfo> group = new ArrayList<>();
+                    for(int r = g * fanIn; r < last; r++) {
+                        RecordBinInfo bin = new RecordBinInfo(bounds[r], bounds[r + 1] - bounds[r], src, format, pool);
+                        bin.setMetrics(phase);
+                        group.add(bin);
+                    }
+                    mergeRuns(group, dst, nextBounds[g], bufferRecords, recordSize, pool, phase);
+                }
+
+                bounds = nextBounds;
+                phase.stop();
+            }
+
+            report.finish(pool.getOverflow());
+            return report;
+        }
+    }
+
+
+    /**
+     * Partition the file into bins, sorting each one in memory.
+     * @param in File to read the bins from.
+     * @param target File to write the sorted bins to, at the same offsets they were read from.
+     * @param bounds Byte offsets of the bin boundaries.
+     * @param format Layout of the records.
+     * @param pool Pool to take the I/O buffers from.
+     * @param phase Metrics of the phase.
+     * @throws IOException
+     */
+    private static void sortBins(FileChannel in, FileChannel target, long[] bounds, RecordFormat format,
+                                 BufferPool pool, PhaseMetrics phase) throws IOException {
+        int recordSize = format.getRecordSize();
+        int chunkSize = Math.max(recordSize, SortPlan.ioChunkSize(pool.getCapacity()));
+
+        // Sized for the biggest bin, and reused for every bin.
+        int maxRecords = 0;
+        for(int i = 0; i < bounds.length - 1; i++) {
+            maxRecords = Math.max(maxRecords, (int)((bounds[i + 1] - bounds[i]) / recordSize));
+        }
+        byte[] bin = new byte[maxRecords * recordSize];
+        ByteBuffer records = ByteBuffer.wrap(bin);
+        long[] keys = new long[maxRecords];
+        int[] index = new int[maxRecords];
+        long[] keyScratch = new long[maxRecords];
+        int[] indexScratch = new int[maxRecords];
+
+        for(int i = 0; i < bounds.length - 1; i++) {
+            int length = (int)(bounds[i + 1] - bounds[i]);
+            int n = length / recordSize;
+
+            // 1. Read in the bin through a pooled chunk.
+            readFully(in, bounds[i], bin, length, chunkSize, pool, phase);
+
+            // 2. Sort the keys, carrying each record's index.
+            for(int r = 0; r < n; r++) {
+                keys[r] = format.key(records, r * recordSize);
+                index[r] = r;
+            }
+            RadixSort.sortLSD(keys, index, n, keyScratch, indexScratch);
+
+            // 3. Write the records out in key order.
+            RecordOutput out = new RecordOutput(chunkSize / recordSize, recordSize, target, bounds[i], pool);
+            out.setMetrics(phase);
+            for(int r = 0; r < n; r++) out.next().put(bin, index[r] * recordSize, recordSize);
+            out.finalWrite();
+        }
+    }
+
+
+    /**
+     * Merge sorted runs into a single sorted run.
+     * @param runs Readers over the runs to merge.
+     * @param out File to write the merged run to.
+     * @param offset Offset in bytes to write the merged run at.
+     * @param bufferRecords Number of records buffered for each run and the output.
+     * @param recordSize Size of each record in bytes.
+     * @param pool Pool to take the buffers from.
+     * @param phase Metrics of the phase.
+     * @throws IOException
+     */
+    private static void mergeRuns(List<RecordBinInfo> runs, FileChannel out, long offset, int bufferRecords,
+                                  int recordSize, BufferPool pool, PhaseMetrics phase) throws IOException {
+        LongLoserTree merger = new LongLoserTree(runs.size());
+        RecordOutput output = new RecordOutput(bufferRecords, recordSize, out, offset, pool);
+        output.setMetrics(phase);
+
+        RecordBinInfo bin;
+        for(int r = 0; r < runs.size(); r++) {
+            bin = runs.get(r);
+            bin.open(bufferRecords);
+            if(!bin.isEmpty()) merger.offer(r, bin.headKey());
+        }
+        merger.start();
+
+        // Copy out the head record with the smallest key, replacing it with its run's next key.
+        while(!merger.isEmpty()) {
+            bin = runs.get(merger.minRun());
+            bin.copyHeadAndAdvance(output.next());
+
+            if(bin.isEmpty()) merger.removeMin();
+            else merger.replaceMin(bin.headKey());
+        }
+
+        output.finalWrite();
+        for(RecordBinInfo run : runs) run.close();
+    }
+
+
+    /**
+     * Read a section of a file into a byte array through a pooled chunk.
+     * @param in File to read.
+     * @param offset Offset to read from, in bytes.
+     * @param dst Array to read into, from the start.
+     * @param length Number of bytes to read.
+     * @param chunkSize Size of the chunk to read through.
+     * @param pool Pool to take the chunk from.
+     * @param phase Metrics of the phase.
+     * @throws IOException
+     */
+    private static void readFully(FileChannel in, long offset, byte[] dst, int length, int chunkSize, BufferPool pool,
+                                  PhaseMetrics phase) throws IOException {
+        ByteBuffer chunk = pool.acquire(chunkSize);
+        long start = System.nanoTime();
+        int k;
+        try {
+            for(int done = 0; done < length; done += k) {
+                k = Math.min(length - done, chunkSize);
+                chunk.clear().limit(k);
+                while(chunk.hasRemaining()) {
+                    if(in.read(chunk, offset + done + chunk.position()) < 0) throw new EOFException();
+                }
+                chunk.flip();
+                chunk.get(dst, done, k);
+            }
+        }
+        finally {
+            pool.release(chunk);
+        }
+        phase.recordRead(offset, length, System.nanoTime() - start);
+    }
+}
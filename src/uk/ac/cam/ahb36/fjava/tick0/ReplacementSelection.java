@@ -0,0 +1,147 @@
+/**
+ * ReplacementSelection.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Generates sorted runs by replacement selection over a primitive int min-heap.
+ *
+ * The heap occupies the front of the array. An item smaller than the last one written cannot join the current run,
+ * so it is parked in the slot freed at the end of the heap, and once the heap is empty the parked items become the
+ * heap for the next run. On random input runs average twice the heap capacity, on presorted input they are far longer.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class ReplacementSelection {
+
+    // region Class Attributes
+
+    private int[] heap;
+    private int heapSize = 0;
+    private int filled = 0;
+
+    private long[] runBounds = new long[16];
+    private int runs = 0;
+    private long written = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param capacity Number of ints the heap can hold.
+     */
+    public ReplacementSelection(int capacity) {
+        this.heap = new int[Math.max(1, capacity)];
+    }
+
+
+    /**
+     * Stream every item of the input into sorted runs written consecutively to the output.
+     * @param input Reader over the items to sort, already open.
+     * @param output Output the runs are written to, in order.
+     * @return Byte offsets of the run boundaries relative to the start of the output; run i occupies
+     *         [bounds[i], bounds[i + 1]).
+     * @throws IOException
+     */
+    public long[] generateRuns(BinInfo input, BufferedFileOutput output) throws IOException {
+
+        // Fill the heap.
+        while(this.filled < this.heap.length && !input.isEmpty()) {
+            this.heap[this.filled++] = input.head();
+            input.advance();
+        }
+        this.startRun();
+
+        int last;
+        int x;
+
+        // Steady state: every item written is replaced by the next input item.
+        while(!input.isEmpty()) {
+            if(this.heapSize == 0) this.startRun();
+
+            last = this.heap[0];
+            output.writeInteger(last);
+            this.written++;
+
+            x = input.head();
+            input.advance();
+
+            if(x >= last) {
+                // Still fits in the current run.
+                this.heap[0] = x;
+            }
+            else {
+                // Park it for the next run in the slot freed at the end of the heap.
+                this.heapSize--;
+                this.heap[0] = this.heap[this.heapSize];
+                this.heap[this.heapSize] = x;
+            }
+            this.siftDown(0);
+        }
+
+        // Input exhausted: drain the current run, then the parked items form the final run.
+        int parkedFrom = this.heapSize;
+        while(this.heapSize > 0) {
+            output.writeInteger(this.heap[0]);
+            this.written++;
+            this.heap[0] = this.heap[--this.heapSize];
+            this.siftDown(0);
+        }
+
+        if(parkedFrom < this.filled) {
+            Arrays.sort(this.heap, parkedFrom, this.filled);
+            this.markRun();
+            for(int i = parkedFrom; i < this.filled; i++) output.writeInteger(this.heap[i]);
+            this.written += this.filled - parkedFrom;
+        }
+
+        output.finalWrite();
+        this.markRun();
+        return Arrays.copyOf(this.runBounds, this.runs);
+    }
+
+
+    /**
+     * Turn every item in the array into the heap for a new run.
+     */
+    private void startRun() {
+        if(this.written > 0) this.markRun();
+        else this.runBounds[this.runs++] = 0;
+
+        this.heapSize = this.filled;
+        for(int i = (this.heapSize >> 1) - 1; i >= 0; i--) this.siftDown(i);
+    }
+
+
+    /**
+     * Record a run boundary at the current output position.
+     */
+    private void markRun() {
+        if(this.runs == this.runBounds.length) this.runBounds = Arrays.copyOf(this.runBounds, this.runs << 1);
+        this.runBounds[this.runs++] = this.written << 2;
+    }
+
+
+    /**
+     * Restore the heap property below a position.
+     * @param position Index to sift down from.
+     */
+    private void siftDown(int position) {
+        int x = this.heap[position];
+        int child;
+        while((child = (position << 1) + 1) < this.heapSize) {
+            if(child + 1 < this.heapSize && this.heap[child + 1] < this.heap[child]) child++;
+            if(this.heap[child] >= x) break;
+            this.heap[position] = this.heap[child];
+            position = child;
+        }
+        this.heap[position] = x;
+    }
+}
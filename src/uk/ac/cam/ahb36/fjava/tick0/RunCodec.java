@@ -0,0 +1,143 @@
+/**
+ * RunCodec.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Frame-of-reference encoding of sorted runs.
+ *
+ * A run is cut into blocks of BLOCK_SIZE ints (the last may be shorter). Each block is stored as its first int, one
+ * byte giving a bit width b, then the differences between consecutive ints packed least significant bit first at b
+ * bits each, where b is just wide enough for the largest difference. Differences in a sorted run are never negative,
+ * so they're packed unsigned and a block's length follows from b and the number of ints in it alone.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RunCodec {
+
+    // region Class Attributes
+
+    // Ints per block.
+    public static final int BLOCK_SIZE = 128;
+
+    // Bytes before the packed differences: the first int and the bit width.
+    private static final int HEADER_SIZE = 5;
+
+    // Largest a block can be encoded to, when every difference needs all 32 bits.
+    public static final int MAX_BLOCK_BYTES = HEADER_SIZE + (BLOCK_SIZE - 1) * 4;
+
+    // endregion
+
+
+    /**
+     * Calculate the length of a run once encoded, without encoding it.
+     * @param ints Sorted ints.
+     * @param n Number of ints, from the start of the array.
+     * @return Encoded length in bytes.
+     */
+    public static long encodedLength(int[] ints, int n) {
+        long length = 0;
+        for(int from = 0; from < n; from += BLOCK_SIZE) {
+            int m = Math.min(BLOCK_SIZE, n - from);
+            length += blockLength(m, bitWidth(ints, from, m));
+        }
+        return length;
+    }
+
+
+    /**
+     * Encode a block of a sorted run.
+     * @param src Sorted ints.
+     * @param from Index of the first int in the block.
+     * @param m Number of ints in the block, at most BLOCK_SIZE.
+     * @param dst Buffer to write the block to, with at least MAX_BLOCK_BYTES remaining.
+     */
+    public static void encodeBlock(int[] src, int from, int m, ByteBuffer dst) {
+        int b = bitWidth(src, from, m);
+        dst.putInt(src[from]);
+        dst.put((byte) b);
+        if(b == 0) return;
+
+        long acc = 0;
+        int bits = 0;
+        for(int j = from + 1; j < from + m; j++) {
+            acc |= ((src[j] - src[j - 1]) & 0xFFFFFFFFL) << bits;
+            bits += b;
+            while(bits >= 8) {
+                dst.put((byte) acc);
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if(bits > 0) dst.put((byte) acc);
+    }
+
+
+    /**
+     * Check whether a whole block is waiting in a buffer.
+     * @param src Buffer positioned at the start of a block.
+     * @param m Number of ints in the block.
+     * @return True if the block can be decoded without reading any more.
+     */
+    public static boolean hasBlock(ByteBuffer src, int m) {
+        if(src.remaining() < HEADER_SIZE) return false;
+        int b = src.get(src.position() + 4) & 0xFF;
+        return src.remaining() >= blockLength(m, b);
+    }
+
+
+    /**
+     * Decode a block of a sorted run.
+     * @param src Buffer positioned at the start of a whole block, left positioned after it.
+     * @param m Number of ints in the block.
+     * @param dst Array to decode into.
+     * @param to Index in the array to decode the first int to.
+     */
+    public static void decodeBlock(ByteBuffer src, int m, int[] dst, int to) {
+        int prev = src.getInt();
+        int b = src.get() & 0xFF;
+        dst[to] = prev;
+
+        if(b == 0) {
+            for(int j = 1; j < m; j++) dst[to + j] = prev;
+            return;
+        }
+
+        long mask = (1L << b) - 1;
+        long acc = 0;
+        int bits = 0;
+        for(int j = 1; j < m; j++) {
+            while(bits < b) {
+                acc |= (src.get() & 0xFFL) << bits;
+                bits += 8;
+            }
+            prev += (int)(acc & mask);
+            acc >>>= b;
+            bits -= b;
+            dst[to + j] = prev;
+        }
+    }
+
+
+    /**
+     * @return Number of bits needed for the largest difference in a block.
+     */
+    private static int bitWidth(int[] ints, int from, int m) {
+        int any = 0;
+        for(int j = from + 1; j < from + m; j++) any |= ints[j] - ints[j - 1];
+        return 32 - Integer.numberOfLeadingZeros(any);
+    }
+
+
+    /**
+     * @return Encoded length in bytes of a block of m ints at bit width b.
+     */
+    private static int blockLength(int m, int b) {
+        return HEADER_SIZE + (int)(((long)(m - 1) * b + 7) >> 3);
+    }
+}
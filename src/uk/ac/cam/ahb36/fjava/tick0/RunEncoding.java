@@ -0,0 +1,26 @@
+/**
+ * RunEncoding.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * How the sorted bins Phase 1 writes for merging are laid out on disk.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum RunEncoding {
+
+    /**
+     * Big-endian ints, exactly as they appear in the input.
+     */
+    RAW,
+
+    /**
+     * Blocks of deltas bit-packed to the width of the largest in the block (see RunCodec). Falls back to RAW for any
+     * bin which wouldn't come out smaller.
+     */
+    FRAME_OF_REFERENCE
+}
@@ -0,0 +1,25 @@
+/**
+ * RunGeneration.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * The strategies available for producing sorted runs in Phase 1.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public enum RunGeneration {
+
+    /**
+     * Partition the file into fixed size bins and sort each one in memory.
+     */
+    FIXED_BINS,
+
+    /**
+     * Stream the file through a heap, emitting runs which average twice the heap size.
+     */
+    REPLACEMENT_SELECTION
+}
@@ -0,0 +1,55 @@
+/**
+ * RunMetrics.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * What one BinInfo read over the life of a run.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class RunMetrics {
+
+    // region Class Attributes
+
+    private int runID;
+    private long bytesRead;
+    private long refills;
+    private long ioNanos;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param id Identifier of the run.
+     * @param bytesRead Bytes read from the file.
+     * @param refills Number of times the buffer was refilled.
+     * @param ioNanos Time spent reading, or waiting for a background read, in nanoseconds.
+     */
+    public RunMetrics(int id, long bytesRead, long refills, long ioNanos) {
+        this.runID = id;
+        this.bytesRead = bytesRead;
+        this.refills = refills;
+        this.ioNanos = ioNanos;
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public int getRunID() { return this.runID; }
+    public long getBytesRead() { return this.bytesRead; }
+    public long getRefills() { return this.refills; }
+    public long getIONanos() { return this.ioNanos; }
+
+
+    @Override
+    public String toString() {
+        return "run " + this.runID + ": " + this.bytesRead + " bytes, " + this.refills + " refills, "
+               + (this.ioNanos / 1000000) + "ms I/O";
+    }
+}
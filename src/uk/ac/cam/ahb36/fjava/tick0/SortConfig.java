@@ -0,0 +1,219 @@
+/**
+ * SortConfig.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.Properties;
+
+
+/**
+ * Configuration for a sort: an explicit memory budget plus the strategies to use in each phase.
+ *
+ * Every buffer size, bin size and fan-in is planned from the budget alone (see SortPlan), so the same input and
+ * configuration always produce the same plan.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortConfig {
+
+    // region Class Attributes
+
+    // Smallest budget the planner will accept.
+    public static final long MIN_MEMORY_BUDGET = 1 << 16;
+
+    private long memoryBudget;
+
+    private IOMode ioMode = IOMode.RANDOM_ACCESS;
+    private RunGeneration runGeneration = RunGeneration.FIXED_BINS;
+    private BinSorter binSorter = BinSorter.PARALLEL_SORT;
+    private MergeMode mergeMode = MergeMode.LOSER_TREE;
+    private RunEncoding runEncoding = RunEncoding.RAW;
+
+    private boolean detectPresortedness = true;
+    private boolean resumable = false;
+
+    private int maxFanIn = 0;
+    private int mergeThreads = 1;
+    private int minMergeBufferSize = 1 << 16;
+    private int indexStride = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param memoryBudget Bytes of heap the sort may use for its buffers.
+     */
+    public SortConfig(long memoryBudget) {
+        this.setMemoryBudget(memoryBudget);
+    }
+
+
+    /**
+     * Configuration with a budget taken from a single sample of the free heap, as the original sort did.
+     * @return New configuration.
+     */
+    public static SortConfig fromFreeMemory() {
+        return new SortConfig(Math.max(MIN_MEMORY_BUDGET, Runtime.getRuntime().freeMemory() - 2000));
+    }
+
+
+    /**
+     * Read a configuration back from properties written by toProperties.
+     * @param p Properties to read.
+     * @return New configuration.
+     * @throws IllegalArgumentException If a property is missing or invalid.
+     */
+    public static SortConfig fromProperties(Properties p) {
+        try {
+            SortConfig c = new SortConfig(Long.parseLong(p.getProperty("memoryBudget")));
+            c.setIOMode(IOMode.valueOf(p.getProperty("ioMode")));
+            c.setRunGeneration(RunGeneration.valueOf(p.getProperty("runGeneration")));
+            c.setBinSorter(BinSorter.valueOf(p.getProperty("binSorter")));
+            c.setMergeMode(MergeMode.valueOf(p.getProperty("mergeMode")));
+            c.setRunEncoding(RunEncoding.valueOf(p.getProperty("runEncoding")));
+            c.setDetectPresortedness(Boolean.parseBoolean(p.getProperty("detectPresortedness")));
+            c.setResumable(Boolean.parseBoolean(p.getProperty("resumable")));
+            c.setMaxFanIn(Integer.parseInt(p.getProperty("maxFanIn")));
+            c.setMergeThreads(Integer.parseInt(p.getProperty("mergeThreads")));
+            c.setMinMergeBufferSize(Integer.parseInt(p.getProperty("minMergeBufferSize")));
+            c.setIndexStride(Integer.parseInt(p.getProperty("indexStride")));
+            return c;
+        }
+        catch (NullPointerException npe) {
+            throw new IllegalArgumentException("Incomplete sort configuration", npe);
+        }
+    }
+
+
+    /**
+     * Write the configuration out as properties, to hand to another process.
+     * @param p Properties to write to.
+     */
+    public void toProperties(Properties p) {
+        p.setProperty("memoryBudget", Long.toString(this.memoryBudget));
+        p.setProperty("ioMode", this.ioMode.name());
+        p.setProperty("runGeneration", this.runGeneration.name());
+        p.setProperty("binSorter", this.binSorter.name());
+        p.setProperty("mergeMode", this.mergeMode.name());
+        p.setProperty("runEncoding", this.runEncoding.name());
+        p.setProperty("detectPresortedness", Boolean.toString(this.detectPresortedness));
+        p.setProperty("resumable", Boolean.toString(this.resumable));
+        p.setProperty("maxFanIn", Integer.toString(this.maxFanIn));
+        p.setProperty("mergeThreads", Integer.toString(this.mergeThreads));
+        p.setProperty("minMergeBufferSize", Integer.toString(this.minMergeBufferSize));
+        p.setProperty("indexStride", Integer.toString(this.indexStride));
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public long getMemoryBudget() { return this.memoryBudget; }
+    public IOMode getIOMode() { return this.ioMode; }
+    public RunGeneration getRunGeneration() { return this.runGeneration; }
+    public BinSorter getBinSorter() { return this.binSorter; }
+    public MergeMode getMergeMode() { return this.mergeMode; }
+    public RunEncoding getRunEncoding() { return this.runEncoding; }
+    public boolean getDetectPresortedness() { return this.detectPresortedness; }
+    public boolean getResumable() { return this.resumable; }
+    public int getMaxFanIn() { return this.maxFanIn; }
+    public int getMergeThreads() { return this.mergeThreads; }
+    public int getMinMergeBufferSize() { return this.minMergeBufferSize; }
+    public int getIndexStride() { return this.indexStride; }
+
+
+    /**
+     * Set the memory budget.
+     * @param bytes Bytes of heap the sort may use for its buffers.
+     * @throws IllegalArgumentException If the budget is below MIN_MEMORY_BUDGET.
+     */
+    public void setMemoryBudget(long bytes) {
+        if(bytes < MIN_MEMORY_BUDGET) {
+            throw new IllegalArgumentException("Memory budget must be at least " + MIN_MEMORY_BUDGET + " bytes");
+        }
+        this.memoryBudget = bytes;
+    }
+
+
+    /**
+     * Select the I/O engine used for reading and writing bins.
+     * @param mode I/O engine to use.
+     */
+    public void setIOMode(IOMode mode) { this.ioMode = mode; }
+
+
+    /**
+     * Select how sorted runs are generated in Phase 1.
+     * @param mode Run generation strategy to use.
+     */
+    public void setRunGeneration(RunGeneration mode) { this.runGeneration = mode; }
+
+
+    /**
+     * Select the in-memory sort used on each bin in Phase 1.
+     * @param sorter Bin sorter to use.
+     */
+    public void setBinSorter(BinSorter sorter) { this.binSorter = sorter; }
+
+
+    /**
+     * Select the merge engine used in Phase 2.
+     * @param mode Merge engine to use.
+     */
+    public void setMergeMode(MergeMode mode) { this.mergeMode = mode; }
+
+
+    /**
+     * Select how bins are encoded when Phase 1 writes them out to be merged.
+     * @param encoding Run encoding to use.
+     */
+    public void setRunEncoding(RunEncoding encoding) { this.runEncoding = encoding; }
+
+
+    /**
+     * Choose whether to sample the input before Phase 1 and take a fast path for sorted, reversed, few-valued or
+     * nearly sorted input (see InputShape).
+     * @param detect True to sample the input.
+     */
+    public void setDetectPresortedness(boolean detect) { this.detectPresortedness = detect; }
+
+
+    /**
+     * Choose whether the sort checkpoints its progress to a manifest so that it can be resumed after a crash. The
+     * input is then never overwritten until its runs are safely in the auxiliary file, at the cost of always merging
+     * at least once and giving up the fast paths which rewrite the input in place.
+     * @param resumable True to checkpoint and resume.
+     */
+    public void setResumable(boolean resumable) { this.resumable = resumable; }
+
+
+    /**
+     * Cap the number of runs merged at once in Phase 2.
+     * @param fanIn Maximum fan-in, at least 2, or 0 to derive it from the budget.
+     */
+    public void setMaxFanIn(int fanIn) { this.maxFanIn = fanIn; }
+
+
+    /**
+     * Set the number of threads used to merge each group of runs in Phase 2.
+     * @param threads Number of merge threads, 1 to merge on the calling thread.
+     */
+    public void setMergeThreads(int threads) { this.mergeThreads = Math.max(1, threads); }
+
+
+    /**
+     * Set the smallest read buffer per run worth merging with, which bounds the fan-in derived from the budget.
+     * @param bytes Minimum merge buffer size in bytes.
+     */
+    public void setMinMergeBufferSize(int bytes) { this.minMergeBufferSize = Math.max(4, bytes); }
+
+
+    /**
+     * Have the sort write a sparse index of its output next to it (see SparseIndex), sampled as the output is written.
+     * @param stride Number of ints between samples, or 0 for no index.
+     */
+    public void setIndexStride(int stride) { this.indexStride = Math.max(0, stride); }
+}
@@ -0,0 +1,75 @@
+/**
+ * SortJob.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * A sort submitted to a SortScheduler: the files, the configuration it runs with, and its result once it has run.
+ *
+ * Cancelling the result before the job is admitted stops it from ever starting. Once it has started it runs to the
+ * end, as an external sort interrupted part way through leaves its files in an unspecified state.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortJob {
+
+    // region Class Attributes
+
+    private final String f1, f2;
+
+    private final SortConfig config;
+
+    private final IOQueue ioQueue;
+
+    private final CompletableFuture<SortReport> result = new CompletableFuture<>();
+
+    // endregion
+
+
+    /**
+     * Constructor. Jobs are made by SortScheduler.submit.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @param config Memory budget and strategies to sort with, owned by the job.
+     * @param ioQueue Queue of the job's reads and writes.
+     */
+    SortJob(String f1, String f2, SortConfig config, IOQueue ioQueue) {
+        this.f1 = f1;
+        this.f2 = f2;
+        this.config = config;
+        this.ioQueue = ioQueue;
+    }
+
+
+    /**
+     * Run the sort on the calling thread, completing the result with its report or whatever it threw.
+     */
+    void run() {
+        try {
+            this.result.complete(new ExternalSort(this.f1, this.f2, this.config, this.ioQueue).run());
+        }
+        catch (Throwable t) {
+            this.result.completeExceptionally(t);
+        }
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public String getPath() { return this.f1; }
+    public SortConfig getConfig() { return this.config; }
+    public IOQueue getIOQueue() { return this.ioQueue; }
+    public CompletableFuture<SortReport> getResult() { return this.result; }
+
+
+    @Override
+    public String toString() {
+        return this.ioQueue.toString();
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * SortManifest.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+
+/**
+ * Checkpoint of a resumable sort: the runs Phase 1 has written and how far the merge has got.
+ *
+ * Only work whose output has been forced to disk is ever recorded, and the manifest is replaced atomically, so after a
+ * crash it never claims more than is really there. It holds everything which fixes the layout of the files (the run
+ * boundaries and the maximum fan-in) so a resumed sort follows the same merge plan as the one it takes over from.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortManifest {
+
+    // region Class Attributes
+
+    // Bumped whenever the layout of the manifest changes.
+    private static final int VERSION = 1;
+
+    private File file;
+
+    private long numInts;
+    private int maxFanIn;
+
+    private long[] bounds;
+    private long[] encodedLengths;
+    private int binsDone = 0;
+    private boolean runsComplete = false;
+
+    private int pass = 0;
+    private int groupsDone = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor, for a sort which is just starting.
+     * @param file File to keep the manifest in.
+     * @param numInts Number of ints being sorted.
+     * @param maxFanIn Maximum fan-in of the merge.
+     */
+    public SortManifest(File file, long numInts, int maxFanIn) {
+        this.file = file;
+        this.numInts = numInts;
+        this.maxFanIn = maxFanIn;
+    }
+
+
+    /**
+     * Load the manifest left by an earlier attempt at a sort.
+     * @param file File the manifest is kept in.
+     * @return The manifest, or null if there isn't one.
+     * @throws IOException If the manifest can't be read or isn't one this version wrote.
+     */
+    public static SortManifest load(File file) throws IOException {
+        if(!file.exists()) return null;
+
+        Properties p = new Properties();
+        try(InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        }
+
+        try {
+            if(Integer.parseInt(p.getProperty("version")) != VERSION) {
+                throw new IOException("Unsupported manifest version in " + file);
+            }
+            SortManifest m = new SortManifest(file, Long.parseLong(p.getProperty("numInts")),
+                                              Integer.parseInt(p.getProperty("maxFanIn")));
+            m.bounds = parse(p.getProperty("bounds"));
+            m.encodedLengths = parse(p.getProperty("encodedLengths"));
+            m.binsDone = Integer.parseInt(p.getProperty("binsDone"));
+            m.runsComplete = Boolean.parseBoolean(p.getProperty("runsComplete"));
+            m.pass = Integer.parseInt(p.getProperty("pass"));
+            m.groupsDone = Integer.parseInt(p.getProperty("groupsDone"));
+            return m;
+        }
+        catch (NumberFormatException | NullPointerException e) {
+            throw new IOException("Corrupt manifest " + file, e);
+        }
+    }
+
+
+    /**
+     * Record the bins Phase 1 is about to write.
+     * @param bounds Byte offsets of the bin boundaries.
+     * @param encodedLengths Encoded length of each bin, filled in as they're written, or null if bins aren't encoded.
+     * @throws IOException
+     */
+    public void startBins(long[] bounds, long[] encodedLengths) throws IOException {
+        this.bounds = bounds;
+        this.encodedLengths = encodedLengths;
+        this.save();
+    }
+
+
+    /**
+     * Record that bins have been written and forced to disk.
+     * @param bins Number of bins now written, from the first.
+     * @throws IOException
+     */
+    public void binsDone(int bins) throws IOException {
+        this.binsDone = bins;
+        this.save();
+    }
+
+
+    /**
+     * Record that every run of Phase 1 has been written and forced to disk.
+     * @param runBounds Byte offsets of the run boundaries.
+     * @throws IOException
+     */
+    public void runsComplete(long[] runBounds) throws IOException {
+        this.bounds = runBounds;
+        this.binsDone = runBounds.length - 1;
+        this.runsComplete = true;
+        this.save();
+    }
+
+
+    /**
+     * Record that groups of a merge pass have been written and forced to disk.
+     * @param pass Merge pass, from 0.
+     * @param groups Number of groups now merged in that pass, from the first.
+     * @param total Number of groups in the pass. Once all are done the next pass is recorded instead.
+     * @throws IOException
+     */
+    public void groupsDone(int pass, int groups, int total) throws IOException {
+        this.pass = (groups == total) ? pass + 1 : pass;
+        this.groupsDone = (groups == total) ? 0 : groups;
+        this.save();
+    }
+
+
+    /**
+     * Delete the manifest once the sort is complete.
+     * @throws IOException
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(this.file.toPath());
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public long getNumInts() { return this.numInts; }
+    public int getMaxFanIn() { return this.maxFanIn; }
+    public long[] getBounds() { return this.bounds; }
+    public long[] getEncodedLengths() { return this.encodedLengths; }
+    public int getBinsDone() { return this.binsDone; }
+    public boolean isRunsComplete() { return this.runsComplete; }
+    public int getPass() { return this.pass; }
+    public int getGroupsDone() { return this.groupsDone; }
+
+
+    /**
+     * Write the manifest to a temporary file, force it to disk and move it over the old one in one step.
+     * @throws IOException
+     */
+    private void save() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("version", Integer.toString(VERSION));
+        p.setProperty("numInts", Long.toString(this.numInts));
+        p.setProperty("maxFanIn", Integer.toString(this.maxFanIn));
+        p.setProperty("bounds", format(this.bounds));
+        p.setProperty("encodedLengths", format(this.encodedLengths));
+        p.setProperty("binsDone", Integer.toString(this.binsDone));
+        p.setProperty("runsComplete", Boolean.toString(this.runsComplete));
+        p.setProperty("pass", Integer.toString(this.pass));
+        p.setProperty("groupsDone", Integer.toString(this.groupsDone));
+
+        File tmp = new File(this.file.getPath() + ".tmp");
+        try(FileOutputStream out = new FileOutputStream(tmp)) {
+            p.store(out, "External sort manifest");
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * @return Comma-separated values, or an empty string for null.
+     */
+    private static String format(long[] values) {
+        if(values == null) return "";
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < values.length; i++) {
+            if(i > 0) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * @return The values of a comma-separated list, or null for an empty string.
+     */
+    private static long[] parse(String s) {
+        if(s.isEmpty()) return null;
+        String[] parts = s.split(",");
+        long[] values = new long[parts.length];
+        for(int i = 0; i < parts.length; i++) values[i] = Long.parseLong(parts[i]);
+        return values;
+    }
+}
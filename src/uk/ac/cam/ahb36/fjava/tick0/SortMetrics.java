@@ -0,0 +1,135 @@
+/**
+ * SortMetrics.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Publishes the report of the running sort over JMX, as uk.ac.cam.ahb36.fjava.tick0:type=ExternalSort.
+ *
+ * When several sorts run at once the phase attributes follow the most recently started one still running.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortMetrics implements SortMetricsMXBean {
+
+    // region Class Attributes
+
+    public static final String OBJECT_NAME = "uk.ac.cam.ahb36.fjava.tick0:type=ExternalSort";
+
+    private static final SortMetrics INSTANCE = new SortMetrics();
+
+    private final List<SortReport> running = new ArrayList<>();
+    private volatile SortReport last;
+
+    private volatile long completed = 0;
+
+    // endregion
+
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException jme) {
+            jme.printStackTrace();
+        }
+    }
+
+
+    /**
+     * @return The registered instance.
+     */
+    public static SortMetrics get() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Publish a sort which has just started.
+     * @param report The sort's report.
+     */
+    public synchronized void started(SortReport report) {
+        this.running.add(report);
+    }
+
+
+    /**
+     * Publish a sort which has just finished.
+     * @param report The sort's report.
+     */
+    public synchronized void finished(SortReport report) {
+        this.running.remove(report);
+        this.last = report;
+        this.completed++;
+    }
+
+
+    public long getSortsCompleted() {
+        return this.completed;
+    }
+
+
+    public synchronized int getSortsRunning() {
+        return this.running.size();
+    }
+
+
+    public String getCurrentPhase() {
+        PhaseMetrics phase = this.phase();
+        return (phase == null) ? "" : phase.getName();
+    }
+
+
+    public long getPhaseBytesRead() {
+        PhaseMetrics phase = this.phase();
+        return (phase == null) ? 0 : phase.getBytesRead();
+    }
+
+
+    public long getPhaseBytesWritten() {
+        PhaseMetrics phase = this.phase();
+        return (phase == null) ? 0 : phase.getBytesWritten();
+    }
+
+
+    public long getPhaseSeeks() {
+        PhaseMetrics phase = this.phase();
+        return (phase == null) ? 0 : phase.getSeeks();
+    }
+
+
+    public long getPhaseRefills() {
+        PhaseMetrics phase = this.phase();
+        return (phase == null) ? 0 : phase.getRefills();
+    }
+
+
+    public long getLastSortMillis() {
+        SortReport report = this.last;
+        return (report == null) ? 0 : report.getWallNanos() / 1000000;
+    }
+
+
+    public String getLastReport() {
+        SortReport report = this.last;
+        return (report == null) ? "" : report.toString();
+    }
+
+
+    /**
+     * @return Current phase of the latest running sort, or of the last sort if none are running, or null.
+     */
+    private synchronized PhaseMetrics phase() {
+        SortReport report = this.running.isEmpty() ? this.last : this.running.get(this.running.size() - 1);
+        return (report == null) ? null : report.getCurrentPhase();
+    }
+}
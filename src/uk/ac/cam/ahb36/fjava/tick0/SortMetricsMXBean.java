@@ -0,0 +1,68 @@
+/**
+ * SortMetricsMXBean.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * JMX view of the sort in progress, or the last one to complete.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public interface SortMetricsMXBean {
+
+    /**
+     * @return Number of sorts completed since the JVM started.
+     */
+    long getSortsCompleted();
+
+
+    /**
+     * @return Number of sorts in progress.
+     */
+    int getSortsRunning();
+
+
+    /**
+     * @return Name of the phase in progress or last completed, or an empty string before the first sort.
+     */
+    String getCurrentPhase();
+
+
+    /**
+     * @return Bytes read by the current phase.
+     */
+    long getPhaseBytesRead();
+
+
+    /**
+     * @return Bytes written by the current phase.
+     */
+    long getPhaseBytesWritten();
+
+
+    /**
+     * @return Seeks made by the current phase.
+     */
+    long getPhaseSeeks();
+
+
+    /**
+     * @return Buffer refills made by the current phase.
+     */
+    long getPhaseRefills();
+
+
+    /**
+     * @return Wall time of the last completed sort in milliseconds.
+     */
+    long getLastSortMillis();
+
+
+    /**
+     * @return Full text report of the last completed sort.
+     */
+    String getLastReport();
+}
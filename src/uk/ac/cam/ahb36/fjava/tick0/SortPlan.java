@@ -0,0 +1,343 @@
+/**
+ * SortPlan.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+
+/**
+ * The sizes a sort will run with, planned deterministically from a SortConfig and the length of the input.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortPlan {
+
+    // region Class Attributes
+
+    // Upper bound on a single bin or buffer, kept well clear of the maximum Java array length.
+    public static final int MAX_BIN_SIZE_IN_BYTES = 1 << 30;
+
+    // Inputs of at least this many bytes are partitioned in large-file mode.
+    public static final long LARGE_FILE_THRESHOLD = Integer.MAX_VALUE;
+
+    // In large-file mode bins are whole multiples of a 4KiB page.
+    public static final int PAGE_SIZE_IN_INTS = 1024;
+
+    // Share of memory given to each run or the output when merging. Beyond this the reads aren't any more sequential.
+    public static final int MAX_MERGE_SHARE = 1 << 24;
+
+    // Largest buffer Phase 1 streams a bin through on its way to or from the file.
+    public static final int MAX_IO_CHUNK_SIZE = 1 << 20;
+
+    private SortConfig config;
+    private Presortedness presortedness;
+
+    private long numInts;
+    private long numBins;
+    private int binSizeInBytes;
+    private int binSizeInInts;
+    private int binsInMemory;
+    private int poolSize;
+    private int ioChunkSize;
+    private int leftOver;
+    private boolean largeFile;
+    private boolean radixScratch;
+
+    private int runCapacity;
+    private int runReadBufferSize;
+    private int runWriteBufferSize;
+
+    private long mergeMemory;
+    private int maxFanIn;
+
+    private MergePlan mergePlan;
+
+    // endregion
+
+
+    /**
+     * Constructor, for an input of unknown shape.
+     * @param config Configuration to plan for.
+     * @param numInts Number of ints in the input.
+     */
+    public SortPlan(SortConfig config, long numInts) {
+        this(config, numInts, null);
+    }
+
+
+    /**
+     * Constructor.
+     * @param config Configuration to plan for.
+     * @param numInts Number of ints in the input.
+     * @param presortedness Sample of the input, or null if it wasn't sampled.
+     */
+    public SortPlan(SortConfig config, long numInts, Presortedness presortedness) {
+        this.config = config;
+        this.presortedness = presortedness;
+        this.numInts = numInts;
+        long budget = config.getMemoryBudget();
+        boolean async = config.getIOMode() == IOMode.ASYNC;
+
+        // A quarter of the budget is allocated off-heap up front as the buffer pool. It holds every I/O buffer of both
+        // phases, and on its own is all the memory Phase 2 needs.
+        this.poolSize = poolSize(budget);
+        this.ioChunkSize = ioChunkSize(this.poolSize);
+        long heap = budget - this.poolSize;
+
+        // Phase 1. Bins stream through the pool, so the heap only holds a bin and the sort's workspace of the same
+        // size. In ASYNC mode three bins are in flight at once (one being read, one sorted and one written) as well as
+        // the workspace.
+        this.binsInMemory = async ? 4 : 2;
+        this.binSizeInBytes = (int)Math.max(4, Math.min(heap / this.binsInMemory, MAX_BIN_SIZE_IN_BYTES)) & ~0x3;
+
+        // Calculate the number of bins required and their sizes.
+        // In large-file mode every bin is rounded up to a whole number of pages so each bin (and therefore each
+        // merge read) starts on a page boundary; the remainder goes in the last bin rather than the first.
+        long numBytes = numInts << 2;
+        this.largeFile = numBytes >= LARGE_FILE_THRESHOLD;
+        this.numBins = Math.max(1, (numBytes + this.binSizeInBytes - 1) / this.binSizeInBytes);
+
+        if(this.largeFile) {
+            long pages = (numInts + PAGE_SIZE_IN_INTS - 1) / PAGE_SIZE_IN_INTS;
+            this.binSizeInInts = (int)(((pages + this.numBins - 1) / this.numBins) * PAGE_SIZE_IN_INTS);
+            this.numBins = (numInts + this.binSizeInInts - 1) / this.binSizeInInts;
+            this.leftOver = 0;
+        }
+        else {
+            this.binSizeInInts = (int)(numInts / this.numBins);
+            this.leftOver = (int)(numInts % this.numBins);
+        }
+
+        // The LSD radix sort's scratch array takes the place of the workspace, as long as the biggest bin (the first)
+        // hasn't been rounded up past the bin budget.
+        long maxBin = Math.min(((long)this.binSizeInInts + this.leftOver) << 2, numBytes);
+        this.radixScratch = config.getBinSorter() == BinSorter.RADIX && heap >= this.binsInMemory * maxBin;
+
+        // Replacement selection gives the heap half the rest of the budget. Its input and output buffers share the
+        // pool, with two of each in ASYNC mode.
+        this.runCapacity = (int)Math.min(heap >> 3, MAX_BIN_SIZE_IN_BYTES >> 2);
+        this.runReadBufferSize = align(Math.min(this.poolSize >> 2, MAX_MERGE_SHARE));
+        this.runWriteBufferSize = this.runReadBufferSize >> 2;
+
+        // Phase 2. In ASYNC mode every reader and the output hold two buffers, and each merge thread needs its own set.
+        this.mergeMemory = (async ? this.poolSize >> 1 : this.poolSize) / config.getMergeThreads();
+        this.maxFanIn = maxFanIn(config, this.mergeMemory);
+
+        // Fixed bins go through the fewest passes, or an odd number when resumable so they're never sorted in place.
+        // Replacement selection only knows its runs once they're generated.
+        if(!this.usesReplacementSelection()) {
+            this.mergePlan = new MergePlan((int) this.numBins, this.maxFanIn, config.getResumable());
+        }
+    }
+
+
+    /**
+     * Size of the buffer pool for a budget: a quarter of it, allocated off-heap up front. The same split applies to
+     * every sort and merge, whether of files, streams or records.
+     * @param budget Memory budget in bytes.
+     * @return Pool size in bytes.
+     */
+    public static int poolSize(long budget) {
+        return (int)Math.min(budget >> 2, MAX_BIN_SIZE_IN_BYTES);
+    }
+
+
+    /**
+     * @param poolSize Size of the buffer pool in bytes.
+     * @return Size in bytes of the chunks an input is streamed through, two of which fit in the pool.
+     */
+    public static int ioChunkSize(int poolSize) {
+        return align(Math.min(MAX_IO_CHUNK_SIZE, poolSize >> 1));
+    }
+
+
+    /**
+     * Largest bin of ints which is sorted in memory with Arrays.parallelSort, from the heap left after the pool. The
+     * heap holds the bin and the copy the sort makes of it.
+     * @param budget Memory budget in bytes.
+     * @return Bin size in ints.
+     */
+    public static int maxBinInts(long budget) {
+        return (int)Math.max(1, Math.min((budget - poolSize(budget)) >> 3, MAX_BIN_SIZE_IN_BYTES >> 2));
+    }
+
+
+    /**
+     * @param config Configuration to plan for.
+     * @param mergeMemory Memory in bytes shared by the buffers of one merge.
+     * @return The configured maximum fan-in, or else the most runs which can be merged at once in the memory.
+     */
+    public static int maxFanIn(SortConfig config, long mergeMemory) {
+        return (config.getMaxFanIn() > 0) ? config.getMaxFanIn()
+                                          : MergePlan.maxFanIn(mergeMemory, config.getMinMergeBufferSize());
+    }
+
+
+    /**
+     * @param memory Memory in bytes to share.
+     * @param buffers Number of buffers to share it between.
+     * @return Size in bytes of an equal, aligned share, so the buffers pack into the memory exactly.
+     */
+    public static int share(long memory, int buffers) {
+        return align(memory / buffers);
+    }
+
+
+    /**
+     * Replacement selection is used when configured, or when the input looks nearly sorted since its runs then follow
+     * the input's own.
+     * @return True if Phase 1 generates runs by replacement selection rather than fixed bins.
+     */
+    public boolean usesReplacementSelection() {
+        boolean selected = this.config.getRunGeneration() == RunGeneration.REPLACEMENT_SELECTION
+                           || this.getShape() == InputShape.NEARLY_SORTED;
+        return selected && this.numBins > 1;
+    }
+
+
+    /**
+     * @return Shape of the input as sampled, UNSORTED if it wasn't.
+     */
+    public InputShape getShape() {
+        return (this.presortedness != null) ? this.presortedness.getShape() : InputShape.UNSORTED;
+    }
+
+
+    /**
+     * Only sorted bins which go on to be merged are encoded, and only by the sequential merge, since splitting a group
+     * into key ranges needs to read keys at arbitrary offsets.
+     * @return True if Phase 1 writes its bins with RunCodec.
+     */
+    public boolean usesRunEncoding() {
+        return this.config.getRunEncoding() == RunEncoding.FRAME_OF_REFERENCE && !this.usesReplacementSelection()
+               && this.mergePlan.getPasses() > 0 && this.config.getMergeThreads() == 1;
+    }
+
+
+    /**
+     * Calculate where each bin starts and ends in the file.
+     * @return Byte offsets of the bin boundaries; bin i occupies [bounds[i], bounds[i + 1]).
+     */
+    public long[] binBounds() {
+        long[] bounds = new long[(int) this.numBins + 1];
+        long standardBinLength = (long)this.binSizeInInts << 2;
+
+        // Include the extra ints in the first bin, the last bin may be short in large-file mode.
+        for(int i = 1; i < this.numBins; i++) bounds[i] = (this.leftOver << 2) + (i * standardBinLength);
+        bounds[(int) this.numBins] = this.numInts << 2;
+        return bounds;
+    }
+
+
+    /**
+     * Size of each run's read buffer when merging a group of runs.
+     * Every run and the output get an equal share of the merge memory.
+     * @param fanIn Number of runs being merged.
+     * @return Read buffer size in bytes.
+     */
+    public int mergeReadBufferSize(int fanIn) {
+        return (int)Math.max(4, this.mergeShare(fanIn)) & ~0x3;
+    }
+
+
+    /**
+     * Size of the output buffer when merging a group of runs.
+     * @param fanIn Number of runs being merged.
+     * @return Write buffer size in ints.
+     */
+    public int mergeWriteBufferSize(int fanIn) {
+        return (int)Math.max(1, this.mergeShare(fanIn) >> 2);
+    }
+
+
+    /**
+     * @param fanIn Number of runs being merged.
+     * @return Bytes of merge memory for each run and the output.
+     */
+    private long mergeShare(int fanIn) {
+        return align(Math.min(this.mergeMemory / (fanIn + 1L), MAX_MERGE_SHARE));
+    }
+
+
+    /**
+     * Round a buffer size down to a whole number of the pool's alignment, so buffers pack into it exactly.
+     * @param bytes Buffer size in bytes.
+     * @return Aligned size, at least one int.
+     */
+    private static int align(long bytes) {
+        long aligned = bytes & -BufferPool.ALIGNMENT;
+        return (int)((aligned > 0) ? aligned : Math.max(4, bytes & ~0x3));
+    }
+
+
+    /**
+     * Record the merge plan once the number of runs is known.
+     * @param plan Merge plan.
+     */
+    public void setMergePlan(MergePlan plan) {
+        this.mergePlan = plan;
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public SortConfig getConfig() { return this.config; }
+    public Presortedness getPresortedness() { return this.presortedness; }
+    public long getNumInts() { return this.numInts; }
+    public long getNumBins() { return this.numBins; }
+    public int getBinSizeInBytes() { return this.binSizeInBytes; }
+    public int getBinSizeInInts() { return this.binSizeInInts; }
+    public int getBinsInMemory() { return this.binsInMemory; }
+    public int getPoolSize() { return this.poolSize; }
+    public int getIOChunkSize() { return this.ioChunkSize; }
+    public int getLeftOver() { return this.leftOver; }
+    public boolean isLargeFile() { return this.largeFile; }
+    public boolean hasRadixScratch() { return this.radixScratch; }
+    public int getRunCapacity() { return this.runCapacity; }
+    public int getRunReadBufferSize() { return this.runReadBufferSize; }
+    public int getRunWriteBufferSize() { return this.runWriteBufferSize; }
+    public int getMaxFanIn() { return this.maxFanIn; }
+    public MergePlan getMergePlan() { return this.mergePlan; }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Memory budget:  ").append(this.config.getMemoryBudget()).append('\n');
+        sb.append("Num. ints:      ").append(this.numInts).append('\n');
+        sb.append("I/O mode:       ").append(this.config.getIOMode()).append('\n');
+        sb.append("Large file:     ").append(this.largeFile).append('\n');
+        if(this.presortedness != null) sb.append("Input shape:    ").append(this.presortedness).append('\n');
+        sb.append("Buffer pool:    ").append(this.poolSize).append('\n');
+
+        if(this.usesReplacementSelection()) {
+            long runInts = 2L * this.runCapacity;
+            sb.append("Run generation: replacement selection, heap of ").append(this.runCapacity).append(" ints\n");
+            sb.append("Est. runs:      ").append((this.numInts + runInts - 1) / runInts).append('\n');
+            sb.append("Run buffers:    ").append(this.runReadBufferSize).append(" bytes in, ")
+              .append(this.runWriteBufferSize).append(" ints out\n");
+        }
+        else {
+            sb.append("Num. bins:      ").append(this.numBins).append('\n');
+            sb.append("Bin size:       ").append(this.binSizeInInts).append('\n');
+            sb.append("Left over:      ").append(this.leftOver).append('\n');
+            sb.append("Bin Size Bytes: ").append(this.binSizeInBytes).append('\n');
+            sb.append("Bin sorter:     ").append(this.config.getBinSorter())
+              .append(this.radixScratch ? " (LSD)" : "").append('\n');
+            sb.append("Run encoding:   ").append(this.usesRunEncoding() ? RunEncoding.FRAME_OF_REFERENCE
+                                                                       : RunEncoding.RAW).append('\n');
+        }
+
+        sb.append("Max fan-in:     ").append(this.maxFanIn).append('\n');
+        sb.append("Merge threads:  ").append(this.config.getMergeThreads()).append('\n');
+        if(this.mergePlan != null) {
+            sb.append("Merge plan:     ").append(this.mergePlan).append('\n');
+            int fanIn = this.mergePlan.getFanIn();
+            sb.append("Merge buffers:  ").append(this.mergeReadBufferSize(fanIn)).append(" bytes in, ")
+              .append(this.mergeWriteBufferSize(fanIn)).append(" ints out\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * SortReport.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Structured report of a sort: the plan it ran with and the metrics of each phase.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortReport {
+
+    // region Class Attributes
+
+    private SortPlan plan;
+
+    private List<PhaseMetrics> phases = new ArrayList<>();
+
+    private long startWall;
+    private long wallNanos;
+    private long poolOverflow;
+
+    // endregion
+
+
+    /**
+     * Constructor, starting the clock.
+     * @param plan Plan the sort runs with, or null if there was nothing to sort.
+     */
+    public SortReport(SortPlan plan) {
+        this.plan = plan;
+        this.startWall = System.nanoTime();
+    }
+
+
+    /**
+     * Begin the next phase.
+     * @param name Name of the phase.
+     * @return The phase's metrics, already started.
+     */
+    public synchronized PhaseMetrics startPhase(String name) {
+        PhaseMetrics phase = new PhaseMetrics(name);
+        phase.start();
+        this.phases.add(phase);
+        return phase;
+    }
+
+
+    /**
+     * Stop the clock once the sort is complete.
+     * @param poolOverflow Bytes the buffer pool had to allocate outside its slab.
+     */
+    public void finish(long poolOverflow) {
+        this.wallNanos = System.nanoTime() - this.startWall;
+        this.poolOverflow = poolOverflow;
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public SortPlan getPlan() { return this.plan; }
+    public long getWallNanos() { return this.wallNanos; }
+    public long getPoolOverflow() { return this.poolOverflow; }
+
+
+    /**
+     * @return Metrics of every phase so far, in order.
+     */
+    public synchronized List<PhaseMetrics> getPhases() {
+        return new ArrayList<>(this.phases);
+    }
+
+
+    /**
+     * @return The phase in progress or last completed, or null before the first.
+     */
+    public synchronized PhaseMetrics getCurrentPhase() {
+        return this.phases.isEmpty() ? null : this.phases.get(this.phases.size() - 1);
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if(this.plan != null) sb.append(this.plan);
+        sb.append(String.format("Total:          %.1fms, pool overflow %d bytes%n", this.wallNanos / 1e6,
+                                this.poolOverflow));
+
+        for(PhaseMetrics phase : this.getPhases()) {
+            sb.append(phase).append(System.lineSeparator());
+
+            // The slowest reader of each phase shows whether one run was holding the merge up.
+            RunMetrics slowest = null;
+            for(RunMetrics run : phase.getRuns()) {
+                if(slowest == null || run.getIONanos() > slowest.getIONanos()) slowest = run;
+            }
+            if(slowest != null) {
+                sb.append("    ").append(phase.getRuns().size()).append(" runs, slowest ").append(slowest)
+                  .append(System.lineSeparator());
+            }
+        }
+        return sb.toString();
+    }
+}
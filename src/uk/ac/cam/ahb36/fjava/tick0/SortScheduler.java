@@ -0,0 +1,173 @@
+/**
+ * SortScheduler.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Runs many sorts at once in one process, within a global memory budget and with the disk shared fairly between them.
+ *
+ * Each job reserves its own memory budget from the global one for as long as it runs, and sorts strictly within it
+ * (see SortPlan), so running jobs never compete for each other's buffers. Jobs are admitted in the order they were
+ * submitted: the job at the head of the queue starts once there's a free job slot and enough of the global budget
+ * left for it, and jobs behind it wait their turn, so a big job can't be starved by a stream of small ones. Every
+ * running job's reads and writes are queued fairly on one IOScheduler.
+ *
+ * The global budget should leave the JVM headroom over the sum of the jobs' budgets, as for a single sort.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortScheduler {
+
+    // region Class Attributes
+
+    private final long memoryBudget;
+    private final int maxJobs;
+
+    private final IOScheduler ioScheduler;
+
+    private final ExecutorService workers;
+
+    // Jobs submitted but not yet admitted, in submission order.
+    private final ArrayDeque<SortJob> waiting = new ArrayDeque<>();
+
+    private long memoryInUse = 0;
+    private int running = 0;
+    private long submitted = 0;
+    private boolean shutdown = false;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param memoryBudget Bytes of memory shared by every running job.
+     * @param maxJobs Most jobs to run at once.
+     * @param maxConcurrentIO Most reads and writes to run at once, across every job.
+     */
+    public SortScheduler(long memoryBudget, int maxJobs, int maxConcurrentIO) {
+        if(maxJobs < 1) throw new IllegalArgumentException("Need at least one job slot");
+        if(memoryBudget < SortConfig.MIN_MEMORY_BUDGET) {
+            throw new IllegalArgumentException("Memory budget must be at least " + SortConfig.MIN_MEMORY_BUDGET);
+        }
+        this.memoryBudget = memoryBudget;
+        this.maxJobs = maxJobs;
+        this.ioScheduler = new IOScheduler(maxConcurrentIO);
+        this.workers = Executors.newFixedThreadPool(maxJobs, r -> {
+            Thread t = new Thread(r, "sort-scheduler-job");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    /**
+     * Queue a sort with an equal share of the global budget per job slot and the default strategies.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @return The queued job.
+     */
+    public SortJob submit(String f1, String f2) {
+        return this.submit(f1, f2, new SortConfig(Math.max(SortConfig.MIN_MEMORY_BUDGET,
+                                                           this.memoryBudget / this.maxJobs)));
+    }
+
+
+    /**
+     * Queue a sort. The configuration is copied, so changing it afterwards doesn't affect the job.
+     * @param f1 Path to the file to be sorted. Result stored in this file.
+     * @param f2 Path of auxiliary file that can be used for partitioning.
+     * @param config Memory budget and strategies to sort with. The budget is reserved while the job runs.
+     * @return The queued job.
+     * @throws IllegalArgumentException If the job's budget is more than the global budget, so it could never run.
+     * @throws IllegalStateException If the scheduler has been shut down.
+     */
+    public synchronized SortJob submit(String f1, String f2, SortConfig config) {
+        if(this.shutdown) throw new IllegalStateException("Scheduler has been shut down");
+        if(config.getMemoryBudget() > this.memoryBudget) {
+            throw new IllegalArgumentException("Job budget " + config.getMemoryBudget()
+                                               + " is more than the global budget " + this.memoryBudget);
+        }
+
+        Properties copy = new Properties();
+        config.toProperties(copy);
+        IOQueue queue = this.ioScheduler.newQueue("sort-" + (++this.submitted) + " " + f1);
+
+        SortJob job = new SortJob(f1, f2, SortConfig.fromProperties(copy), queue);
+        this.waiting.addLast(job);
+        this.admit();
+        return job;
+    }
+
+
+    /**
+     * Stop accepting jobs. Jobs already submitted still run, after which the job threads exit.
+     */
+    public synchronized void shutdown() {
+        this.shutdown = true;
+        if(this.running == 0 && this.waiting.isEmpty()) this.workers.shutdown();
+    }
+
+
+    /**
+     * Start waiting jobs from the head of the queue for as long as each one fits.
+     */
+    private synchronized void admit() {
+        SortJob job;
+        while((job = this.waiting.peekFirst()) != null) {
+
+            // A job cancelled while waiting is dropped without running.
+            if(job.getResult().isDone()) {
+                this.waiting.pollFirst();
+                continue;
+            }
+
+            long budget = job.getConfig().getMemoryBudget();
+            if(this.running >= this.maxJobs || this.memoryInUse + budget > this.memoryBudget) return;
+
+            this.waiting.pollFirst();
+            this.running++;
+            this.memoryInUse += budget;
+
+            final SortJob admitted = job;
+            this.workers.execute(() -> {
+                try {
+                    admitted.run();
+                }
+                finally {
+                    this.finished(admitted);
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Give a finished job's memory and slot back and admit whatever now fits.
+     * @param job Job which has finished.
+     */
+    private synchronized void finished(SortJob job) {
+        this.running--;
+        this.memoryInUse -= job.getConfig().getMemoryBudget();
+        this.admit();
+        if(this.shutdown && this.running == 0 && this.waiting.isEmpty()) this.workers.shutdown();
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public long getMemoryBudget() { return this.memoryBudget; }
+    public int getMaxJobs() { return this.maxJobs; }
+    public IOScheduler getIOScheduler() { return this.ioScheduler; }
+    public synchronized long getMemoryInUse() { return this.memoryInUse; }
+    public synchronized int getRunning() { return this.running; }
+    public synchronized int getWaiting() { return this.waiting.size(); }
+}
@@ -0,0 +1,221 @@
+/**
+ * SortedFileReader.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Queries over a sorted file of ints through its SparseIndex.
+ *
+ * The index, held in memory, narrows any key down to a single block of stride ints, so a rank or point lookup costs
+ * one block read and a range scan one read per block it covers, rather than a binary search's log N seeks over the
+ * file. Blocks can also be kept in an LRU BlockCache for repeated queries.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortedFileReader implements Closeable {
+
+    // region Class Attributes
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private final SparseIndex index;
+
+    private final BlockCache cache;
+
+    private final ByteBuffer buffer;
+
+    // The block read last, kept even without a cache since lookups often read the same block twice.
+    private long lastBlock = -1;
+    private int[] lastInts;
+
+    private long blockReads = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor, without a block cache.
+     * @param f1 Path to the sorted file, with its index alongside.
+     * @throws IOException If the index is missing or doesn't match the file.
+     */
+    public SortedFileReader(String f1) throws IOException {
+        this(f1, 0);
+    }
+
+
+    /**
+     * Constructor.
+     * @param f1 Path to the sorted file, with its index alongside.
+     * @param cacheBlocks Most blocks to cache, or 0 for no cache.
+     * @throws IOException If the index is missing or doesn't match the file.
+     */
+    public SortedFileReader(String f1, int cacheBlocks) throws IOException {
+        this.index = SparseIndex.load(new File(f1 + SparseIndex.SUFFIX));
+        this.cache = (cacheBlocks > 0) ? new BlockCache(cacheBlocks) : null;
+        this.file = new RandomAccessFile(f1, "r");
+        this.channel = this.file.getChannel();
+
+        if(this.file.length() >> 2 != this.index.getNumInts()) {
+            this.file.close();
+            throw new IOException("Index of " + f1 + " is for " + this.index.getNumInts() + " ints, not "
+                                  + (this.file.length() >> 2));
+        }
+        this.buffer = ByteBuffer.allocateDirect((int)Math.min((long)this.index.getStride() << 2,
+                                                              Math.max(4, this.index.getNumInts() << 2)));
+    }
+
+
+    /**
+     * @return Number of ints in the file.
+     */
+    public long size() {
+        return this.index.getNumInts();
+    }
+
+
+    /**
+     * @param position Position in the file, in ints.
+     * @return The int at that position.
+     * @throws IOException
+     */
+    public int get(long position) throws IOException {
+        if(position < 0 || position >= this.size()) throw new IndexOutOfBoundsException("Position " + position);
+        int stride = this.index.getStride();
+        return this.block(position / stride)[(int)(position % stride)];
+    }
+
+
+    /**
+     * Count the ints less than a key, which is also the position of the key's first copy if it's in the file.
+     * @param key Key to rank.
+     * @return Number of ints less than the key.
+     * @throws IOException
+     */
+    public long rank(int key) throws IOException {
+        // Every int before the last sample less than the key is less than it, and every int from the next sample on
+        // isn't, so the answer is in that sample's block.
+        int sample = this.index.floorSample(key);
+        if(sample < 0) return 0;
+
+        int[] block = this.block(sample);
+        return (long)sample * this.index.getStride() + lowerBound(block, key);
+    }
+
+
+    /**
+     * @param key Key to count.
+     * @return Number of copies of the key in the file.
+     * @throws IOException
+     */
+    public long count(int key) throws IOException {
+        return this.rankAfter(key) - this.rank(key);
+    }
+
+
+    /**
+     * @param key Key to look up.
+     * @return Position of the first copy of the key in the file, or -1 if it isn't there.
+     * @throws IOException
+     */
+    public long find(int key) throws IOException {
+        long position = this.rank(key);
+        return (position < this.size() && this.get(position) == key) ? position : -1;
+    }
+
+
+    /**
+     * Iterate over the ints within a key range, in order.
+     * @param lo Smallest int to include.
+     * @param hi Largest int to include.
+     * @return Iterator over the range.
+     * @throws IOException
+     */
+    public IntIterator scan(int lo, int hi) throws IOException {
+        long from = this.rank(lo);
+        long to = Math.max(from, this.rankAfter(hi));
+        return new SortedRangeIterator(this, from, to);
+    }
+
+
+    /**
+     * Read a block of the file, from the cache if it's there.
+     * @param block Index of the block, each of stride ints.
+     * @return The block's ints. Shorter than the stride for the last block of the file.
+     * @throws IOException
+     */
+    public synchronized int[] block(long block) throws IOException {
+        if(block == this.lastBlock) return this.lastInts;
+
+        int[] ints = (this.cache != null) ? this.cache.get(block) : null;
+        if(ints == null) {
+            long start = block * this.index.getStride();
+            int n = (int)Math.min(this.index.getStride(), this.size() - start);
+            ints = new int[n];
+            BinInfo.readFully(this.channel, this.buffer, n, start << 2);
+            this.buffer.clear();
+            this.buffer.asIntBuffer().get(ints);
+            this.blockReads++;
+            if(this.cache != null) this.cache.put(block, ints);
+        }
+
+        this.lastBlock = block;
+        this.lastInts = ints;
+        return ints;
+    }
+
+
+    /**
+     * Close the file.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public SparseIndex getIndex() { return this.index; }
+    public BlockCache getCache() { return this.cache; }
+    public synchronized long getBlockReads() { return this.blockReads; }
+
+
+    /**
+     * @param key Key to rank.
+     * @return Number of ints no greater than the key.
+     * @throws IOException
+     */
+    private long rankAfter(int key) throws IOException {
+        return (key == Integer.MAX_VALUE) ? this.size() : this.rank(key + 1);
+    }
+
+
+    /**
+     * @param block Sorted ints.
+     * @param key Key to search for.
+     * @return Index of the first int not less than the key, or the length of the block if there is none.
+     */
+    private static int lowerBound(int[] block, int key) {
+        int lo = 0, hi = block.length;
+        int mid;
+        while(lo < hi) {
+            mid = (lo + hi) >>> 1;
+            if(block[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
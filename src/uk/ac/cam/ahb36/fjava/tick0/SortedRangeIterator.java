@@ -0,0 +1,73 @@
+/**
+ * SortedRangeIterator.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Iterator over a range of positions of a sorted file, reading it a block at a time through a SortedFileReader.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SortedRangeIterator implements IntIterator {
+
+    // region Class Attributes
+
+    private final SortedFileReader reader;
+
+    private long position;
+    private final long end;
+
+    private int[] block;
+    private int blockPosition = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param reader Reader over the file.
+     * @param from First position to read, in ints.
+     * @param to Position after the last to read, in ints.
+     */
+    public SortedRangeIterator(SortedFileReader reader, long from, long to) {
+        this.reader = reader;
+        this.position = from;
+        this.end = to;
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        return this.position < this.end;
+    }
+
+
+    @Override
+    public int next() throws IOException {
+        if(!this.hasNext()) throw new NoSuchElementException();
+
+        if(this.block == null || this.blockPosition == this.block.length) {
+            int stride = this.reader.getIndex().getStride();
+            this.block = this.reader.block(this.position / stride);
+            this.blockPosition = (int)(this.position % stride);
+        }
+        this.position++;
+        return this.block[this.blockPosition++];
+    }
+
+
+    /**
+     * Nothing to release, the reader stays open.
+     */
+    @Override
+    public void close() {
+        this.block = null;
+        this.position = this.end;
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * SparseIndex.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Sparse index over a sorted file of ints: the key at every stride-th position, so the key at position i * stride is
+ * sample i and its offset in the file is implied by its index.
+ *
+ * A sort fills the index in as it writes its output (see SortConfig.setIndexStride), from whichever threads write
+ * it, so the index costs no extra pass. It is saved in a sidecar file next to the output, as the number of ints and
+ * the stride followed by the samples, all big-endian. SortedFileReader uses it to narrow any search down to a single
+ * stride of the file.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SparseIndex {
+
+    // region Class Attributes
+
+    // Appended to the sorted file's path to give the path of its index.
+    public static final String SUFFIX = ".idx";
+
+    private final long numInts;
+    private final int stride;
+
+    private final int[] keys;
+
+    // Number of samples filled in so far, while the index is built.
+    private long recorded = 0;
+
+    // endregion
+
+
+    /**
+     * Constructor, for an empty index to fill in.
+     * @param numInts Number of ints in the sorted file.
+     * @param stride Number of ints between samples.
+     * @throws IllegalArgumentException If the stride is too small for the index to fit in an array.
+     */
+    public SparseIndex(long numInts, int stride) {
+        if(stride < 1) throw new IllegalArgumentException("Stride must be positive");
+        long samples = (numInts + stride - 1) / stride;
+        if(samples > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Stride " + stride + " is too small");
+        this.numInts = numInts;
+        this.stride = stride;
+        this.keys = new int[(int)samples];
+    }
+
+
+    /**
+     * Build the index of a sorted file by reading it.
+     * @param file Sorted file.
+     * @param stride Number of ints between samples.
+     * @return Complete index.
+     * @throws IOException
+     */
+    public static SparseIndex build(RandomAccessFile file, int stride) throws IOException {
+        SparseIndex index = new SparseIndex(file.length() >> 2, stride);
+        BinInfo input = new BinInfo(0, index.numInts << 2, file, 0);
+        try {
+            input.open(SortPlan.MAX_IO_CHUNK_SIZE);
+            for(long position = 0; !input.isEmpty(); position++) {
+                if(position % stride == 0) index.keys[(int)(position / stride)] = input.head();
+                input.advance();
+            }
+        }
+        finally {
+            input.close();
+        }
+        index.recorded = index.keys.length;
+        return index;
+    }
+
+
+    /**
+     * Read an index back from its sidecar file.
+     * @param file Sidecar file.
+     * @return The index.
+     * @throws IOException
+     */
+    public static SparseIndex load(File file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            SparseIndex index = new SparseIndex(in.readLong(), in.readInt());
+            for(int i = 0; i < index.keys.length; i++) index.keys[i] = in.readInt();
+            index.recorded = index.keys.length;
+            return index;
+        }
+    }
+
+
+    /**
+     * Write the index to its sidecar file, replacing it atomically.
+     * @param file Sidecar file.
+     * @throws IOException If the index is incomplete, or on failure to write.
+     */
+    public void save(File file) throws IOException {
+        if(!this.isComplete()) throw new IOException("Index of " + this.numInts + " ints is incomplete");
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try(FileOutputStream fos = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeLong(this.numInts);
+            out.writeInt(this.stride);
+            for(int key : this.keys) out.writeInt(key);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Fill in the samples among ints being written to the sorted file.
+     * @param position Position in the file of the first int, in ints.
+     * @param ints Ints being written.
+     * @param n Number of ints, from the start of the array.
+     */
+    public void record(long position, int[] ints, int n) {
+        long first = this.firstSampleFrom(position);
+        int count = 0;
+        for(long p = first; p < position + n; p += this.stride, count++) {
+            this.keys[(int)(p / this.stride)] = ints[(int)(p - position)];
+        }
+        this.addRecorded(count);
+    }
+
+
+    /**
+     * Fill in the samples among ints being written to the sorted file.
+     * @param position Position in the file of the first int, in ints.
+     * @param bytes Buffer holding the ints from its start, big-endian.
+     * @param n Number of ints.
+     */
+    public void record(long position, ByteBuffer bytes, int n) {
+        long first = this.firstSampleFrom(position);
+        int count = 0;
+        for(long p = first; p < position + n; p += this.stride, count++) {
+            this.keys[(int)(p / this.stride)] = bytes.getInt((int)(p - position) << 2);
+        }
+        this.addRecorded(count);
+    }
+
+
+    /**
+     * Fill in the samples among copies of one int being written to the sorted file.
+     * @param position Position in the file of the first copy, in ints.
+     * @param key The int.
+     * @param n Number of copies.
+     */
+    public void recordRepeated(long position, int key, long n) {
+        long first = this.firstSampleFrom(position);
+        int count = 0;
+        for(long p = first; p < position + n; p += this.stride, count++) this.keys[(int)(p / this.stride)] = key;
+        this.addRecorded(count);
+    }
+
+
+    /**
+     * Forget every sample filled in, to fill the index in again from the start.
+     */
+    public synchronized void clear() {
+        this.recorded = 0;
+    }
+
+
+    /**
+     * @return True once every sample has been filled in.
+     */
+    public synchronized boolean isComplete() {
+        return this.recorded == this.keys.length;
+    }
+
+
+    /**
+     * Find the stride which the first int not less than a key falls in.
+     * @param key Key to search for.
+     * @return Index of the last sample less than the key, or -1 if there is none.
+     */
+    public int floorSample(int key) {
+        int lo = 0, hi = this.keys.length;
+        int mid;
+        while(lo < hi) {
+            mid = (lo + hi) >>> 1;
+            if(this.keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo - 1;
+    }
+
+
+    /**
+     * Attribute Getters.
+     */
+    public long getNumInts() { return this.numInts; }
+    public int getStride() { return this.stride; }
+    public int getSamples() { return this.keys.length; }
+    public int getKey(int sample) { return this.keys[sample]; }
+
+
+    /**
+     * @param position Position in the file, in ints.
+     * @return Position of the first sample at or after it.
+     */
+    private long firstSampleFrom(long position) {
+        return (position + this.stride - 1) / this.stride * this.stride;
+    }
+
+
+    /**
+     * Count samples filled in, from any thread.
+     * @param count Number of samples.
+     */
+    private synchronized void addRecorded(int count) {
+        this.recorded += count;
+    }
+}
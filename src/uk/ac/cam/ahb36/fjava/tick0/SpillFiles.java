@@ -0,0 +1,67 @@
+/**
+ * SpillFiles.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/**
+ * A pair of temporary files for runs to be spilled to and merged between, created when first needed.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class SpillFiles implements Closeable {
+
+    // region Class Attributes
+
+    private File dir;
+    private File[] files = new File[2];
+    private RandomAccessFile[] handles = new RandomAccessFile[2];
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param dir Directory to create the files in, or null for the default temporary directory.
+     */
+    public SpillFiles(File dir) {
+        this.dir = dir;
+    }
+
+
+    /**
+     * Get one of the files, creating it if needed.
+     * @param i Which file, 0 or 1.
+     * @return The file, open for reading and writing.
+     * @throws IOException
+     */
+    public RandomAccessFile get(int i) throws IOException {
+        if(this.handles[i] == null) {
+            this.files[i] = File.createTempFile("spill", ".run", this.dir);
+            this.files[i].deleteOnExit();
+            this.handles[i] = new RandomAccessFile(this.files[i], "rw");
+        }
+        return this.handles[i];
+    }
+
+
+    /**
+     * Close and delete both files.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        for(int i = 0; i < 2; i++) {
+            if(this.handles[i] != null) this.handles[i].close();
+            if(this.files[i] != null) this.files[i].delete();
+            this.handles[i] = null;
+            this.files[i] = null;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * StreamingSort.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Sort of a stream of big-endian ints of unknown length, handing the result back as it is merged.
+ *
+ * Bins are read from the stream and sorted in memory as in ExternalSort's first phase. If the stream ends within the
+ * first bin nothing touches the disk, otherwise every full bin is spilled as a sorted run to a file in a scratch
+ * directory. Spilled runs are merged between two spill files until few enough are left to merge at once, and that
+ * final merge, together with the last bin which is still in memory, is performed lazily by the returned IntIterator.
+ * Spill files are deleted once the iterator is exhausted or closed.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class StreamingSort {
+
+    // region Class Attributes
+
+    // The bin starts this small and doubles as the stream outgrows it, so short streams stay cheap.
+    private static final int INITIAL_BIN_SIZE_IN_INTS = 1 << 16;
+
+    // endregion
+
+
+    /**
+     * Sort a stream of ints.
+     * @param in Stream to sort, read to its end.
+     * @param scratchDir Directory to spill runs to, or null for the default temporary directory.
+     * @param config Memory budget, fan-in and minimum merge buffer to sort with. The I/O mode, run generation, bin
+     *               sorter, merge mode and merge threads don't apply to streams.
+     * @return Iterator over the sorted ints, which must be closed if it isn't read to the end.
+     * @throws IOException If the stream isn't a whole number of ints, or on failure to read or spill.
+     */
+    public static IntIterator sort(InputStream in, File scratchDir, SortConfig config) throws IOException {
+        return sort(Channels.newChannel(in), scratchDir, config);
+    }
+
+
+    /**
+     * Sort a stream of ints from one stream to another.
+     * @param in Stream to sort, read to its end.
+     * @param out Stream to write the sorted ints to. Not closed.
+     * @param scratchDir Directory to spill runs to, or null for the default temporary directory.
+     * @param config Memory budget to sort within.
+     * @return Number of ints sorted.
+     * @throws IOException If the stream isn't a whole number of ints, or on failure to read or write.
+     */
+    public static long sort(InputStream in, OutputStream out, File scratchDir, SortConfig config) throws IOException {
+        return sort(Channels.newChannel(in), Channels.newChannel(out), scratchDir, config);
+    }
+
+
+    /**
+     * Sort a stream of ints from one channel to another, writing each buffer out as soon as it has been merged.
+     * @param in Channel to sort, read to its end.
+     * @param out Channel to write the sorted ints to. Not closed.
+     * @param scratchDir Directory to spill runs to, or null for the default temporary directory.
+     * @param config Memory budget to sort within.
+     * @return Number of ints sorted.
+     * @throws IOException If the stream isn't a whole number of ints, or on failure to read or write.
+     */
+    public static long sort(ReadableByteChannel in, WritableByteChannel out, File scratchDir, SortConfig config)
+            throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(config.getMinMergeBufferSize() & ~0x3);
+        IntBuffer ints = bytes.asIntBuffer();
+        long count = 0;
+
+        try(IntIterator sorted = sort(in, scratchDir, config)) {
+            while(sorted.hasNext()) {
+                ints.put(sorted.next());
+                if(!ints.hasRemaining()) {
+                    write(out, bytes, ints.position());
+                    ints.clear();
+                }
+                count++;
+            }
+            write(out, bytes, ints.position());
+        }
+        return count;
+    }
+
+
+    /**
+     * Sort a stream of ints.
+     * @param in Channel to sort, read to its end.
+     * @param scratchDir Directory to spill runs to, or null for the default temporary directory.
+     * @param config Memory budget, fan-in and minimum merge buffer to sort with. The I/O mode, run generation, bin
+     *               sorter, merge mode and merge threads don't apply to streams.
+     * @return Iterator over the sorted ints, which must be closed if it isn't read to the end.
+     * @throws IOException If the stream isn't a whole number of ints, or on failure to read or spill.
+     */
+    public static IntIterator sort(ReadableByteChannel in, File scratchDir, SortConfig config) throws IOException {
+
+        // The budget is split between the buffer pool and a bin as for files.
+        int poolSize = SortPlan.poolSize(config.getMemoryBudget());
+        int maxBinInts = SortPlan.maxBinInts(config.getMemoryBudget());
+        int chunkSize = SortPlan.ioChunkSize(poolSize);
+
+        BufferPool pool = new BufferPool(poolSize);
+        SpillFiles spills = new SpillFiles(scratchDir);
+
+        try {
+
+            // PHASE 1 //
+            // Sort each bin as it fills, spilling it unless the stream ended within it.
+
+            int[] bin = new int[Math.min(INITIAL_BIN_SIZE_IN_INTS, maxBinInts)];
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+
+            ByteBuffer inChunk = pool.acquire(chunkSize);
+            ByteBuffer outChunk = pool.acquire(chunkSize);
+            int n;
+
+            while(true) {
+                n = 0;
+                while(true) {
+                    n = readInts(in, inChunk, bin, n);
+                    if(n < bin.length || bin.length == maxBinInts) break;
+                    bin = Arrays.copyOf(bin, (int)Math.min((long)bin.length << 1, maxBinInts));
+                }
+                Arrays.parallelSort(bin, 0, n);
+
+                // A short bin means the stream has ended, and that bin stays in memory for the final merge.
+                if(n < bin.length) break;
+
+                long offset = bounds.get(bounds.size() - 1);
+                ExternalSort.writeInts(spills.get(0).getChannel(), offset, bin, n, outChunk);
+                bounds.add(offset + ((long)n << 2));
+            }
+
+            pool.release(inChunk);
+            pool.release(outChunk);
+            pool.reset();
+
+
+            // PHASE 2 //
+            // Merge the spilled runs until one fewer than the fan-in is left, leaving room for the bin in memory.
+
+            long[] runBounds = new long[bounds.size()];
+            for(int i = 0; i < runBounds.length; i++) runBounds[i] = bounds.get(i);
+
+            int maxFanIn = SortPlan.maxFanIn(config, poolSize);
+            MergePlan plan = new MergePlan(runBounds.length - 1, maxFanIn - 1);
+
+            int src = 0;
+            for(int pass = 0; pass < plan.getPasses() - 1; pass++) {
+                runBounds = ExternalSort.mergePass(spills.get(src), 0, spills.get(1 - src), 0, runBounds,
+                                                   plan.getFanIn(), pool);
+                src = 1 - src;
+                pool.reset();
+            }
+
+
+            // FINAL MERGE //
+            // Every run left, read lazily by the iterator.
+
+            List<BinInfo> runs = new ArrayList<>();
+            for(int r = 0; r < runBounds.length - 1; r++) {
+                runs.add(new BinInfo(runBounds[r], runBounds[r + 1] - runBounds[r], spills.get(src), r, pool));
+            }
+            runs.add(new ArrayBinInfo(bin, n, runs.size()));
+
+            return new MergeIterator(runs, SortPlan.share(poolSize, runs.size()), spills);
+        }
+
+        catch (IOException | RuntimeException e) {
+            spills.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Read ints from a channel into an array until the array is full or the channel ends.
+     * @param in Channel to read from.
+     * @param chunk Buffer to read through, holding any bytes read but not yet consumed between calls.
+     * @param dst Array to read into.
+     * @param n Number of ints already in the array.
+     * @return Number of ints in the array, less than its length only if the channel has ended.
+     * @throws IOException If the channel ends part way through an int.
+     */
+    private static int readInts(ReadableByteChannel in, ByteBuffer chunk, int[] dst, int n) throws IOException {
+        int k;
+        while(true) {
+            chunk.flip();
+            k = Math.min(chunk.remaining() >> 2, dst.length - n);
+            chunk.asIntBuffer().get(dst, n, k);
+            chunk.position(chunk.position() + (k << 2));
+            chunk.compact();
+            n += k;
+
+            if(n == dst.length) return n;
+            if(in.read(chunk) < 0) {
+                if(chunk.position() != 0) throw new IOException("Stream ended part way through an int");
+                return n;
+            }
+        }
+    }
+
+
+    /**
+     * Write the start of a buffer to a channel.
+     * @param out Channel to write to.
+     * @param bytes Buffer to write.
+     * @param n Number of ints to write.
+     * @throws IOException
+     */
+    private static void write(WritableByteChannel out, ByteBuffer bytes, int n) throws IOException {
+        bytes.clear().limit(n << 2);
+        while(bytes.hasRemaining()) out.write(bytes);
+    }
+}
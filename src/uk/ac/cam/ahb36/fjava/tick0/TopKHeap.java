@@ -0,0 +1,94 @@
+/**
+ * TopKHeap.java
+ * Copyright 2017, Harri Bell-Thomas, All rights reserved.
+ */
+
+package uk.ac.cam.ahb36.fjava.tick0;
+
+import java.util.Arrays;
+
+
+/**
+ * Bounded max-heap of primitive ints which keeps the k smallest values offered to it.
+ *
+ * Once full, a value is only let in by evicting the largest value held, so a stream of n values costs O(n log k) at
+ * worst and O(n) when most values are larger than everything kept.
+ *
+ * @author Harri Bell-Thomas <ahb36@cam.ac.uk>
+ */
+public class TopKHeap {
+
+    // region Class Attributes
+
+    private int size = 0;
+
+    private int[] heap;
+
+    // endregion
+
+
+    /**
+     * Constructor.
+     * @param k Number of values to keep.
+     */
+    public TopKHeap(int k) {
+        this.heap = new int[k];
+    }
+
+
+    /**
+     * Offer a value, keeping it if it's among the k smallest seen so far.
+     * @param x Value to offer.
+     */
+    public void offer(int x) {
+        if(this.size < this.heap.length) {
+            int pos = this.size++;
+            int parent;
+            while(pos > 0 && this.heap[parent = (pos - 1) >> 1] < x) {
+                this.heap[pos] = this.heap[parent];
+                pos = parent;
+            }
+            this.heap[pos] = x;
+        }
+        else if(this.size > 0 && x < this.heap[0]) {
+            this.replaceMax(x);
+        }
+    }
+
+
+    /**
+     * @return Number of values held.
+     */
+    public int size() {
+        return this.size;
+    }
+
+
+    /**
+     * Sort the values held. When the heap is full its own array is sorted and returned, so it can't be used after.
+     * @return The values held in ascending order.
+     */
+    public int[] toSortedArray() {
+        int[] values = (this.size == this.heap.length) ? this.heap : Arrays.copyOf(this.heap, this.size);
+        Arrays.sort(values);
+        this.heap = null;
+        return values;
+    }
+
+
+    /**
+     * Replace the largest value with a smaller one and sift it down into place.
+     * @param x Value to put in.
+     */
+    private void replaceMax(int x) {
+        int pos = 0;
+        int child;
+        while((child = (pos << 1) + 1) < this.size) {
+            if(child + 1 < this.size && this.heap[child + 1] > this.heap[child]) child++;
+            if(this.heap[child] <= x) break;
+            this.heap[pos] = this.heap[child];
+            pos = child;
+        }
+        this.heap[pos] = x;
+    }
+}